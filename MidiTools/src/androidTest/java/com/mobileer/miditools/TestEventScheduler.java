@@ -18,7 +18,13 @@ package com.mobileer.miditools;
 
 import org.junit.Test;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Random;
+
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 
 // Uncomment this import if you want to test the internal MidiFramer.
@@ -89,4 +95,335 @@ public class TestEventScheduler {
         assertEquals("too soon", null, scheduler.getNextEvent(time1 + 5));
         assertEquals("after 2", event2, scheduler.getNextEvent(time2 + 7));
     }
+
+    @Test
+    public void testLockFreeTwoEvents() {
+        EventScheduler scheduler = new EventScheduler(true);
+        assertTrue("lock free", scheduler.isLockFree());
+        long time1 = 723L;
+        EventScheduler.SchedulableEvent event1 = new EventScheduler.SchedulableEvent(time1);
+        long time2 = 9817L;
+        EventScheduler.SchedulableEvent event2 = new EventScheduler.SchedulableEvent(time2);
+        scheduler.add(event2);
+        scheduler.add(event1);
+        assertEquals("too soon", null, scheduler.getNextEvent(time1 - 1));
+        assertEquals("after 1", event1, scheduler.getNextEvent(time1 + 5));
+        assertEquals("too soon", null, scheduler.getNextEvent(time1 + 5));
+        assertEquals("after 2", event2, scheduler.getNextEvent(time2 + 7));
+    }
+
+    // Events with the same timestamp must come out in the order they were added.
+    @Test
+    public void testLockFreeSameTime() {
+        EventScheduler scheduler = new EventScheduler(true);
+        long time = 5000L;
+        EventScheduler.SchedulableEvent[] events = new EventScheduler.SchedulableEvent[20];
+        for (int i = 0; i < events.length; i++) {
+            events[i] = new EventScheduler.SchedulableEvent((i % 2 == 0) ? time : time + 1);
+            scheduler.add(events[i]);
+        }
+        for (int i = 0; i < events.length; i += 2) {
+            assertEquals("even " + i, events[i], scheduler.getNextEvent(time + 1));
+        }
+        for (int i = 1; i < events.length; i += 2) {
+            assertEquals("odd " + i, events[i], scheduler.getNextEvent(time + 1));
+        }
+        assertEquals("empty", null, scheduler.getNextEvent(time + 1));
+    }
+
+    // Add more events than the initial capacity in random order.
+    @Test
+    public void testLockFreeRandomOrder() {
+        EventScheduler scheduler = new EventScheduler(true, 64);
+        Random random = new Random(1234);
+        int numEvents = 1000;
+        for (int i = 0; i < numEvents; i++) {
+            scheduler.add(new EventScheduler.SchedulableEvent(random.nextInt(100000)));
+            // Let the reader empty the ring buffer.
+            assertEquals("nothing ready", null, scheduler.getNextEvent(-1));
+        }
+        long previous = -1;
+        for (int i = 0; i < numEvents; i++) {
+            EventScheduler.SchedulableEvent event = scheduler.getNextEvent(Long.MAX_VALUE);
+            assertTrue("in order", event.getTimestamp() >= previous);
+            previous = event.getTimestamp();
+        }
+        assertEquals("overflow", 0, scheduler.getOverflowCount());
+    }
+
+    @Test
+    public void testLockFreeOverflow() {
+        EventScheduler scheduler = new EventScheduler(true, 4);
+        for (int i = 0; i < 6; i++) {
+            scheduler.add(new EventScheduler.SchedulableEvent(i));
+        }
+        assertEquals("overflow", 2, scheduler.getOverflowCount());
+    }
+
+    @Test
+    public void testClearReturnsEventsToPool() {
+        EventScheduler scheduler = new EventScheduler();
+        EventScheduler.SchedulableEvent event1 = new EventScheduler.SchedulableEvent(100);
+        EventScheduler.SchedulableEvent event2 = new EventScheduler.SchedulableEvent(100);
+        EventScheduler.SchedulableEvent event3 = new EventScheduler.SchedulableEvent(200);
+        scheduler.add(event1);
+        scheduler.add(event2);
+        scheduler.add(event3);
+        assertTrue("cleared", scheduler.clear());
+        // The reader returns the cleared events to the pool when it looks for one.
+        assertEquals("empty", null, scheduler.getNextEvent(Long.MAX_VALUE));
+        ArrayList<EventScheduler.SchedulableEvent> pooled =
+                new ArrayList<EventScheduler.SchedulableEvent>();
+        EventScheduler.SchedulableEvent event;
+        while ((event = scheduler.removeEventfromPool()) != null) {
+            pooled.add(event);
+        }
+        // One event is always left in the pool.
+        assertEquals("pooled", 2, pooled.size());
+        for (EventScheduler.SchedulableEvent pooledEvent : pooled) {
+            assertTrue("cleared event", pooledEvent == event1 || pooledEvent == event2
+                    || pooledEvent == event3);
+        }
+    }
+
+    @Test
+    public void testLockFreeClearWhenFull() {
+        EventScheduler scheduler = new EventScheduler(true, 4);
+        for (int i = 0; i < 4; i++) {
+            scheduler.add(new EventScheduler.SchedulableEvent(i));
+        }
+        assertFalse("queue full", scheduler.clear());
+        // The events were not removed.
+        assertEquals("first event", 0, scheduler.getNextEvent(Long.MAX_VALUE).getTimestamp());
+        assertTrue("cleared", scheduler.clear());
+        assertEquals("empty", null, scheduler.getNextEvent(Long.MAX_VALUE));
+        assertEquals("overflow", 0, scheduler.getOverflowCount());
+    }
+
+    @Test
+    public void testLockFreeWait() throws InterruptedException {
+        final EventScheduler scheduler = new EventScheduler(true);
+        final long delay = 20 * 1000000L;
+        final EventScheduler.SchedulableEvent event = new EventScheduler.SchedulableEvent(0);
+        Thread writer = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(10);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                event.setTimestamp(System.nanoTime() + delay);
+                scheduler.add(event);
+            }
+        };
+        writer.start();
+        assertEquals("waited", event, scheduler.waitNextEvent());
+        assertTrue("not early", System.nanoTime() >= event.getTimestamp());
+        writer.join();
+    }
+
+    @Test
+    public void testArenaSplitSysEx() throws IOException {
+        MidiEventScheduler scheduler = new MidiEventScheduler(8, 16);
+        byte[] sysex = new byte[40];
+        sysex[0] = MidiConstants.STATUS_SYSTEM_EXCLUSIVE;
+        for (int i = 1; i < sysex.length - 1; i++) {
+            sysex[i] = (byte) i;
+        }
+        sysex[sysex.length - 1] = MidiConstants.STATUS_END_SYSEX;
+        long time = 1234L;
+        scheduler.getReceiver().send(sysex, 0, sysex.length, time);
+        assertEquals("split", 1, scheduler.getSplitCount());
+        assertEquals("available", 5, scheduler.getArenaAvailable());
+
+        int index = 0;
+        int[] sizes = { 16, 16, 8 };
+        for (int size : sizes) {
+            MidiEventScheduler.MidiEvent event =
+                    (MidiEventScheduler.MidiEvent) scheduler.getNextEvent(time);
+            assertEquals("count", size, event.count);
+            for (int i = 0; i < size; i++) {
+                assertEquals("data", sysex[index++], event.data[i]);
+            }
+            scheduler.addEventToPool(event);
+        }
+        assertEquals("empty", null, scheduler.getNextEvent(time));
+        assertEquals("all returned", 8, scheduler.getArenaAvailable());
+        assertEquals("allocated", 0, scheduler.getAllocatedCount());
+    }
+
+    // Check the bytes in each event that is ready at the time.
+    private static void checkEvents(MidiEventScheduler scheduler, long time,
+            byte[][] expected) {
+        for (byte[] data : expected) {
+            MidiEventScheduler.MidiEvent event =
+                    (MidiEventScheduler.MidiEvent) scheduler.getNextEvent(time);
+            assertEquals("count", data.length, event.count);
+            for (int i = 0; i < data.length; i++) {
+                assertEquals("data", data[i], event.data[i]);
+            }
+            scheduler.addEventToPool(event);
+        }
+        assertEquals("empty", null, scheduler.getNextEvent(time));
+    }
+
+    @Test
+    public void testArenaSplitsOnMessageBoundaries() throws IOException {
+        MidiEventScheduler scheduler = new MidiEventScheduler(8, 8);
+        byte[] notes = { (byte) 0x90, 0x40, 0x50, (byte) 0x91, 0x41, 0x51,
+                (byte) 0xC2, 0x05, (byte) 0x92, 0x42, 0x52 };
+        scheduler.getReceiver().send(notes, 0, notes.length, 0);
+        byte[][] expected = {
+                { (byte) 0x90, 0x40, 0x50, (byte) 0x91, 0x41, 0x51, (byte) 0xC2, 0x05 },
+                { (byte) 0x92, 0x42, 0x52 } };
+        checkEvents(scheduler, 0, expected);
+        assertEquals("split", 0, scheduler.getSplitCount());
+    }
+
+    @Test
+    public void testArenaSplitsRunningStatus() throws IOException {
+        MidiEventScheduler scheduler = new MidiEventScheduler(8, 4);
+        byte[] notes = { (byte) 0x90, 0x40, 0x50, 0x41, 0x51 };
+        scheduler.getReceiver().send(notes, 0, notes.length, 0);
+        // The running status continues in the next send.
+        byte[] more = { 0x42, 0x52, 0x43, 0x53 };
+        scheduler.getReceiver().send(more, 0, more.length, 0);
+        byte[][] expected = {
+                { (byte) 0x90, 0x40, 0x50 },
+                { 0x41, 0x51 },
+                { 0x42, 0x52, 0x43, 0x53 } };
+        checkEvents(scheduler, 0, expected);
+    }
+
+    @Test
+    public void testArenaSysExBetweenNotes() throws IOException {
+        MidiEventScheduler scheduler = new MidiEventScheduler(8, 4);
+        byte[] data = { (byte) 0x90, 0x40, 0x50,
+                MidiConstants.STATUS_SYSTEM_EXCLUSIVE, 1, 2, 3, 4, 5,
+                MidiConstants.STATUS_END_SYSEX, (byte) 0x80, 0x40, 0x00 };
+        scheduler.getReceiver().send(data, 0, data.length, 0);
+        byte[][] expected = {
+                { (byte) 0x90, 0x40, 0x50 },
+                { MidiConstants.STATUS_SYSTEM_EXCLUSIVE, 1, 2, 3 },
+                { 4, 5, MidiConstants.STATUS_END_SYSEX },
+                { (byte) 0x80, 0x40, 0x00 } };
+        checkEvents(scheduler, 0, expected);
+        assertEquals("split", 1, scheduler.getSplitCount());
+    }
+
+    @Test
+    public void testArenaOverflow() throws IOException {
+        MidiEventScheduler scheduler = new MidiEventScheduler(2, 3);
+        byte[] noteOn = { (byte) 0x90, 0x40, 0x50 };
+        for (int i = 0; i < 3; i++) {
+            scheduler.getReceiver().send(noteOn, 0, noteOn.length, i);
+        }
+        assertEquals("allocated", 1, scheduler.getAllocatedCount());
+
+        scheduler.setOverflowPolicy(MidiEventScheduler.OVERFLOW_DROP);
+        scheduler.getReceiver().send(noteOn, 0, noteOn.length, 3);
+        assertEquals("dropped", 1, scheduler.getDroppedCount());
+
+        for (int i = 0; i < 3; i++) {
+            scheduler.addEventToPool(scheduler.getNextEvent(i));
+        }
+        // The allocated event is not added to the arena.
+        assertEquals("available", 2, scheduler.getArenaAvailable());
+    }
+
+    @Test
+    public void testArenaDropWholeSysEx() throws IOException {
+        MidiEventScheduler scheduler = new MidiEventScheduler(4, 16);
+        scheduler.setOverflowPolicy(MidiEventScheduler.OVERFLOW_DROP);
+        byte[] noteOn = { (byte) 0x90, 0x40, 0x50 };
+        for (int i = 0; i < 3; i++) {
+            scheduler.getReceiver().send(noteOn, 0, noteOn.length, i);
+        }
+        // The SysEx needs 3 events but only 1 is left.
+        byte[] sysex = new byte[40];
+        sysex[0] = MidiConstants.STATUS_SYSTEM_EXCLUSIVE;
+        sysex[sysex.length - 1] = MidiConstants.STATUS_END_SYSEX;
+        scheduler.getReceiver().send(sysex, 0, sysex.length, 10);
+        assertEquals("dropped", 1, scheduler.getDroppedCount());
+        assertEquals("available", 1, scheduler.getArenaAvailable());
+        for (int i = 0; i < 3; i++) {
+            MidiEventScheduler.MidiEvent event =
+                    (MidiEventScheduler.MidiEvent) scheduler.getNextEvent(100);
+            assertEquals("note on", (byte) 0x90, event.data[0]);
+        }
+        assertEquals("no fragment", null, scheduler.getNextEvent(100));
+    }
+
+    @Test
+    public void testArenaEventNotLostOnOverflow() throws IOException {
+        MidiEventScheduler scheduler = new MidiEventScheduler(4, 3);
+        // Fill the lock-free queue without using the arena.
+        for (int i = 0; i < EventScheduler.DEFAULT_LOCK_FREE_CAPACITY; i++) {
+            scheduler.clear();
+        }
+        byte[] noteOn = { (byte) 0x90, 0x40, 0x50 };
+        scheduler.getReceiver().send(noteOn, 0, noteOn.length, 0);
+        assertEquals("overflow", 1, scheduler.getOverflowCount());
+        assertEquals("available", 4, scheduler.getArenaAvailable());
+        // The rejected event is reused.
+        assertEquals("empty", null, scheduler.getNextEvent(100));
+        scheduler.getReceiver().send(noteOn, 0, noteOn.length, 0);
+        assertEquals("allocated", 0, scheduler.getAllocatedCount());
+        assertEquals("available", 3, scheduler.getArenaAvailable());
+    }
+
+    private void checkPrecisionWait(EventScheduler scheduler) throws InterruptedException {
+        JitterHistogram histogram = new JitterHistogram();
+        scheduler.setJitterHistogram(histogram);
+        scheduler.setPrecisionWaitEnabled(true);
+        int numEvents = 20;
+        long start = System.nanoTime();
+        for (int i = 0; i < numEvents; i++) {
+            scheduler.add(new EventScheduler.SchedulableEvent(start + (i + 1) * 2000000L));
+        }
+        for (int i = 0; i < numEvents; i++) {
+            EventScheduler.SchedulableEvent event = scheduler.waitNextEvent();
+            assertTrue("not early", System.nanoTime() >= event.getTimestamp());
+        }
+        assertEquals("histogram count", numEvents, histogram.getCount());
+    }
+
+    @Test
+    public void testPrecisionWait() throws InterruptedException {
+        checkPrecisionWait(new EventScheduler(false));
+        checkPrecisionWait(new EventScheduler(true));
+    }
+
+    private void checkDrain(EventScheduler scheduler) {
+        final ArrayList<EventScheduler.SchedulableEvent> drained =
+                new ArrayList<EventScheduler.SchedulableEvent>();
+        EventScheduler.EventSink sink = new EventScheduler.EventSink() {
+            @Override
+            public void onEventReady(EventScheduler.SchedulableEvent event) {
+                drained.add(event);
+            }
+        };
+        long[] times = { 300L, 100L, 200L, 100L, 500L };
+        EventScheduler.SchedulableEvent[] events = new EventScheduler.SchedulableEvent[times.length];
+        for (int i = 0; i < times.length; i++) {
+            events[i] = new EventScheduler.SchedulableEvent(times[i]);
+            scheduler.add(events[i]);
+        }
+        assertEquals("none ready", 0, scheduler.drainReadyEvents(99L, sink));
+        assertEquals("ready", 4, scheduler.drainReadyEvents(300L, sink));
+        assertEquals("first", events[1], drained.get(0));
+        assertEquals("same time", events[3], drained.get(1));
+        assertEquals("third", events[2], drained.get(2));
+        assertEquals("fourth", events[0], drained.get(3));
+        assertEquals("last", 1, scheduler.drainReadyEvents(1000L, sink));
+        assertEquals("last event", events[4], drained.get(4));
+        assertEquals("empty", null, scheduler.getNextEvent(1000L));
+    }
+
+    @Test
+    public void testDrainReadyEvents() {
+        checkDrain(new EventScheduler(false));
+        checkDrain(new EventScheduler(true));
+    }
 }
@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mobileer.miditools;
+
+import android.util.Log;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compare the TreeMap and lock-free EventSchedulers.
+ *
+ * A writer thread adds events at a steady rate, like a Binder thread
+ * receiving MIDI. The reader polls like an audio thread and measures how
+ * long each call to getNextEvent() takes.
+ */
+public class TestEventSchedulerBenchmark {
+    private static final String TAG = "SchedulerBenchmark";
+    private static final int EVENTS_PER_SECOND = 20000;
+    private static final int NUM_EVENTS = 40000;
+    private static final long NANOS_PER_EVENT = 1000000000L / EVENTS_PER_SECOND;
+    // Schedule events slightly in the future like a sequencer would.
+    private static final long SCHEDULE_AHEAD_NANOS = 2 * 1000000L;
+
+    static class Result {
+        int eventsReceived;
+        // Can happen if the writer is preempted and then adds late events.
+        int outOfOrder;
+        long polls;
+        long totalPollNanos;
+        long maxPollNanos;
+
+        @Override
+        public String toString() {
+            return "events = " + eventsReceived
+                    + ", out of order = " + outOfOrder
+                    + ", polls = " + polls
+                    + ", mean poll = " + (totalPollNanos / Math.max(1, polls)) + " ns"
+                    + ", max poll = " + maxPollNanos + " ns";
+        }
+    }
+
+    private Result run(final EventScheduler scheduler) throws InterruptedException {
+        Thread writer = new Thread() {
+            @Override
+            public void run() {
+                long next = System.nanoTime();
+                for (int i = 0; i < NUM_EVENTS; i++) {
+                    while (System.nanoTime() < next) {
+                        // Busy wait to get an accurate rate.
+                    }
+                    // Jitter the timestamps so the events arrive out of order.
+                    long timestamp = next + SCHEDULE_AHEAD_NANOS - ((i * 7919L) % 1000000L);
+                    scheduler.add(new EventScheduler.SchedulableEvent(timestamp));
+                    next += NANOS_PER_EVENT;
+                }
+            }
+        };
+        Result result = new Result();
+        long previousTime = Long.MIN_VALUE;
+        long deadline = System.nanoTime() + 10L * 1000000000L;
+        writer.start();
+        while (result.eventsReceived < NUM_EVENTS && System.nanoTime() < deadline) {
+            long start = System.nanoTime();
+            EventScheduler.SchedulableEvent event = scheduler.getNextEvent(start);
+            long elapsed = System.nanoTime() - start;
+            result.polls++;
+            result.totalPollNanos += elapsed;
+            result.maxPollNanos = Math.max(result.maxPollNanos, elapsed);
+            if (event != null) {
+                if (event.getTimestamp() < previousTime) {
+                    result.outOfOrder++;
+                }
+                previousTime = event.getTimestamp();
+                result.eventsReceived++;
+            }
+        }
+        writer.join();
+        return result;
+    }
+
+    @Test
+    public void testCompareSchedulers() throws InterruptedException {
+        Result treeResult = run(new EventScheduler(false));
+        Log.i(TAG, "TreeMap:   " + treeResult);
+        EventScheduler lockFree = new EventScheduler(true);
+        Result lockFreeResult = run(lockFree);
+        Log.i(TAG, "Lock-free: " + lockFreeResult);
+
+        assertEquals("TreeMap events", NUM_EVENTS, treeResult.eventsReceived);
+        assertEquals("lock-free events", NUM_EVENTS, lockFreeResult.eventsReceived);
+        assertEquals("lock-free overflow", 0, lockFree.getOverflowCount());
+    }
+}
@@ -0,0 +1,380 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mobileer.miditools;
+
+import android.media.midi.MidiReceiver;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit Tests for the MidiDispatcher and MidiMessageRing
+ */
+public class TestMidiDispatcher {
+    private static final long TIMEOUT_MSEC = 2000;
+
+    // Store the received messages. Optionally wait for a gate before returning.
+    static class SlowReceiver extends MidiReceiver {
+        final ArrayList<TestMidiFramer.MidiMessage> messages =
+                new ArrayList<TestMidiFramer.MidiMessage>();
+        volatile int count;
+        volatile Thread thread;
+        volatile CountDownLatch gate;
+
+        @Override
+        public void onSend(byte[] data, int offset, int length, long timestamp)
+                throws IOException {
+            thread = Thread.currentThread();
+            try {
+                if (gate != null) {
+                    gate.await();
+                }
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            synchronized (messages) {
+                messages.add(new TestMidiFramer.MidiMessage(data, offset, length, timestamp));
+            }
+            count++;
+        }
+    }
+
+    static class FailingReceiver extends MidiReceiver {
+        @Override
+        public void onSend(byte[] data, int offset, int length, long timestamp)
+                throws IOException {
+            throw new IOException("failed on purpose");
+        }
+    }
+
+    private static void waitForCount(SlowReceiver receiver, int count)
+            throws InterruptedException {
+        long end = System.currentTimeMillis() + TIMEOUT_MSEC;
+        while (receiver.count < count && System.currentTimeMillis() < end) {
+            Thread.sleep(1);
+        }
+        assertEquals("received", count, receiver.count);
+    }
+
+    private static void checkNotes(SlowReceiver receiver, int numMessages) {
+        assertEquals(numMessages, receiver.messages.size());
+        for (int i = 0; i < numMessages; i++) {
+            TestMidiFramer.MidiMessage message = receiver.messages.get(i);
+            assertEquals("data[1]", i & 0x7F, message.data[1]);
+            assertEquals("timestamp", (long) i, message.timestamp);
+        }
+    }
+
+    private static void sendNotes(MidiDispatcher dispatcher, int numMessages)
+            throws IOException {
+        byte[] buffer = new byte[3];
+        for (int i = 0; i < numMessages; i++) {
+            buffer[0] = (byte) 0x90;
+            buffer[1] = (byte) (i & 0x7F);
+            buffer[2] = 0x40;
+            dispatcher.send(buffer, 0, buffer.length, i);
+        }
+    }
+
+    @Test
+    public void testRingWrap() {
+        MidiMessageRing ring = new MidiMessageRing(100);
+        assertEquals(128, ring.getCapacity());
+        byte[] data = new byte[32];
+        byte[] buffer = new byte[ring.getMaxMessageSize()];
+        assertEquals(-1, ring.read(buffer));
+        // Keep one message in the ring so the positions keep moving.
+        for (int i = 0; i < 1000; i++) {
+            int count = i % data.length;
+            for (int j = 0; j < count; j++) {
+                data[j] = (byte) (i + j);
+            }
+            assertTrue(ring.write(data, 0, count, 1000L + i, -i));
+            if (i > 0) {
+                int previous = i - 1;
+                assertEquals(previous % data.length, ring.read(buffer));
+                assertEquals(1000L + previous, ring.getTimestamp());
+                assertEquals((long) -previous, ring.getWriteTime());
+                for (int j = 0; j < previous % data.length; j++) {
+                    assertEquals((byte) (previous + j), buffer[j]);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testRingFull() {
+        MidiMessageRing ring = new MidiMessageRing(64);
+        byte[] data = { (byte) 0x90, 0x40, 0x50 };
+        int numWritten = 0;
+        while (ring.write(data, 0, data.length, numWritten, 0)) {
+            numWritten++;
+        }
+        assertEquals(64 / 23, numWritten);
+        byte[] buffer = new byte[ring.getMaxMessageSize()];
+        for (int i = 0; i < numWritten; i++) {
+            assertEquals(3, ring.read(buffer));
+            assertEquals((long) i, ring.getTimestamp());
+        }
+        assertTrue(ring.isEmpty());
+        assertTrue(ring.write(data, 0, data.length, 0, 0));
+    }
+
+    @Test
+    public void testSerial() throws IOException {
+        MidiDispatcher dispatcher = new MidiDispatcher();
+        SlowReceiver receiver1 = new SlowReceiver();
+        SlowReceiver receiver2 = new SlowReceiver();
+        dispatcher.getSender().connect(receiver1);
+        dispatcher.getSender().connect(new FailingReceiver());
+        dispatcher.getSender().connect(receiver2);
+        assertEquals(3, dispatcher.getReceiverCount());
+        sendNotes(dispatcher, 10);
+        assertEquals(2, dispatcher.getReceiverCount());
+        assertEquals(1, dispatcher.getFailedReceiverCount());
+        checkNotes(receiver1, 10);
+        checkNotes(receiver2, 10);
+        assertEquals(Thread.currentThread(), receiver1.thread);
+        assertEquals(10, dispatcher.getStatistics(receiver2).getDeliveredCount());
+        dispatcher.getSender().disconnect(receiver1);
+        assertEquals(1, dispatcher.getReceiverCount());
+    }
+
+    // With only one receiver the message is passed on directly.
+    @Test
+    public void testAsyncSingleReceiver() throws IOException {
+        MidiDispatcher dispatcher = new MidiDispatcher();
+        dispatcher.setDispatchMode(MidiDispatcher.DISPATCH_ASYNC);
+        SlowReceiver receiver = new SlowReceiver();
+        dispatcher.getSender().connect(receiver);
+        sendNotes(dispatcher, 10);
+        checkNotes(receiver, 10);
+        assertEquals(Thread.currentThread(), receiver.thread);
+        assertEquals(0, dispatcher.getStatistics(receiver).getQueuedCount());
+        dispatcher.setDispatchMode(MidiDispatcher.DISPATCH_SERIAL);
+    }
+
+    // A slow receiver should not delay a fast one.
+    @Test
+    public void testAsyncSlowReceiver() throws IOException, InterruptedException {
+        MidiDispatcher dispatcher = new MidiDispatcher();
+        dispatcher.setDispatchMode(MidiDispatcher.DISPATCH_ASYNC);
+        SlowReceiver slow = new SlowReceiver();
+        // Block the slow receiver until the fast one has everything.
+        CountDownLatch gate = new CountDownLatch(1);
+        slow.gate = gate;
+        SlowReceiver fast = new SlowReceiver();
+        dispatcher.getSender().connect(slow);
+        dispatcher.getSender().connect(fast);
+        int numMessages = 20;
+        sendNotes(dispatcher, numMessages);
+        waitForCount(fast, numMessages);
+        assertEquals("slow receiver was not blocked", 0, slow.count);
+        gate.countDown();
+        waitForCount(slow, numMessages);
+        checkNotes(fast, numMessages);
+        checkNotes(slow, numMessages);
+        assertTrue(slow.thread != Thread.currentThread());
+        MidiDispatcher.Statistics statistics = dispatcher.getStatistics(slow);
+        assertEquals(numMessages, statistics.getQueuedCount());
+        assertTrue(statistics.getMaxLatencyNanos() >= statistics.getMeanLatencyNanos());
+        assertTrue(statistics.getMeanLatencyNanos() > 0);
+        dispatcher.setDispatchMode(MidiDispatcher.DISPATCH_SERIAL);
+    }
+
+    private void checkOverflow(int policy) throws IOException, InterruptedException {
+        MidiDispatcher dispatcher = new MidiDispatcher();
+        dispatcher.setDispatchMode(MidiDispatcher.DISPATCH_ASYNC);
+        dispatcher.setQueueCapacity(128);
+        dispatcher.setOverflowPolicy(MidiDispatcher.OVERFLOW_BLOCK);
+        SlowReceiver stuck = new SlowReceiver();
+        final CountDownLatch gate = new CountDownLatch(1);
+        stuck.gate = gate;
+        SlowReceiver other = new SlowReceiver();
+        dispatcher.getSender().connect(stuck);
+        dispatcher.getSender().connect(other);
+        dispatcher.setOverflowPolicy(stuck, policy);
+        int numMessages = 100;
+        if (policy == MidiDispatcher.OVERFLOW_BLOCK) {
+            // Open the gate later so that the sender has to wait.
+            new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        Thread.sleep(20);
+                    } catch (InterruptedException e) {
+                    }
+                    gate.countDown();
+                }
+            }.start();
+        }
+        sendNotes(dispatcher, numMessages);
+        gate.countDown();
+        waitForCount(other, numMessages);
+        MidiDispatcher.Statistics statistics = dispatcher.getStatistics(stuck);
+        long dropped = statistics.getDroppedCount();
+        waitForCount(stuck, numMessages - (int) dropped);
+        if (policy == MidiDispatcher.OVERFLOW_BLOCK) {
+            assertEquals(0, dropped);
+            checkNotes(stuck, numMessages);
+        } else {
+            assertTrue("dropped " + dropped, dropped > 0);
+        }
+        assertEquals(0, dispatcher.getStatistics(other).getDroppedCount());
+        dispatcher.setDispatchMode(MidiDispatcher.DISPATCH_SERIAL);
+    }
+
+    @Test
+    public void testOverflowDrop() throws IOException, InterruptedException {
+        checkOverflow(MidiDispatcher.OVERFLOW_DROP);
+    }
+
+    @Test
+    public void testOverflowBlock() throws IOException, InterruptedException {
+        checkOverflow(MidiDispatcher.OVERFLOW_BLOCK);
+    }
+
+    @Test
+    public void testAsyncFailingReceiver() throws IOException, InterruptedException {
+        MidiDispatcher dispatcher = new MidiDispatcher();
+        dispatcher.setDispatchMode(MidiDispatcher.DISPATCH_ASYNC);
+        SlowReceiver receiver = new SlowReceiver();
+        dispatcher.getSender().connect(receiver);
+        dispatcher.getSender().connect(new FailingReceiver());
+        sendNotes(dispatcher, 10);
+        waitForCount(receiver, 10);
+        long end = System.currentTimeMillis() + TIMEOUT_MSEC;
+        while (dispatcher.getReceiverCount() > 1 && System.currentTimeMillis() < end) {
+            Thread.sleep(1);
+        }
+        assertEquals(1, dispatcher.getReceiverCount());
+        assertEquals(1, dispatcher.getFailedReceiverCount());
+        dispatcher.setDispatchMode(MidiDispatcher.DISPATCH_SERIAL);
+    }
+
+    @Test
+    public void testFilterBits() {
+        MidiFilter filter = new MidiFilter();
+        for (int status = 0; status < 256; status++) {
+            assertTrue(filter.accepts((byte) status));
+        }
+        filter.acceptNone()
+                .setChannel(9, true)
+                .setChannelMessage(MidiConstants.STATUS_NOTE_ON, true)
+                .setRealTime(true)
+                .setSystemMessage(MidiConstants.STATUS_ACTIVE_SENSING, false);
+        for (int status = 0x80; status < 256; status++) {
+            boolean expected = (status == 0x99)
+                    || (status >= 0xF8 && status != 0xFE);
+            assertEquals("status " + status, expected, filter.accepts((byte) status));
+        }
+        // Data bytes are treated like SysEx.
+        assertTrue(!filter.accepts((byte) 0x12));
+        filter.setSystemMessage(MidiConstants.STATUS_SYSTEM_EXCLUSIVE, true);
+        assertTrue(filter.accepts((byte) 0x12));
+    }
+
+    @Test
+    public void testFilteredReceivers() throws IOException {
+        MidiDispatcher dispatcher = new MidiDispatcher();
+        SlowReceiver notes = new SlowReceiver();
+        SlowReceiver noSensing = new SlowReceiver();
+        SlowReceiver everything = new SlowReceiver();
+        dispatcher.getSender().connect(notes);
+        dispatcher.getSender().connect(noSensing);
+        dispatcher.getSender().connect(everything);
+        MidiFilter filter = new MidiFilter().acceptNone()
+                .setChannel(0, true)
+                .setChannelMessage(MidiConstants.STATUS_NOTE_ON, true)
+                .setChannelMessage(MidiConstants.STATUS_NOTE_OFF, true);
+        dispatcher.setFilter(notes, filter);
+        // Changing the filter later has no effect.
+        filter.acceptAll();
+        dispatcher.setFilter(noSensing, new MidiFilter()
+                .setSystemMessage(MidiConstants.STATUS_ACTIVE_SENSING, false));
+
+        byte[] buffer = { (byte) 0x90, 0x40, 0x40, (byte) 0x91, 0x40, 0x40,
+                MidiConstants.STATUS_ACTIVE_SENSING, (byte) 0xB0, 0x07, 0x10,
+                MidiConstants.STATUS_TIMING_CLOCK, (byte) 0xF0, 0x01, 0x02, (byte) 0xF7,
+                (byte) 0x80, 0x40, 0x00 };
+        dispatcher.send(buffer, 0, buffer.length, 77L);
+
+        assertEquals(2, notes.messages.size());
+        assertEquals((byte) 0x90, notes.messages.get(0).data[0]);
+        assertEquals((byte) 0x80, notes.messages.get(1).data[0]);
+        assertEquals(6, noSensing.messages.size());
+        for (TestMidiFramer.MidiMessage message : noSensing.messages) {
+            assertTrue(message.data[0] != MidiConstants.STATUS_ACTIVE_SENSING);
+            assertEquals(77L, message.timestamp);
+        }
+        assertEquals(4, noSensing.messages.get(4).data.length); // SysEx
+        int total = 0;
+        for (TestMidiFramer.MidiMessage message : everything.messages) {
+            total += message.data.length;
+        }
+        assertEquals(buffer.length, total);
+    }
+
+    private static int countBytes(SlowReceiver receiver) {
+        int total = 0;
+        for (TestMidiFramer.MidiMessage message : receiver.messages) {
+            total += message.data.length;
+        }
+        return total;
+    }
+
+    // Data bytes that use running status are filtered with their message.
+    @Test
+    public void testFilteredRunningStatus() throws IOException {
+        MidiDispatcher dispatcher = new MidiDispatcher();
+        SlowReceiver noNotes = new SlowReceiver();
+        SlowReceiver notesOnly = new SlowReceiver();
+        dispatcher.getSender().connect(noNotes);
+        dispatcher.getSender().connect(notesOnly);
+        dispatcher.setFilter(noNotes, new MidiFilter()
+                .setChannelMessage(MidiConstants.STATUS_NOTE_ON, false));
+        dispatcher.setFilter(notesOnly, new MidiFilter().acceptNone()
+                .setChannelMessage(MidiConstants.STATUS_NOTE_ON, true)
+                .setChannel(0, true));
+
+        byte[] buffer = { (byte) 0x90, 0x40, 0x40, 0x41, 0x40 };
+        dispatcher.send(buffer, 0, buffer.length, 0L);
+        // A message is split between buffers.
+        byte[] first = { 0x42 };
+        byte[] second = { 0x40, MidiConstants.STATUS_TIMING_CLOCK, 0x43, 0x40 };
+        dispatcher.send(first, 0, first.length, 1L);
+        dispatcher.send(second, 0, second.length, 2L);
+
+        assertEquals(1, noNotes.messages.size());
+        assertEquals(MidiConstants.STATUS_TIMING_CLOCK, noNotes.messages.get(0).data[0]);
+        assertEquals(buffer.length + first.length + second.length - 1, countBytes(notesOnly));
+        assertEquals(0x41, notesOnly.messages.get(1).data[0]);
+        assertEquals(2, notesOnly.messages.get(1).data.length);
+
+        // SysEx cancels running status so the data is treated as SysEx.
+        byte[] sysex = { (byte) 0xF0, 0x01, (byte) 0xF7, 0x44, 0x40 };
+        dispatcher.send(sysex, 0, sysex.length, 3L);
+        assertEquals(3, noNotes.messages.size());
+        assertEquals(buffer.length + first.length + second.length - 1, countBytes(notesOnly));
+    }
+}
@@ -0,0 +1,230 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mobileer.miditools;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+/**
+ * Parse Standard MIDI Files that are built in memory.
+ */
+public class TestMidiFile {
+    private static final int PPQ = 96;
+
+    /**
+     * Build a Standard MIDI File.
+     */
+    public static class Writer {
+        private final ByteArrayOutputStream mFile = new ByteArrayOutputStream();
+        private ByteArrayOutputStream mTrack;
+
+        public Writer(int format, int numTracks, int division) {
+            writeTag(mFile, "MThd");
+            writeInt(mFile, 6, 4);
+            writeInt(mFile, format, 2);
+            writeInt(mFile, numTracks, 2);
+            writeInt(mFile, division, 2);
+        }
+
+        public Writer beginTrack() {
+            mTrack = new ByteArrayOutputStream();
+            return this;
+        }
+
+        /**
+         * @param delta ticks since the previous event
+         * @param bytes event without the delta time
+         */
+        public Writer event(int delta, int... bytes) {
+            writeVariableLength(mTrack, delta);
+            for (int b : bytes) {
+                mTrack.write(b);
+            }
+            return this;
+        }
+
+        public Writer tempo(int delta, int microsPerQuarter) {
+            return event(delta, 0xFF, MidiFile.META_TEMPO, 3, microsPerQuarter >> 16,
+                    (microsPerQuarter >> 8) & 0xFF, microsPerQuarter & 0xFF);
+        }
+
+        public Writer endTrack(int delta) {
+            event(delta, 0xFF, MidiFile.META_END_OF_TRACK, 0);
+            writeTag(mFile, "MTrk");
+            writeInt(mFile, mTrack.size(), 4);
+            byte[] track = mTrack.toByteArray();
+            mFile.write(track, 0, track.length);
+            return this;
+        }
+
+        public byte[] toByteArray() {
+            return mFile.toByteArray();
+        }
+
+        private static void writeTag(ByteArrayOutputStream stream, String tag) {
+            for (int i = 0; i < 4; i++) {
+                stream.write(tag.charAt(i));
+            }
+        }
+
+        private static void writeInt(ByteArrayOutputStream stream, int value, int numBytes) {
+            for (int i = numBytes - 1; i >= 0; i--) {
+                stream.write(value >> (8 * i));
+            }
+        }
+
+        private static void writeVariableLength(ByteArrayOutputStream stream, int value) {
+            int shift = 21;
+            while (shift > 0 && (value >> shift) == 0) {
+                shift -= 7;
+            }
+            for (; shift > 0; shift -= 7) {
+                stream.write(0x80 | ((value >> shift) & 0x7F));
+            }
+            stream.write(value & 0x7F);
+        }
+    }
+
+    private static void checkMessage(MidiFile.Event event, long tick, int... bytes) {
+        assertEquals(tick, event.getTick());
+        assertFalse(event.isMeta());
+        byte[] expected = new byte[bytes.length];
+        for (int i = 0; i < bytes.length; i++) {
+            expected[i] = (byte) bytes[i];
+        }
+        assertArrayEquals(expected, event.getData());
+    }
+
+    @Test
+    public void testFormat0RunningStatus() throws IOException {
+        byte[] data = new Writer(0, 1, PPQ).beginTrack()
+                .event(0, 0x90, 60, 100)
+                .event(PPQ, 64, 90) // running status
+                .event(0, 60, 0)
+                .event(PPQ, 0xC1, 5)
+                .event(0, 7) // running status, two byte message
+                .endTrack(PPQ)
+                .toByteArray();
+        MidiFile file = MidiFile.read(new ByteArrayInputStream(data));
+        assertEquals(0, file.getFormat());
+        assertEquals(1, file.getTrackCount());
+        assertEquals(PPQ, file.getDivision());
+        List<MidiFile.Event> events = file.getEvents();
+        assertEquals(6, events.size());
+        checkMessage(events.get(0), 0, 0x90, 60, 100);
+        checkMessage(events.get(1), PPQ, 0x90, 64, 90);
+        checkMessage(events.get(2), PPQ, 0x90, 60, 0);
+        checkMessage(events.get(3), 2 * PPQ, 0xC1, 5);
+        checkMessage(events.get(4), 2 * PPQ, 0xC1, 7);
+        assertEquals(MidiFile.META_END_OF_TRACK, events.get(5).getMetaType());
+        // Default tempo is 120 BPM, so a quarter note is half a second.
+        assertEquals(500000000L, events.get(1).getTime());
+        assertEquals(1500000000L, file.getDurationNanos());
+    }
+
+    @Test
+    public void testFormat1TempoMap() throws IOException {
+        byte[] data = new Writer(1, 2, PPQ)
+                .beginTrack()
+                .tempo(0, 1000000) // 60 BPM
+                .tempo(2 * PPQ, 250000) // 240 BPM
+                .endTrack(0)
+                .beginTrack()
+                .event(PPQ, 0x91, 48, 100)
+                .event(2 * PPQ, 0x81, 48, 0)
+                .event(0, 0xF0, 3, 0x7E, 0x01, 0xF7) // SysEx
+                .endTrack(0)
+                .toByteArray();
+        MidiFile file = MidiFile.parse(data);
+        assertEquals(2, file.getTrackCount());
+        List<MidiFile.Event> events = file.getEvents();
+        assertEquals(7, events.size());
+        // Sorted by tick, then by track.
+        assertEquals(MidiFile.META_TEMPO, events.get(0).getMetaType());
+        checkMessage(events.get(1), PPQ, 0x91, 48, 100);
+        assertEquals(1, events.get(1).getTrack());
+        assertEquals(1000000000L, events.get(1).getTime());
+        assertEquals(MidiFile.META_TEMPO, events.get(2).getMetaType());
+        assertEquals(2000000000L, events.get(2).getTime());
+        assertEquals(MidiFile.META_END_OF_TRACK, events.get(3).getMetaType());
+        assertEquals(0, events.get(3).getTrack());
+        // One quarter note at 240 BPM after the tempo change.
+        checkMessage(events.get(4), 3 * PPQ, 0x81, 48, 0);
+        assertEquals(2250000000L, events.get(4).getTime());
+        checkMessage(events.get(5), 3 * PPQ, 0xF0, 0x7E, 0x01, 0xF7);
+    }
+
+    @Test
+    public void testSmpteDivision() throws IOException {
+        // 25 frames per second, 40 ticks per frame, so one tick is a millisecond.
+        byte[] data = new Writer(0, 1, ((-25 & 0xFF) << 8) | 40).beginTrack()
+                .tempo(0, 1000000) // ignored
+                .event(1500, 0x90, 60, 100)
+                .endTrack(0)
+                .toByteArray();
+        MidiFile file = MidiFile.parse(data);
+        assertEquals(1500000000L, file.getEvents().get(1).getTime());
+    }
+
+    @Test
+    public void testUnknownChunkIsSkipped() throws IOException {
+        byte[] track = new Writer(0, 1, PPQ).beginTrack()
+                .event(0, 0x90, 60, 100)
+                .endTrack(0)
+                .toByteArray();
+        // Insert an unknown chunk after the header.
+        byte[] data = new byte[track.length + 10];
+        System.arraycopy(track, 0, data, 0, 14);
+        byte[] alien = {'X', 'Y', 'Z', 'W', 0, 0, 0, 2, 1, 2};
+        System.arraycopy(alien, 0, data, 14, alien.length);
+        System.arraycopy(track, 14, data, 24, track.length - 14);
+        assertEquals(2, MidiFile.parse(data).getEvents().size());
+    }
+
+    private static void checkBad(byte[] data) {
+        try {
+            MidiFile.parse(data);
+            fail("expected IOException");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testBadFiles() {
+        checkBad(new byte[] {'R', 'I', 'F', 'F', 0, 0, 0, 6, 0, 0, 0, 1, 0, 96});
+        checkBad(new Writer(2, 1, PPQ).beginTrack().endTrack(0).toByteArray());
+        // Data byte without running status.
+        checkBad(new Writer(0, 1, PPQ).beginTrack().event(0, 60, 100).endTrack(0)
+                .toByteArray());
+        // Truncated track.
+        byte[] data = new Writer(0, 1, PPQ).beginTrack().event(0, 0x90, 60, 100)
+                .endTrack(0).toByteArray();
+        byte[] truncated = new byte[data.length - 3];
+        System.arraycopy(data, 0, truncated, 0, truncated.length);
+        checkBad(truncated);
+    }
+}
@@ -0,0 +1,293 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mobileer.miditools;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Feed a scheduler from a MidiFileSequencer without the background thread.
+ */
+public class TestMidiFileSequencer {
+    private static final int PPQ = 480;
+    private static final long MILLIS = 1000000L;
+    // At the default tempo of 120 BPM a quarter note is 500 msec.
+    private static final int TICKS_PER_100_MSEC = PPQ / 5;
+    private static final int NUM_NOTES = 1000;
+
+    private final MidiEventScheduler mScheduler = new MidiEventScheduler();
+
+    // One note every 100 msec, after a program change.
+    private static MidiFileReader createReader() throws IOException {
+        TestMidiFile.Writer writer = new TestMidiFile.Writer(0, 1, PPQ).beginTrack();
+        writer.event(0, 0xC2, 9);
+        writer.event(0, 0xB2, 7, 80);
+        for (int i = 0; i < NUM_NOTES; i++) {
+            writer.event((i == 0) ? 0 : TICKS_PER_100_MSEC / 2, 0x92, 60, 100);
+            writer.event(TICKS_PER_100_MSEC / 2, 0x82, 60, 0);
+        }
+        return new MidiFileReader(writer.endTrack(0).toByteArray());
+    }
+
+    // Remove all of the scheduled events.
+    private List<MidiEventScheduler.MidiEvent> drain() {
+        List<MidiEventScheduler.MidiEvent> events = new ArrayList<MidiEventScheduler.MidiEvent>();
+        EventScheduler.SchedulableEvent event;
+        while ((event = mScheduler.getNextEvent(Long.MAX_VALUE)) != null) {
+            events.add((MidiEventScheduler.MidiEvent) event);
+        }
+        return events;
+    }
+
+    private static List<Long> noteOnTimes(List<MidiEventScheduler.MidiEvent> events) {
+        List<Long> times = new ArrayList<Long>();
+        for (MidiEventScheduler.MidiEvent event : events) {
+            if ((event.data[0] & 0xF0) == 0x90) {
+                times.add(event.getTimestamp());
+            }
+        }
+        return times;
+    }
+
+    @Test
+    public void testLookaheadWindow() throws IOException {
+        MidiFileSequencer sequencer = new MidiFileSequencer(mScheduler, createReader());
+        long start = 1000 * MILLIS;
+        sequencer.prepare(0, start);
+        sequencer.feed(start);
+        List<Long> times = noteOnTimes(drain());
+        // Notes at 0, 100, 200, 300, 400 and 500 msec.
+        assertEquals(6, times.size());
+        for (int i = 0; i < times.size(); i++) {
+            assertEquals(start + (i * 100 * MILLIS), (long) times.get(i));
+        }
+        // Nothing more until time moves on.
+        sequencer.feed(start);
+        assertTrue(drain().isEmpty());
+        sequencer.feed(start + 1000 * MILLIS);
+        times = noteOnTimes(drain());
+        assertEquals(10, times.size());
+        assertEquals(start + 600 * MILLIS, (long) times.get(0));
+        // The scheduler never holds more than one window of events.
+        for (int i = 2; i < 100; i++) {
+            sequencer.feed(start + i * 1000 * MILLIS);
+            assertEquals(20, drain().size());
+        }
+    }
+
+    @Test
+    public void testTempoScale() throws IOException {
+        MidiFileSequencer sequencer = new MidiFileSequencer(mScheduler, createReader());
+        sequencer.prepare(0, 0);
+        sequencer.feed(0);
+        drain();
+        // The note on at 500 msec was the last event scheduled.
+        sequencer.setTempoScale(2.0);
+        sequencer.feed(300 * MILLIS);
+        List<Long> times = noteOnTimes(drain());
+        assertEquals(550 * MILLIS, (long) times.get(0));
+        assertEquals(600 * MILLIS, (long) times.get(1));
+        // The position moves twice as fast after the change.
+        assertEquals(4 * TICKS_PER_100_MSEC, sequencer.calculatePosition(400 * MILLIS));
+        long tick = sequencer.calculatePosition(650 * MILLIS);
+        assertEquals(5 * TICKS_PER_100_MSEC + 3 * TICKS_PER_100_MSEC, tick);
+    }
+
+    @Test
+    public void testSeekChasesChannelState() throws IOException {
+        MidiFileSequencer sequencer = new MidiFileSequencer(mScheduler, createReader());
+        long start = 5000 * MILLIS;
+        long seekTick = 500 * TICKS_PER_100_MSEC;
+        sequencer.prepare(seekTick, start);
+        List<MidiEventScheduler.MidiEvent> events = drain();
+        // The program and volume are sent at the start.
+        assertEquals(2, events.size());
+        assertEquals((byte) 0xC2, events.get(0).data[0]);
+        assertEquals(9, events.get(0).data[1]);
+        assertEquals((byte) 0xB2, events.get(1).data[0]);
+        assertEquals(start, events.get(1).getTimestamp());
+        sequencer.feed(start);
+        List<Long> times = noteOnTimes(drain());
+        assertEquals(start, (long) times.get(0));
+        assertEquals(start + 100 * MILLIS, (long) times.get(1));
+        assertEquals(seekTick, sequencer.calculatePosition(start));
+        assertEquals(seekTick + TICKS_PER_100_MSEC, sequencer.calculatePosition(start + 100 * MILLIS));
+    }
+
+    @Test
+    public void testSeekAfterResetAllControllers() throws IOException {
+        byte[] data = new TestMidiFile.Writer(0, 1, PPQ).beginTrack()
+                .event(0, 0xB0, MidiConstants.CONTROLLER_SUSTAIN, 127)
+                .event(0, 0xB0, MidiConstants.CONTROLLER_RESET_ALL, 0)
+                .event(0, 0xB0, MidiConstants.CONTROLLER_MODULATION, 50)
+                .event(0, 0xB0, MidiConstants.CONTROLLER_ALL_NOTES_OFF, 0)
+                .event(PPQ, 0x90, 60, 100)
+                .endTrack(0)
+                .toByteArray();
+        MidiFileSequencer sequencer = new MidiFileSequencer(mScheduler,
+                new MidiFileReader(data));
+        sequencer.prepare(PPQ, 0);
+        int[] controllers = new int[128];
+        Arrays.fill(controllers, -1);
+        for (MidiEventScheduler.MidiEvent event : drain()) {
+            if (event.data[0] == (byte) 0xB0) {
+                int controller = event.data[1];
+                assertTrue("channel mode " + controller, controller < 120);
+                // Each controller is sent once.
+                assertEquals(-1, controllers[controller]);
+                controllers[controller] = event.data[2];
+            }
+        }
+        assertEquals(50, controllers[MidiConstants.CONTROLLER_MODULATION]);
+        assertEquals(0, controllers[MidiConstants.CONTROLLER_SUSTAIN]);
+    }
+
+    @Test
+    public void testSeekChasesInOrder() throws IOException {
+        byte[] data = new TestMidiFile.Writer(0, 1, PPQ).beginTrack()
+                .event(0, 0xE0, 0, 0x50)
+                .event(0, 0xB0, MidiConstants.CONTROLLER_VOLUME, 100)
+                .event(0, 0xB0, 101, 0)
+                .event(0, 0xB0, 100, 0)
+                .event(0, 0xB0, 6, 12)
+                .event(0, 0xC0, 5)
+                .event(0, 0xB0, 0, 1)
+                .event(0, 0xB0, 32, 3)
+                // Channel 1 selects an RPN and then an NRPN.
+                .event(0, 0xB1, 101, 0)
+                .event(0, 0xB1, 100, 1)
+                .event(0, 0xB1, 99, 2)
+                .event(0, 0xB1, 98, 3)
+                .event(0, 0xB1, 6, 64)
+                .event(PPQ, 0x90, 60, 100)
+                .endTrack(0)
+                .toByteArray();
+        MidiFileSequencer sequencer = new MidiFileSequencer(mScheduler,
+                new MidiFileReader(data));
+        sequencer.prepare(PPQ, 0);
+        byte[][] expected = {
+                { (byte) 0xB0, 0, 1 },
+                { (byte) 0xB0, 32, 3 },
+                { (byte) 0xC0, 5 },
+                { (byte) 0xB0, 101, 0 },
+                { (byte) 0xB0, 100, 0 },
+                { (byte) 0xB0, 6, 12 },
+                { (byte) 0xB0, MidiConstants.CONTROLLER_VOLUME, 100 },
+                { (byte) 0xE0, 0, 0x50 },
+                { (byte) 0xB1, 101, 0 },
+                { (byte) 0xB1, 100, 1 },
+                { (byte) 0xB1, 99, 2 },
+                { (byte) 0xB1, 98, 3 },
+                { (byte) 0xB1, 6, 64 } };
+        List<MidiEventScheduler.MidiEvent> events = drain();
+        assertEquals(expected.length, events.size());
+        for (int i = 0; i < expected.length; i++) {
+            MidiEventScheduler.MidiEvent event = events.get(i);
+            assertEquals("count " + i, expected[i].length, event.count);
+            for (int j = 0; j < expected[i].length; j++) {
+                assertEquals("data " + i, expected[i][j], event.data[j]);
+            }
+        }
+    }
+
+    @Test
+    public void testSeekPastEnd() throws IOException {
+        MidiFileSequencer sequencer = new MidiFileSequencer(mScheduler, createReader());
+        sequencer.prepare(NUM_NOTES * TICKS_PER_100_MSEC * 2, 0);
+        drain();
+        sequencer.feed(0);
+        assertTrue(drain().isEmpty());
+        assertFalse(sequencer.isPlaying());
+    }
+
+    @Test
+    public void testClearScheduler() throws IOException {
+        byte[] msg = {(byte) 0x90, 60, 100};
+        mScheduler.getReceiver().send(msg, 0, msg.length, 100);
+        mScheduler.getReceiver().send(msg, 0, msg.length, 200);
+        mScheduler.clear();
+        mScheduler.getReceiver().send(msg, 0, msg.length, 300);
+        assertEquals(1, drain().size());
+
+        MidiEventScheduler lockFree = new MidiEventScheduler(64, 16);
+        lockFree.getReceiver().send(msg, 0, msg.length, 100);
+        assertEquals(63, lockFree.getArenaAvailable());
+        lockFree.clear();
+        lockFree.getReceiver().send(msg, 0, msg.length, 300);
+        EventScheduler.SchedulableEvent event = lockFree.getNextEvent(Long.MAX_VALUE);
+        assertEquals(300, event.getTimestamp());
+        lockFree.addEventToPool(event);
+        assertTrue(lockFree.getNextEvent(Long.MAX_VALUE) == null);
+        // The cleared event went back to the arena.
+        assertEquals(64, lockFree.getArenaAvailable());
+    }
+
+    // Fill the lock-free queue so that a clear does not fit.
+    private static MidiEventScheduler createFullScheduler() {
+        MidiEventScheduler scheduler = new MidiEventScheduler(64, 16);
+        while (scheduler.clear()) {
+        }
+        return scheduler;
+    }
+
+    @Test
+    public void testSilenceWaitsForReader() throws Exception {
+        final MidiEventScheduler lockFree = createFullScheduler();
+        MidiFileSequencer sequencer = new MidiFileSequencer(lockFree, createReader());
+        final boolean[] done = new boolean[1];
+        Thread reader = new Thread() {
+            @Override
+            public void run() {
+                while (true) {
+                    synchronized (done) {
+                        if (done[0]) {
+                            return;
+                        }
+                    }
+                    EventScheduler.SchedulableEvent event = lockFree.getNextEvent(Long.MAX_VALUE);
+                    if (event != null) {
+                        lockFree.addEventToPool(event);
+                    }
+                }
+            }
+        };
+        reader.start();
+        boolean cleared = sequencer.silence(0);
+        synchronized (done) {
+            done[0] = true;
+        }
+        reader.join();
+        assertTrue("cleared", cleared);
+        assertEquals("overflow", 0, lockFree.getOverflowCount());
+    }
+
+    @Test
+    public void testSilenceReportsFailedClear() throws IOException {
+        MidiEventScheduler lockFree = createFullScheduler();
+        MidiFileSequencer sequencer = new MidiFileSequencer(lockFree, createReader());
+        // Nothing reads from the scheduler so the clear never fits.
+        assertFalse("cleared", sequencer.silence(0));
+    }
+}
@@ -22,6 +22,7 @@ import org.junit.Test;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Random;
 
 import static org.junit.Assert.assertEquals;
 
@@ -89,12 +90,27 @@ public class TestMidiFramer {
      */
     private void checkSequence(MidiMessage[] original, MidiMessage[] expected)
             throws IOException {
+        checkSequence(original, expected, 0);
+    }
+
+    /**
+     * @param maxSysExSize if greater than zero then reassemble SysEx messages
+     */
+    private void checkSequence(MidiMessage[] original, MidiMessage[] expected,
+            int maxSysExSize) throws IOException {
         MyLoggingReceiver receiver = new MyLoggingReceiver();
         MidiFramer framer = new MidiFramer(receiver);
+        if (maxSysExSize > 0) {
+            framer.setSysExReassembly(maxSysExSize);
+        }
         for (MidiMessage message : original) {
             framer.send(message.data, 0, message.data.length,
                     message.timestamp);
         }
+        checkReceived(expected, receiver);
+    }
+
+    private void checkReceived(MidiMessage[] expected, MyLoggingReceiver receiver) {
         assertEquals("command count", expected.length,
                 receiver.getMessageCount());
         for (int i = 0; i < expected.length; i++) {
@@ -104,6 +120,11 @@ public class TestMidiFramer {
 
     private void checkSequence(byte[][] original, byte[][] expected,
             long timestamp) throws IOException {
+        checkSequence(original, expected, timestamp, 0);
+    }
+
+    private void checkSequence(byte[][] original, byte[][] expected,
+            long timestamp, int maxSysExSize) throws IOException {
         int index = 0;
         MidiMessage[] originalMessages = new MidiMessage[original.length];
         for (byte[] data : original) {
@@ -114,7 +135,7 @@ public class TestMidiFramer {
         for (byte[] data : expected) {
             expectedMessages[index++] = new MidiMessage(data, timestamp);
         }
-        checkSequence(originalMessages, expectedMessages);
+        checkSequence(originalMessages, expectedMessages, maxSysExSize);
     }
 
     // Send a NoteOn through the MidiFramer
@@ -299,4 +320,272 @@ public class TestMidiFramer {
         checkSequence(original, expected, timestamp);
     }
 
+    // Reassemble a SysEx that was split across 3 messages.
+    @Test
+    public void testReassembleSplitSysEx() throws IOException {
+        long timestamp = 837518L;
+        byte[][] original = { { MidiConstants.STATUS_SYSTEM_EXCLUSIVE, 0x7E },
+                { 0x03, 0x7F }, { 0x21, (byte) 0xF7 } };
+        byte[][] expected = { { (byte) 0xF0, 0x7E, 0x03, 0x7F, 0x21, (byte) 0xF7 } };
+        checkSequence(original, expected, timestamp, 1024);
+    }
+
+    // The RealTime message is passed on before the reassembled SysEx.
+    @Test
+    public void testReassembleRealSysEx() throws IOException {
+        long timestamp = 837518L;
+        byte[][] original = { { MidiConstants.STATUS_SYSTEM_EXCLUSIVE, 0x7E,
+                0x03, MidiConstants.STATUS_TIMING_CLOCK },
+                { 0x7F, 0x21, (byte) 0xF7, (byte) 0x90, 0x45, 0x32 } };
+        byte[][] expected = { { (byte) 0xF8 },
+                { (byte) 0xF0, 0x7E, 0x03, 0x7F, 0x21, (byte) 0xF7 },
+                { (byte) 0x90, 0x45, 0x32 } };
+        checkSequence(original, expected, timestamp, 1024);
+    }
+
+    // Grow the buffer past its initial size.
+    @Test
+    public void testReassembleLargeSysEx() throws IOException {
+        byte[] sysEx = new byte[1000];
+        sysEx[0] = MidiConstants.STATUS_SYSTEM_EXCLUSIVE;
+        for (int i = 1; i < sysEx.length - 1; i++) {
+            sysEx[i] = (byte) (i & 0x7F);
+        }
+        sysEx[sysEx.length - 1] = MidiConstants.STATUS_END_SYSEX;
+        byte[][] original = new byte[sysEx.length / 100][];
+        for (int i = 0; i < original.length; i++) {
+            original[i] = new byte[100];
+            System.arraycopy(sysEx, i * 100, original[i], 0, 100);
+        }
+        byte[][] expected = { sysEx };
+        checkSequence(original, expected, 0L, sysEx.length);
+    }
+
+    @Test
+    public void testReassembleTooLarge() throws IOException {
+        byte[][] original = { { MidiConstants.STATUS_SYSTEM_EXCLUSIVE, 0x01, 0x02 },
+                { 0x03, 0x04, (byte) 0xF7, (byte) 0x90, 0x45, 0x32 } };
+        byte[][] expected = { { (byte) 0x90, 0x45, 0x32 } };
+        checkSequence(original, expected, 0L, 5);
+        MyLoggingReceiver receiver = new MyLoggingReceiver();
+        MidiFramer framer = new MidiFramer(receiver);
+        framer.setSysExReassembly(5);
+        for (byte[] data : original) {
+            framer.send(data, 0, data.length, 0L);
+        }
+        assertEquals("dropped", 1, framer.getDroppedSysExCount());
+    }
+
+    // A status byte ends the SysEx early.
+    @Test
+    public void testReassembleAborted() throws IOException {
+        byte[][] original = { { MidiConstants.STATUS_SYSTEM_EXCLUSIVE, 0x01, 0x02,
+                (byte) 0x90, 0x45, 0x32 } };
+        byte[][] expected = { { (byte) 0x90, 0x45, 0x32 } };
+        checkSequence(original, expected, 0L, 1024);
+    }
+
+    // Store the SysEx chunks and their flags.
+    static class MySysExListener implements MidiFramer.SysExListener {
+        ArrayList<MidiMessage> chunks = new ArrayList<MidiMessage>();
+        ArrayList<Integer> flags = new ArrayList<Integer>();
+
+        @Override
+        public void onSysExChunk(byte[] data, int offset, int count, int flags,
+                long timestamp) {
+            chunks.add(new MidiMessage(data, offset, count, timestamp));
+            this.flags.add(flags);
+        }
+
+        void check(byte[][] expectedChunks, int[] expectedFlags) {
+            assertEquals("chunk count", expectedChunks.length, chunks.size());
+            for (int i = 0; i < expectedChunks.length; i++) {
+                new MidiMessage(expectedChunks[i], chunks.get(i).timestamp)
+                        .check(chunks.get(i));
+                assertEquals("flags[" + i + "]", expectedFlags[i], (int) flags.get(i));
+            }
+        }
+    }
+
+    private void checkStream(byte[][] original, byte[][] expectedChunks,
+            int[] expectedFlags, byte[][] expectedMessages) throws IOException {
+        MyLoggingReceiver receiver = new MyLoggingReceiver();
+        MidiFramer framer = new MidiFramer(receiver);
+        MySysExListener listener = new MySysExListener();
+        framer.setSysExStreaming(listener, 4);
+        for (byte[] data : original) {
+            framer.send(data, 0, data.length, 0L);
+        }
+        listener.check(expectedChunks, expectedFlags);
+        MidiMessage[] expected = new MidiMessage[expectedMessages.length];
+        for (int i = 0; i < expected.length; i++) {
+            expected[i] = new MidiMessage(expectedMessages[i], 0L);
+        }
+        checkReceived(expected, receiver);
+    }
+
+    @Test
+    public void testStreamSysEx() throws IOException {
+        byte[][] original = { { MidiConstants.STATUS_SYSTEM_EXCLUSIVE, 0x01, 0x02 },
+                { 0x03, 0x04, MidiConstants.STATUS_TIMING_CLOCK, 0x05, 0x06, 0x07 },
+                { 0x08, (byte) 0xF7, (byte) 0x90, 0x45, 0x32 } };
+        byte[][] chunks = { { (byte) 0xF0, 0x01, 0x02, 0x03 }, { 0x04, 0x05, 0x06, 0x07 },
+                { 0x08, (byte) 0xF7 } };
+        int[] flags = { MidiFramer.SYSEX_CHUNK_START, 0, MidiFramer.SYSEX_CHUNK_END };
+        byte[][] messages = { { (byte) 0xF8 }, { (byte) 0x90, 0x45, 0x32 } };
+        checkStream(original, chunks, flags, messages);
+    }
+
+    // The last chunk is full and is not followed by an empty one.
+    @Test
+    public void testStreamShortSysEx() throws IOException {
+        byte[][] original = { { MidiConstants.STATUS_SYSTEM_EXCLUSIVE, 0x01, 0x02,
+                (byte) 0xF7 } };
+        byte[][] chunks = { { (byte) 0xF0, 0x01, 0x02, (byte) 0xF7 } };
+        int[] flags = { MidiFramer.SYSEX_CHUNK_START | MidiFramer.SYSEX_CHUNK_END };
+        checkStream(original, chunks, flags, new byte[0][]);
+    }
+
+    @Test
+    public void testStreamAborted() throws IOException {
+        byte[][] original = { { MidiConstants.STATUS_SYSTEM_EXCLUSIVE, 0x01, 0x02,
+                0x03, 0x04, (byte) 0x90, 0x45, 0x32 } };
+        byte[][] chunks = { { (byte) 0xF0, 0x01, 0x02, 0x03 }, { 0x04 } };
+        int[] flags = { MidiFramer.SYSEX_CHUNK_START,
+                MidiFramer.SYSEX_CHUNK_END | MidiFramer.SYSEX_CHUNK_ABORTED };
+        byte[][] messages = { { (byte) 0x90, 0x45, 0x32 } };
+        checkStream(original, chunks, flags, messages);
+    }
+
+    /**
+     * Create a stream that mixes the kinds of messages used in these tests:
+     * notes with and without running status, controllers, program changes,
+     * timing clocks, including inside messages, and SysEx.
+     */
+    static byte[] createCorpus(int numBytes, Random random) {
+        byte[] corpus = new byte[numBytes + 16];
+        int count = 0;
+        byte status = 0;
+        while (count < numBytes) {
+            int choice = random.nextInt(20);
+            if (choice == 0) {
+                corpus[count++] = MidiConstants.STATUS_TIMING_CLOCK;
+            } else if (choice == 1) {
+                corpus[count++] = MidiConstants.STATUS_SYSTEM_EXCLUSIVE;
+                int length = random.nextInt(8);
+                for (int i = 0; i < length; i++) {
+                    corpus[count++] = (byte) random.nextInt(128);
+                }
+                corpus[count++] = MidiConstants.STATUS_END_SYSEX;
+                status = 0; // SysEx cancels running status
+            } else if (choice == 2) {
+                status = (byte) (MidiConstants.STATUS_PROGRAM_CHANGE + random.nextInt(16));
+                corpus[count++] = status;
+                corpus[count++] = (byte) random.nextInt(128);
+            } else {
+                // Use running status most of the time.
+                if (status == 0 || choice < 6) {
+                    status = (byte) ((choice < 10 ? MidiConstants.STATUS_NOTE_ON
+                            : MidiConstants.STATUS_CONTROL_CHANGE) + random.nextInt(16));
+                    corpus[count++] = status;
+                }
+                int length = MidiConstants.getBytesPerMessage(status) - 1;
+                for (int i = 0; i < length; i++) {
+                    if (choice == 3) {
+                        // Real-time in the middle of a message.
+                        corpus[count++] = MidiConstants.STATUS_TIMING_CLOCK;
+                    }
+                    corpus[count++] = (byte) random.nextInt(128);
+                }
+            }
+        }
+        byte[] result = new byte[count];
+        System.arraycopy(corpus, 0, result, 0, count);
+        return result;
+    }
+
+    // A long stream sent in random pieces should match the same stream sent by byte.
+    // SysEx is reassembled so that it does not depend on the size of the pieces.
+    @Test
+    public void testRandomPieces() throws IOException {
+        Random random = new Random(1234);
+        byte[] corpus = createCorpus(20000, random);
+        MyLoggingReceiver receiver = new MyLoggingReceiver();
+        MidiFramer framer = new MidiFramer(receiver);
+        framer.setSysExReassembly(64);
+        MyLoggingReceiver byteReceiver = new MyLoggingReceiver();
+        MidiFramer byteFramer = new MidiFramer(byteReceiver);
+        byteFramer.setSysExReassembly(64);
+        for (int i = 0; i < corpus.length; i++) {
+            byteFramer.send(corpus, i, 1, 0L);
+        }
+        int offset = 0;
+        while (offset < corpus.length) {
+            int count = Math.min(1 + random.nextInt(64), corpus.length - offset);
+            framer.send(corpus, offset, count, 0L);
+            offset += count;
+        }
+        int numMessages = byteReceiver.getMessageCount();
+        assertEquals("command count", numMessages, receiver.getMessageCount());
+        for (int i = 0; i < numMessages; i++) {
+            byteReceiver.getMessage(i).check(receiver.getMessage(i));
+        }
+    }
+
+    // A large reassembled SysEx followed by many short messages.
+    @Test
+    public void testRunningStatusAfterLargeSysEx() throws IOException {
+        MyLoggingReceiver receiver = new MyLoggingReceiver();
+        MidiFramer framer = new MidiFramer(receiver);
+        framer.setSysExReassembly(100000);
+        byte[] sysex = new byte[1000];
+        sysex[0] = MidiConstants.STATUS_SYSTEM_EXCLUSIVE;
+        sysex[sysex.length - 1] = MidiConstants.STATUS_END_SYSEX;
+        for (int offset = 0; offset < sysex.length; offset += 50) {
+            framer.send(sysex, offset, 50, 0L);
+        }
+        byte[] notes = new byte[600];
+        notes[0] = (byte) 0x90;
+        for (int i = 1; i < notes.length; i++) {
+            notes[i] = (byte) (i & 0x7F);
+        }
+        framer.send(notes, 0, notes.length, 0L);
+        // One SysEx and 299 notes, the last data byte is waiting for another.
+        assertEquals("command count", 300, receiver.getMessageCount());
+        assertEquals("SysEx length", sysex.length, receiver.getMessage(0).data.length);
+    }
+
+    // Every SysEx in the stream should arrive complete.
+    @Test
+    public void testReassembleRandomPieces() throws IOException {
+        Random random = new Random(4321);
+        byte[] corpus = createCorpus(20000, random);
+        MyLoggingReceiver receiver = new MyLoggingReceiver();
+        MidiFramer framer = new MidiFramer(receiver);
+        framer.setSysExReassembly(64);
+        int offset = 0;
+        while (offset < corpus.length) {
+            int count = Math.min(1 + random.nextInt(64), corpus.length - offset);
+            framer.send(corpus, offset, count, 0L);
+            offset += count;
+        }
+        int numSysEx = 0;
+        for (byte b : corpus) {
+            if (b == MidiConstants.STATUS_SYSTEM_EXCLUSIVE) {
+                numSysEx++;
+            }
+        }
+        int numReceived = 0;
+        for (int i = 0; i < receiver.getMessageCount(); i++) {
+            MidiMessage message = receiver.getMessage(i);
+            if (message.data[0] == MidiConstants.STATUS_SYSTEM_EXCLUSIVE) {
+                assertEquals(MidiConstants.STATUS_END_SYSEX,
+                        message.data[message.data.length - 1]);
+                numReceived++;
+            }
+        }
+        assertEquals("SysEx count", numSysEx, numReceived);
+        assertEquals("dropped", 0, framer.getDroppedSysExCount());
+    }
+
 }
@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mobileer.miditools;
+
+import android.media.midi.MidiReceiver;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Encode messages with the RunningStatusEncoder and decode them with a MidiFramer.
+ */
+public class TestRunningStatusEncoder {
+
+    // Store each buffer that is sent.
+    static class BufferReceiver extends MidiReceiver {
+        ArrayList<TestMidiFramer.MidiMessage> buffers =
+                new ArrayList<TestMidiFramer.MidiMessage>();
+
+        @Override
+        public void onSend(byte[] data, int offset, int count, long timestamp) {
+            buffers.add(new TestMidiFramer.MidiMessage(data, offset, count, timestamp));
+        }
+    }
+
+    // Store each message that is decoded.
+    static class MessageReceiver extends MidiReceiver {
+        ArrayList<TestMidiFramer.MidiMessage> messages =
+                new ArrayList<TestMidiFramer.MidiMessage>();
+
+        @Override
+        public void onSend(byte[] data, int offset, int count, long timestamp) {
+            messages.add(new TestMidiFramer.MidiMessage(data, offset, count, timestamp));
+        }
+    }
+
+    private static void checkMessages(ArrayList<TestMidiFramer.MidiMessage> expected,
+            ArrayList<TestMidiFramer.MidiMessage> actual) {
+        assertEquals("message count", expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            expected.get(i).check(actual.get(i));
+        }
+    }
+
+    @Test
+    public void testControllerSweep() throws IOException {
+        BufferReceiver bufferReceiver = new BufferReceiver();
+        RunningStatusEncoder encoder = new RunningStatusEncoder(bufferReceiver);
+        MessageReceiver decoded = new MessageReceiver();
+        MidiFramer framer = new MidiFramer(decoded);
+        ArrayList<TestMidiFramer.MidiMessage> expected =
+                new ArrayList<TestMidiFramer.MidiMessage>();
+        long timestamp = 12345L;
+        int numMessages = 100;
+        byte[] buffer = new byte[3];
+        for (int i = 0; i < numMessages; i++) {
+            buffer[0] = MidiConstants.STATUS_CONTROL_CHANGE;
+            buffer[1] = 0x07;
+            buffer[2] = (byte) i;
+            encoder.send(buffer, 0, buffer.length, timestamp);
+            expected.add(new TestMidiFramer.MidiMessage(buffer, timestamp));
+        }
+        assertEquals("nothing sent before flush", 0, bufferReceiver.buffers.size());
+        encoder.flush();
+        assertEquals("one buffer", 1, bufferReceiver.buffers.size());
+        assertEquals(3 * numMessages, encoder.getBytesIn());
+        assertEquals(1 + (2 * numMessages), encoder.getBytesOut());
+        for (TestMidiFramer.MidiMessage message : bufferReceiver.buffers) {
+            framer.send(message.data, 0, message.data.length, message.timestamp);
+        }
+        checkMessages(expected, decoded.messages);
+    }
+
+    @Test
+    public void testTimestamps() throws IOException {
+        BufferReceiver bufferReceiver = new BufferReceiver();
+        RunningStatusEncoder encoder = new RunningStatusEncoder(bufferReceiver);
+        byte[] noteOn = { (byte) 0x90, 0x45, 0x32 };
+        encoder.send(noteOn, 0, noteOn.length, 100L);
+        encoder.send(noteOn, 0, noteOn.length, 100L);
+        encoder.send(noteOn, 0, noteOn.length, 200L);
+        encoder.flush();
+        assertEquals(2, bufferReceiver.buffers.size());
+        byte[] first = { (byte) 0x90, 0x45, 0x32, 0x45, 0x32 };
+        new TestMidiFramer.MidiMessage(first, 100L).check(bufferReceiver.buffers.get(0));
+        // Each buffer starts with a status byte by default.
+        new TestMidiFramer.MidiMessage(noteOn, 200L).check(bufferReceiver.buffers.get(1));
+    }
+
+    private void checkRoundTrip(boolean acrossBuffers) throws IOException {
+        Random random = new Random(2468);
+        byte[] corpus = TestMidiFramer.createCorpus(10000, random);
+        // Frame the corpus into separate messages.
+        MessageReceiver original = new MessageReceiver();
+        new MidiFramer(original).send(corpus, 0, corpus.length, 0L);
+
+        BufferReceiver bufferReceiver = new BufferReceiver();
+        RunningStatusEncoder encoder = new RunningStatusEncoder(bufferReceiver, 16);
+        encoder.setRunningStatusAcrossBuffers(acrossBuffers);
+        for (TestMidiFramer.MidiMessage message : original.messages) {
+            encoder.send(message.data, 0, message.data.length, message.timestamp);
+        }
+        encoder.flush();
+        assertTrue("fewer bytes", encoder.getBytesOut() < encoder.getBytesIn());
+
+        MessageReceiver decoded = new MessageReceiver();
+        MidiFramer framer = new MidiFramer(decoded);
+        framer.setSysExReassembly(1024);
+        boolean inSysEx = false;
+        for (TestMidiFramer.MidiMessage message : bufferReceiver.buffers) {
+            assertTrue("buffer size", message.data.length <= 16);
+            // Only a SysEx may continue into the next buffer.
+            if (!acrossBuffers && !inSysEx) {
+                assertTrue("starts with status", message.data[0] < 0);
+            }
+            for (byte b : message.data) {
+                if (b == MidiConstants.STATUS_SYSTEM_EXCLUSIVE) {
+                    inSysEx = true;
+                } else if (b == MidiConstants.STATUS_END_SYSEX) {
+                    inSysEx = false;
+                }
+            }
+            framer.send(message.data, 0, message.data.length, message.timestamp);
+        }
+        checkMessages(original.messages, decoded.messages);
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        checkRoundTrip(false);
+    }
+
+    @Test
+    public void testRoundTripAcrossBuffers() throws IOException {
+        checkRoundTrip(true);
+    }
+}
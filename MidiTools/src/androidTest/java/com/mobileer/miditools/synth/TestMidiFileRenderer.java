@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mobileer.miditools.synth;
+
+import android.util.Log;
+
+import com.mobileer.miditools.MidiFile;
+import com.mobileer.miditools.TestMidiFile;
+
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Render a Standard MIDI File faster than real time.
+ */
+public class TestMidiFileRenderer {
+    private static final String TAG = "MidiFileRenderBenchmark";
+    private static final int FRAME_RATE = 48000;
+    private static final int FRAMES_PER_BLOCK = 64;
+    private static final int PPQ = 480;
+
+    private static int findFirstSound(float[] samples, int startFrame) {
+        for (int i = startFrame * 2; i < samples.length; i++) {
+            if (samples[i] != 0.0f) {
+                return i / 2;
+            }
+        }
+        return -1;
+    }
+
+    private static int findSilence(float[] samples, int startFrame) {
+        for (int i = startFrame * 2; i < samples.length; i += 2) {
+            if (samples[i] == 0.0f && samples[i + 1] == 0.0f) {
+                return i / 2;
+            }
+        }
+        return -1;
+    }
+
+    @Test
+    public void testNoteTiming() throws IOException {
+        // At 120 BPM a quarter note is 24000 frames.
+        // The note starts at 1/16 of a quarter, which is not on a block boundary.
+        byte[] data = new TestMidiFile.Writer(0, 1, PPQ).beginTrack()
+                .event(PPQ / 16, 0x90, 60, 100)
+                .event(PPQ, 0x80, 60, 0)
+                .endTrack(0)
+                .toByteArray();
+        MidiFile file = MidiFile.parse(data);
+        OfflineAudioSink sink = new OfflineAudioSink(FRAME_RATE);
+        SynthEngine engine = new SynthEngine(sink);
+        engine.setFramesPerBlock(FRAMES_PER_BLOCK);
+        MidiFileRenderer renderer = new MidiFileRenderer(engine);
+        renderer.setTailSeconds(0.5f);
+        renderer.render(file);
+
+        float[] samples = sink.getSamples();
+        assertEquals(samples.length / 2, renderer.getFramesRendered());
+        long expectedFrames = (file.getDurationNanos() / 1000) * FRAME_RATE / 1000000
+                + FRAME_RATE / 2;
+        assertTrue(renderer.getFramesRendered() >= expectedFrames);
+        assertTrue(renderer.getFramesRendered() < expectedFrames + FRAMES_PER_BLOCK);
+        int first = findFirstSound(samples, 0);
+        assertTrue("first sound at " + first, Math.abs(first - 1500) <= 1);
+        // The note is released after one quarter note.
+        int silence = findSilence(samples, first);
+        assertTrue("silent at " + silence, silence > 1500 + 24000);
+    }
+
+    @Test
+    public void testRealTimeFactor() throws IOException {
+        // Eight bars of sixteenth note chords at 120 BPM.
+        TestMidiFile.Writer writer = new TestMidiFile.Writer(0, 1, PPQ).beginTrack();
+        for (int i = 0; i < 8 * 16; i++) {
+            int root = 48 + (i % 12);
+            writer.event(0, 0x90, root, 100).event(0, root + 4, 100).event(0, root + 7, 100);
+            writer.event(PPQ / 4, 0x80, root, 0).event(0, root + 4, 0).event(0, root + 7, 0);
+        }
+        MidiFile file = MidiFile.parse(writer.endTrack(0).toByteArray());
+        OfflineAudioSink sink = new OfflineAudioSink(FRAME_RATE);
+        sink.setRecording(false);
+        SynthEngine engine = new SynthEngine(sink);
+        engine.setFramesPerBlock(FRAMES_PER_BLOCK);
+        MidiFileRenderer renderer = new MidiFileRenderer(engine);
+        renderer.render(file);
+        double factor = renderer.getRealTimeFactor();
+        Log.i(TAG, String.format("%d events, %.1f seconds rendered %.1f times faster"
+                + " than real time", file.getEvents().size(),
+                renderer.getFramesRendered() / (double) FRAME_RATE, factor));
+        assertTrue(factor > 1.0);
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mobileer.miditools.synth;
+
+import android.util.Log;
+
+import com.mobileer.miditools.MidiConstants;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Render the SynthEngine faster than real time.
+ */
+public class TestOfflineAudioSink {
+    private static final String TAG = "OfflineRenderBenchmark";
+    private static final int FRAME_RATE = 48000;
+    private static final int FRAMES_PER_BLOCK = 64;
+    private static final long NANOS_PER_SECOND = 1000000000L;
+
+    private static long frameToTime(long frame) {
+        return (frame * NANOS_PER_SECOND) / FRAME_RATE;
+    }
+
+    private static void sendNote(SynthEngine engine, int command, int pitch, long frame)
+            throws IOException {
+        byte[] msg = new byte[] {(byte) command, (byte) pitch, (byte) 100};
+        engine.send(msg, 0, msg.length, frameToTime(frame));
+    }
+
+    // Play a few notes and return the audio.
+    private static float[] render(int numBlocks) throws IOException {
+        OfflineAudioSink sink = new OfflineAudioSink(FRAME_RATE);
+        SynthEngine engine = new SynthEngine(sink);
+        engine.setFramesPerBlock(FRAMES_PER_BLOCK);
+        engine.startOffline();
+        sendNote(engine, MidiConstants.STATUS_NOTE_ON, 60, 1000);
+        sendNote(engine, MidiConstants.STATUS_NOTE_ON, 64, 2500);
+        sendNote(engine, MidiConstants.STATUS_NOTE_OFF, 60, 6000);
+        sendNote(engine, MidiConstants.STATUS_NOTE_OFF, 64, 6000);
+        engine.renderBlocks(numBlocks);
+        engine.stop();
+        assertEquals((long) numBlocks * FRAMES_PER_BLOCK, sink.getFramesWritten());
+        return sink.getSamples();
+    }
+
+    private static int findFirstSound(float[] samples) {
+        for (int i = 0; i < samples.length; i++) {
+            if (samples[i] != 0.0f) {
+                return i / 2;
+            }
+        }
+        return -1;
+    }
+
+    @Test
+    public void testEventTiming() throws IOException {
+        float[] samples = render(200);
+        assertEquals(200 * FRAMES_PER_BLOCK * 2, samples.length);
+        // Events are rendered one block after their timestamp,
+        // the same way the real time output delays them by its latency.
+        int first = findFirstSound(samples);
+        // Allow for rounding the timestamp to nanoseconds.
+        int expected = 1000 + FRAMES_PER_BLOCK;
+        assertTrue("first sound at " + first, first >= expected - 1 && first <= expected + 1);
+    }
+
+    @Test
+    public void testDeterministic() throws IOException {
+        float[] first = render(300);
+        float[] second = render(300);
+        assertTrue(Arrays.equals(first, second));
+    }
+
+    @Test
+    public void testWav() throws IOException {
+        OfflineAudioSink sink = new OfflineAudioSink(FRAME_RATE);
+        sink.start(FRAMES_PER_BLOCK);
+        float[] buffer = new float[] {0.0f, 0.5f, -1.0f, 2.0f};
+        sink.write(buffer, 0, buffer.length);
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        sink.writeWav(stream);
+        byte[] wav = stream.toByteArray();
+        assertEquals(44 + 8, wav.length);
+        assertEquals("RIFF", new String(wav, 0, 4, "US-ASCII"));
+        assertEquals("data", new String(wav, 36, 4, "US-ASCII"));
+        assertEquals(8, wav[40]);
+        // Little endian 16-bit samples, clipped.
+        assertEquals(16384, (short) ((wav[46] & 0xFF) | (wav[47] << 8)));
+        assertEquals(-32767, (short) ((wav[48] & 0xFF) | (wav[49] << 8)));
+        assertEquals(32767, (short) ((wav[50] & 0xFF) | (wav[51] << 8)));
+    }
+
+    @Test
+    public void testNotRecording() throws IOException {
+        OfflineAudioSink sink = new OfflineAudioSink(FRAME_RATE);
+        sink.setRecording(false);
+        SynthEngine engine = new SynthEngine(sink);
+        engine.setFramesPerBlock(FRAMES_PER_BLOCK);
+        engine.startOffline();
+        for (int i = 0; i < 16; i++) {
+            sendNote(engine, MidiConstants.STATUS_NOTE_ON, 48 + i, 0);
+        }
+        int numBlocks = FRAME_RATE / FRAMES_PER_BLOCK * 10;
+        long startTime = System.nanoTime();
+        engine.renderBlocks(numBlocks);
+        long elapsed = System.nanoTime() - startTime;
+        engine.stop();
+        assertEquals(0, sink.getSampleCount());
+        assertEquals(frameToTime((long) numBlocks * FRAMES_PER_BLOCK), sink.getCurrentTime());
+        Log.i(TAG, String.format("16 voices: %.1f times faster than real time",
+                10.0 * NANOS_PER_SECOND / elapsed));
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mobileer.miditools.synth;
+
+import android.util.Log;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compare serial and parallel voice rendering.
+ * Reports how many voices fit in one block period on this device.
+ */
+public class TestParallelVoiceRenderer {
+    private static final String TAG = "ParallelRenderBenchmark";
+    private static final int SAMPLE_RATE = 48000;
+    private static final int FRAMES_PER_BLOCK = 192;
+    private static final int SAMPLES_PER_FRAME = 2;
+    private static final int NUM_VOICES = 128;
+    private static final int NUM_BLOCKS = 2000;
+
+    private static VoiceAllocator createVoices() {
+        VoiceAllocator allocator = new VoiceAllocator(new VoiceAllocator.VoiceFactory() {
+            @Override
+            public SynthVoice createVoice(int program) {
+                return new SawVoice(SAMPLE_RATE);
+            }
+        }, NUM_VOICES);
+        for (int i = 0; i < NUM_VOICES; i++) {
+            int channel = i % 16;
+            int note = 24 + (i % 80);
+            allocator.allocate(channel, note, 0).noteOn(note, 100);
+        }
+        return allocator;
+    }
+
+    private static class MixTask implements ParallelVoiceRenderer.PartitionTask {
+        private final VoiceAllocator mAllocator;
+
+        MixTask(VoiceAllocator allocator) {
+            mAllocator = allocator;
+        }
+
+        @Override
+        public void renderPartition(int partition, int numPartitions, float[] buffer,
+                int frameOffset, int numFrames) {
+            for (int i = partition; i < mAllocator.getActiveCount(); i += numPartitions) {
+                mAllocator.getActiveVoice(i).mixStereo(buffer, frameOffset, numFrames,
+                        0.01f, 0.01f);
+            }
+        }
+    }
+
+    private static void clear(float[] buffer) {
+        for (int i = 0; i < buffer.length; i++) {
+            buffer[i] = 0.0f;
+        }
+    }
+
+    @Test
+    public void testParallelMatchesSerial() {
+        MixTask serialTask = new MixTask(createVoices());
+        MixTask parallelTask = new MixTask(createVoices());
+        ParallelVoiceRenderer renderer = new ParallelVoiceRenderer(3, FRAMES_PER_BLOCK,
+                SAMPLES_PER_FRAME);
+        float[] serial = new float[FRAMES_PER_BLOCK * SAMPLES_PER_FRAME];
+        float[] parallel = new float[FRAMES_PER_BLOCK * SAMPLES_PER_FRAME];
+        try {
+            for (int block = 0; block < 10; block++) {
+                clear(serial);
+                clear(parallel);
+                serialTask.renderPartition(0, 1, serial, 0, FRAMES_PER_BLOCK);
+                renderer.render(parallelTask, parallel, 0, FRAMES_PER_BLOCK);
+                for (int i = 0; i < serial.length; i++) {
+                    assertEquals("sample " + i, serial[i], parallel[i], 0.0001f);
+                }
+            }
+        } finally {
+            renderer.close();
+        }
+    }
+
+    @Test
+    public void testWorkerFailure() {
+        final Thread caller = Thread.currentThread();
+        final MixTask parallelTask = new MixTask(createVoices());
+        // Fail on the worker threads before rendering anything.
+        ParallelVoiceRenderer.PartitionTask failingTask = new ParallelVoiceRenderer.PartitionTask() {
+            @Override
+            public void renderPartition(int partition, int numPartitions, float[] buffer,
+                    int frameOffset, int numFrames) {
+                if (Thread.currentThread() != caller) {
+                    throw new IllegalStateException("failed on purpose");
+                }
+                parallelTask.renderPartition(partition, numPartitions, buffer,
+                        frameOffset, numFrames);
+            }
+        };
+        MixTask serialTask = new MixTask(createVoices());
+        ParallelVoiceRenderer renderer = new ParallelVoiceRenderer(2, FRAMES_PER_BLOCK,
+                SAMPLES_PER_FRAME);
+        float[] serial = new float[FRAMES_PER_BLOCK * SAMPLES_PER_FRAME];
+        float[] parallel = new float[FRAMES_PER_BLOCK * SAMPLES_PER_FRAME];
+        try {
+            for (int block = 0; block < 3; block++) {
+                clear(serial);
+                clear(parallel);
+                serialTask.renderPartition(0, 1, serial, 0, FRAMES_PER_BLOCK);
+                // This would wait forever if a failed worker did not report back.
+                renderer.render(failingTask, parallel, 0, FRAMES_PER_BLOCK);
+                for (int i = 0; i < serial.length; i++) {
+                    assertEquals("sample " + i, serial[i], parallel[i], 0.0001f);
+                }
+            }
+        } finally {
+            renderer.close();
+        }
+        assertEquals("failures", 6, renderer.getFailureCount());
+    }
+
+    @Test
+    public void testBenchmark() {
+        int cores = Runtime.getRuntime().availableProcessors();
+        float[] buffer = new float[FRAMES_PER_BLOCK * SAMPLES_PER_FRAME];
+        double blockPeriodNanos = FRAMES_PER_BLOCK * 1.0e9 / SAMPLE_RATE;
+
+        MixTask serialTask = new MixTask(createVoices());
+        long start = System.nanoTime();
+        for (int block = 0; block < NUM_BLOCKS; block++) {
+            clear(buffer);
+            serialTask.renderPartition(0, 1, buffer, 0, FRAMES_PER_BLOCK);
+        }
+        double serialNanos = (System.nanoTime() - start) / (double) NUM_BLOCKS;
+
+        MixTask parallelTask = new MixTask(createVoices());
+        ParallelVoiceRenderer renderer = new ParallelVoiceRenderer(Math.max(1, cores - 1),
+                FRAMES_PER_BLOCK, SAMPLES_PER_FRAME);
+        double parallelNanos;
+        try {
+            start = System.nanoTime();
+            for (int block = 0; block < NUM_BLOCKS; block++) {
+                clear(buffer);
+                renderer.render(parallelTask, buffer, 0, FRAMES_PER_BLOCK);
+            }
+            parallelNanos = (System.nanoTime() - start) / (double) NUM_BLOCKS;
+        } finally {
+            renderer.close();
+        }
+
+        Log.i(TAG, "cores = " + cores + ", voices = " + NUM_VOICES
+                + ", block = " + FRAMES_PER_BLOCK + " frames");
+        Log.i(TAG, String.format("serial:   %8.1f usec/block, %6.0f voices per block period",
+                serialNanos / 1000, NUM_VOICES * blockPeriodNanos / serialNanos));
+        Log.i(TAG, String.format("parallel: %8.1f usec/block, %6.0f voices per block period",
+                parallelNanos / 1000, NUM_VOICES * blockPeriodNanos / parallelNanos));
+    }
+}
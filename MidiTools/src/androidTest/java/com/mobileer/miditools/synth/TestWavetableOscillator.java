@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mobileer.miditools.synth;
+
+import android.util.Log;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Check the band limited wavetables and compare the speed with SineOscillator.
+ */
+public class TestWavetableOscillator {
+    private static final String TAG = "WavetableBenchmark";
+    private static final int SAMPLE_RATE = 48000;
+
+    @Test
+    public void testLevelsDoNotAlias() {
+        Wavetable wavetable = Wavetable.getSawtooth();
+        PitchTable pitchTable = new PitchTable(SAMPLE_RATE);
+        int maxHarmonics = wavetable.getTableSize() / 2;
+        for (int note = 0; note < PitchTable.NUM_NOTES; note++) {
+            float cyclesPerFrame = pitchTable.getFrequency(note) / SAMPLE_RATE;
+            int level = wavetable.selectLevel(cyclesPerFrame);
+            int harmonics = maxHarmonics >> level;
+            if (harmonics > 1) {
+                assertTrue("note " + note + " aliases",
+                        harmonics * cyclesPerFrame <= 0.5f);
+            }
+        }
+    }
+
+    @Test
+    public void testSine() {
+        WavetableOscillator oscillator = new WavetableOscillator(SAMPLE_RATE,
+                Wavetable.getSine());
+        oscillator.setInterpolation(WavetableOscillator.INTERPOLATION_CUBIC);
+        oscillator.setNote(69);
+        float phase = 0.0f; // same initial phase as the oscillator
+        float increment = oscillator.getPhaseIncrement();
+        for (int i = 0; i < 1000; i++) {
+            phase += increment;
+            if (phase > 1.0f) {
+                phase -= 2.0f;
+            }
+            // The table starts at a phase of -1.0.
+            double expected = Math.sin(Math.PI * (phase + 1.0));
+            assertEquals("frame " + i, expected, oscillator.render(), 0.0001);
+        }
+    }
+
+    @Test
+    public void testBlockMatchesSingle() {
+        WavetableOscillator single = new WavetableOscillator(SAMPLE_RATE,
+                Wavetable.getSquare());
+        WavetableOscillator block = new WavetableOscillator(SAMPLE_RATE,
+                Wavetable.getSquare());
+        single.setNote(60);
+        block.setNote(60);
+        float[] buffer = new float[64];
+        for (int b = 0; b < 10; b++) {
+            block.render(buffer, 0, buffer.length);
+            for (int i = 0; i < buffer.length; i++) {
+                assertEquals(single.render(), buffer[i], 0.00001f);
+            }
+        }
+    }
+
+    private static double measureNanosPerFrame(SawOscillator oscillator) {
+        float[] buffer = new float[256];
+        int numBlocks = 20000;
+        oscillator.setNote(60);
+        long start = System.nanoTime();
+        for (int i = 0; i < numBlocks; i++) {
+            oscillator.render(buffer, 0, buffer.length);
+        }
+        return (System.nanoTime() - start) / ((double) numBlocks * buffer.length);
+    }
+
+    @Test
+    public void testBenchmark() {
+        SawOscillator polynomial = new SineOscillator(SAMPLE_RATE);
+        WavetableOscillator linear = new WavetableOscillator(SAMPLE_RATE,
+                Wavetable.getSine());
+        WavetableOscillator cubic = new WavetableOscillator(SAMPLE_RATE,
+                Wavetable.getSine());
+        cubic.setInterpolation(WavetableOscillator.INTERPOLATION_CUBIC);
+        // Warm up.
+        measureNanosPerFrame(polynomial);
+        measureNanosPerFrame(linear);
+        measureNanosPerFrame(cubic);
+        Log.i(TAG, String.format("fastSin: %.2f nsec/frame", measureNanosPerFrame(polynomial)));
+        Log.i(TAG, String.format("linear:  %.2f nsec/frame", measureNanosPerFrame(linear)));
+        Log.i(TAG, String.format("cubic:   %.2f nsec/frame", measureNanosPerFrame(cubic)));
+    }
+}
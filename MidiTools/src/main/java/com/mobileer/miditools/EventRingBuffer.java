@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mobileer.miditools;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded FIFO of SchedulableEvents that does not use locks.
+ *
+ * Only one Thread can write into the buffer.
+ * And only one Thread can read from the buffer.
+ * Neither thread will block or allocate memory.
+ */
+public class EventRingBuffer {
+    private final EventScheduler.SchedulableEvent[] mEvents;
+    private final int mMask;
+    // Only written by the writing thread.
+    private final AtomicLong mWriteIndex = new AtomicLong();
+    // Only written by the reading thread.
+    private final AtomicLong mReadIndex = new AtomicLong();
+
+    /**
+     * @param capacity will be rounded up to a power of two
+     */
+    public EventRingBuffer(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive, was " + capacity);
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        mEvents = new EventScheduler.SchedulableEvent[size];
+        mMask = size - 1;
+    }
+
+    /**
+     * @return maximum number of events that can be stored
+     */
+    public int getCapacity() {
+        return mEvents.length;
+    }
+
+    /**
+     * @return number of events currently in the buffer
+     */
+    public int size() {
+        return (int) (mWriteIndex.get() - mReadIndex.get());
+    }
+
+    /**
+     * Add an event to the end of the buffer. Only call this from the writing thread.
+     *
+     * @param event
+     * @return false if the buffer was full and the event was not added
+     */
+    public boolean offer(EventScheduler.SchedulableEvent event) {
+        long writeIndex = mWriteIndex.get();
+        if ((writeIndex - mReadIndex.get()) >= mEvents.length) {
+            return false;
+        }
+        mEvents[(int) writeIndex & mMask] = event;
+        // Publish the event to the reader. This uses set() instead of lazySet()
+        // so that the writer's next read of the wake time cannot be reordered
+        // before this store, which could lose a wakeup.
+        mWriteIndex.set(writeIndex + 1);
+        return true;
+    }
+
+    /**
+     * Remove the oldest event. Only call this from the reading thread.
+     *
+     * @return event or null if the buffer is empty
+     */
+    public EventScheduler.SchedulableEvent poll() {
+        long readIndex = mReadIndex.get();
+        if (readIndex >= mWriteIndex.get()) {
+            return null;
+        }
+        int index = (int) readIndex & mMask;
+        EventScheduler.SchedulableEvent event = mEvents[index];
+        mEvents[index] = null; // Do not hold onto references.
+        mReadIndex.lazySet(readIndex + 1);
+        return event;
+    }
+}
@@ -18,6 +18,7 @@ package com.mobileer.miditools;
 
 import java.util.SortedMap;
 import java.util.TreeMap;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * Store SchedulableEvents in a timestamped buffer.
@@ -27,9 +28,16 @@ import java.util.TreeMap;
  *
  * Only one Thread can write into the buffer.
  * And only one Thread can read from the buffer.
+ *
+ * By default the events are stored in a TreeMap that is guarded by a lock.
+ * In lock-free mode the writer passes events to the reader through an
+ * EventRingBuffer and the reader sorts them into a heap with primitive
+ * long keys. The reader then never blocks or allocates memory when polling.
  */
 public class EventScheduler {
     private static final long NANOS_PER_MILLI = 1000000;
+    public static final int DEFAULT_LOCK_FREE_CAPACITY = 1024;
+    public static final long DEFAULT_SPIN_WINDOW_NANOS = 200 * 1000; // 200 usec
 
     private final Object lock = new Object();
     private SortedMap<Long, FastEventQueue> mEventBuffer;
@@ -37,9 +45,64 @@ public class EventScheduler {
     // If the reader sees a null right before being set then that is OK.
     private FastEventQueue mEventPool = null;
     private static final int MAX_POOL_SIZE = 200;
+    // Events removed by clear() in locked mode. They are returned to the
+    // pool by the reading thread because only that thread adds to the pool.
+    private volatile SchedulableEvent mCleared;
+
+    // These are only used in lock-free mode.
+    private final EventRingBuffer mIncoming;
+    private final EventHeap mEventHeap;
+    private volatile Thread mWaitingThread;
+    // Time the waiting thread will wake up. Long.MIN_VALUE if not waiting.
+    private volatile long mNextWakeTime = Long.MIN_VALUE;
+    private volatile int mOverflowCount;
+    // Tells the reader to remove the events that were added before it.
+    private static final SchedulableEvent CLEAR_MARKER = new SchedulableEvent(Long.MIN_VALUE);
+
+    private volatile boolean mPrecisionWaitEnabled;
+    private volatile long mSpinWindowNanos = DEFAULT_SPIN_WINDOW_NANOS;
+    private volatile JitterHistogram mJitterHistogram;
 
     public EventScheduler() {
-        mEventBuffer = new TreeMap<Long, FastEventQueue>();
+        this(false);
+    }
+
+    /**
+     * @param lockFree if true then use a lock-free queue instead of a synchronized TreeMap
+     */
+    public EventScheduler(boolean lockFree) {
+        this(lockFree, DEFAULT_LOCK_FREE_CAPACITY);
+    }
+
+    /**
+     * @param lockFree if true then use a lock-free queue instead of a synchronized TreeMap
+     * @param capacity maximum number of events that can be in transit
+     *            between the writer and the reader in lock-free mode
+     */
+    public EventScheduler(boolean lockFree, int capacity) {
+        if (lockFree) {
+            mIncoming = new EventRingBuffer(capacity);
+            mEventHeap = new EventHeap(mIncoming.getCapacity());
+        } else {
+            mEventBuffer = new TreeMap<Long, FastEventQueue>();
+            mIncoming = null;
+            mEventHeap = null;
+        }
+    }
+
+    /**
+     * @return true if the scheduler does not use a lock
+     */
+    public boolean isLockFree() {
+        return mIncoming != null;
+    }
+
+    /**
+     * In lock-free mode events are dropped if the reader falls too far behind.
+     * @return number of events that were dropped
+     */
+    public int getOverflowCount() {
+        return mOverflowCount;
     }
 
     // If we keep at least one node in the list then it can be atomic
@@ -87,6 +150,156 @@ public class EventScheduler {
         }
     }
 
+    /**
+     * Binary min-heap of events sorted by timestamp.
+     * Events with the same timestamp are kept in the order they were added.
+     * This is only accessed by the reading thread.
+     */
+    private static class EventHeap {
+        private long[] mTimes;
+        private long[] mSequences;
+        private SchedulableEvent[] mEvents;
+        private int mSize;
+        private long mNextSequence;
+
+        EventHeap(int capacity) {
+            mTimes = new long[capacity];
+            mSequences = new long[capacity];
+            mEvents = new SchedulableEvent[capacity];
+        }
+
+        boolean isEmpty() {
+            return mSize == 0;
+        }
+
+        /**
+         * Do not call this if the heap is empty.
+         * @return the lowest timestamp in the heap
+         */
+        long peekTime() {
+            return mTimes[0];
+        }
+
+        void add(SchedulableEvent event) {
+            if (mSize == mEvents.length) {
+                grow();
+            }
+            long time = event.getTimestamp();
+            long sequence = mNextSequence++;
+            int child = mSize++;
+            // Sift up.
+            while (child > 0) {
+                int parent = (child - 1) >> 1;
+                if (mTimes[parent] < time
+                        || (mTimes[parent] == time && mSequences[parent] < sequence)) {
+                    break;
+                }
+                move(parent, child);
+                child = parent;
+            }
+            mTimes[child] = time;
+            mSequences[child] = sequence;
+            mEvents[child] = event;
+        }
+
+        /**
+         * Do not call this if the heap is empty.
+         * @return event with the lowest timestamp
+         */
+        SchedulableEvent remove() {
+            SchedulableEvent first = mEvents[0];
+            int last = --mSize;
+            long time = mTimes[last];
+            long sequence = mSequences[last];
+            SchedulableEvent event = mEvents[last];
+            mEvents[last] = null;
+            // Sift down.
+            int parent = 0;
+            int half = mSize >> 1;
+            while (parent < half) {
+                int child = (parent << 1) + 1;
+                int right = child + 1;
+                if (right < mSize && (mTimes[right] < mTimes[child]
+                        || (mTimes[right] == mTimes[child]
+                        && mSequences[right] < mSequences[child]))) {
+                    child = right;
+                }
+                if (time < mTimes[child]
+                        || (time == mTimes[child] && sequence < mSequences[child])) {
+                    break;
+                }
+                move(child, parent);
+                parent = child;
+            }
+            if (mSize > 0) {
+                mTimes[parent] = time;
+                mSequences[parent] = sequence;
+                mEvents[parent] = event;
+            }
+            return first;
+        }
+
+        private void move(int from, int to) {
+            mTimes[to] = mTimes[from];
+            mSequences[to] = mSequences[from];
+            mEvents[to] = mEvents[from];
+        }
+
+        // Only happens if more events are scheduled in the future than we
+        // have ever had before.
+        private void grow() {
+            int capacity = mEvents.length * 2;
+            long[] times = new long[capacity];
+            long[] sequences = new long[capacity];
+            SchedulableEvent[] events = new SchedulableEvent[capacity];
+            System.arraycopy(mTimes, 0, times, 0, mSize);
+            System.arraycopy(mSequences, 0, sequences, 0, mSize);
+            System.arraycopy(mEvents, 0, events, 0, mSize);
+            mTimes = times;
+            mSequences = sequences;
+            mEvents = events;
+        }
+    }
+
+    /**
+     * In precision mode waitNextEvent() sleeps until shortly before the next
+     * event, then spins until it is ready. This wakes up on time
+     * but uses more CPU.
+     *
+     * @param enabled
+     */
+    public void setPrecisionWaitEnabled(boolean enabled) {
+        mPrecisionWaitEnabled = enabled;
+    }
+
+    public boolean isPrecisionWaitEnabled() {
+        return mPrecisionWaitEnabled;
+    }
+
+    /**
+     * @param nanos how long to spin before an event in precision mode
+     */
+    public void setSpinWindowNanos(long nanos) {
+        mSpinWindowNanos = nanos;
+    }
+
+    public long getSpinWindowNanos() {
+        return mSpinWindowNanos;
+    }
+
+    /**
+     * Record how late each event is returned by waitNextEvent().
+     *
+     * @param histogram or null to stop recording
+     */
+    public void setJitterHistogram(JitterHistogram histogram) {
+        mJitterHistogram = histogram;
+    }
+
+    public JitterHistogram getJitterHistogram() {
+        return mJitterHistogram;
+    }
+
     /**
      * Base class for events that can be stored in the EventScheduler.
      */
@@ -117,6 +330,19 @@ public class EventScheduler {
         }
     }
 
+    /**
+     * Receives events from drainReadyEvents().
+     */
+    public interface EventSink {
+        /**
+         * Called for each event that is ready, in timestamp order.
+         * The sink may return the event to the pool.
+         *
+         * @param event
+         */
+        void onEventReady(SchedulableEvent event);
+    }
+
     /**
      * Get an event from the pool.
      * Always leave at least one event in the pool.
@@ -152,6 +378,10 @@ public class EventScheduler {
      * @param event
      */
     public void add(SchedulableEvent event) {
+        if (mIncoming != null) {
+            addLockFree(event);
+            return;
+        }
         synchronized (lock) {
             FastEventQueue list = mEventBuffer.get(event.getTimestamp());
             if (list == null) {
@@ -170,6 +400,104 @@ public class EventScheduler {
         }
     }
 
+    /**
+     * Called by the writing thread when an event is dropped because the
+     * lock-free queue is full. The event was never scheduled so it can be reused.
+     *
+     * @param event
+     */
+    protected void onOverflow(SchedulableEvent event) {
+    }
+
+    /**
+     * Remove all of the events that have been added but not yet processed.
+     * Call this from the thread that adds events.
+     * The removed events are returned to the pool by the reading thread
+     * the next time it looks for an event. In lock-free mode they are also
+     * removed then, so that it does not need a lock.
+     *
+     * @return false if the lock-free queue was full so nothing was removed,
+     *     try again after the reading thread has caught up
+     */
+    public boolean clear() {
+        if (mIncoming != null) {
+            return mIncoming.offer(CLEAR_MARKER);
+        }
+        synchronized (lock) {
+            SchedulableEvent cleared = mCleared;
+            while (!mEventBuffer.isEmpty()) {
+                FastEventQueue list = mEventBuffer.remove(mEventBuffer.firstKey());
+                list.mLast.mNext = cleared;
+                cleared = list.mFirst;
+            }
+            mCleared = cleared;
+            // The waiting thread may be waiting for an event that was removed.
+            lock.notify();
+        }
+        return true;
+    }
+
+    /**
+     * Return the events removed by clear() to the pool.
+     * Only called by the reading thread.
+     */
+    private void recycleCleared() {
+        if (mCleared == null) {
+            return;
+        }
+        SchedulableEvent event;
+        synchronized (lock) {
+            event = mCleared;
+            mCleared = null;
+        }
+        while (event != null) {
+            // Get next before the event is added to the pool.
+            SchedulableEvent next = event.mNext;
+            event.mNext = null;
+            addEventToPool(event);
+            event = next;
+        }
+    }
+
+    private void addLockFree(SchedulableEvent event) {
+        // Read this before the reader can get the event.
+        long time = event.getTimestamp();
+        if (!mIncoming.offer(event)) {
+            mOverflowCount++; // Only the writing thread modifies this.
+            onOverflow(event);
+            return;
+        }
+        // Wake the reader if it is waiting for a later event.
+        if (time < mNextWakeTime) {
+            Thread waitingThread = mWaitingThread;
+            if (waitingThread != null) {
+                LockSupport.unpark(waitingThread);
+            }
+        }
+    }
+
+    /**
+     * Move events from the EventRingBuffer into the heap.
+     * Only called by the reading thread.
+     * @return true if any events were moved
+     */
+    private boolean drainIncoming() {
+        boolean moved = false;
+        SchedulableEvent event = mIncoming.poll();
+        while (event != null) {
+            if (event == CLEAR_MARKER) {
+                while (!mEventHeap.isEmpty()) {
+                    addEventToPool(mEventHeap.remove());
+                }
+            } else {
+                mEventHeap.add(event);
+            }
+            moved = true;
+            event = mIncoming.poll();
+        }
+        return moved;
+    }
+
     // Caller must synchronize on lock before calling.
     private SchedulableEvent removeNextEventLocked(long lowestTime) {
         SchedulableEvent event;
@@ -190,6 +518,14 @@ public class EventScheduler {
      */
     public SchedulableEvent getNextEvent(long time) {
         SchedulableEvent event = null;
+        if (mIncoming != null) {
+            drainIncoming();
+            if (!mEventHeap.isEmpty() && mEventHeap.peekTime() <= time) {
+                event = mEventHeap.remove();
+            }
+            return event;
+        }
+        recycleCleared();
         synchronized (lock) {
             if (!mEventBuffer.isEmpty()) {
                 long lowestTime = mEventBuffer.firstKey();
@@ -203,6 +539,57 @@ public class EventScheduler {
         return event;
     }
 
+    /**
+     * Pass every event that is ready to the sink.
+     * This only takes the lock once, or not at all in lock-free mode.
+     * The sink is called after the lock is released.
+     *
+     * @param time
+     * @param sink
+     * @return number of events passed to the sink
+     */
+    public int drainReadyEvents(long time, EventSink sink) {
+        int count = 0;
+        if (mIncoming != null) {
+            drainIncoming();
+            while (!mEventHeap.isEmpty() && mEventHeap.peekTime() <= time) {
+                sink.onEventReady(mEventHeap.remove());
+                count++;
+            }
+            return count;
+        }
+        recycleCleared();
+        // Chain the ready lists together so we can release the lock.
+        SchedulableEvent first = null;
+        SchedulableEvent last = null;
+        synchronized (lock) {
+            while (!mEventBuffer.isEmpty()) {
+                long lowestTime = mEventBuffer.firstKey();
+                if (lowestTime > time) {
+                    break;
+                }
+                FastEventQueue list = mEventBuffer.remove(lowestTime);
+                if (last == null) {
+                    first = list.mFirst;
+                } else {
+                    last.mNext = list.mFirst;
+                }
+                last = list.mLast;
+                last.mNext = null;
+            }
+        }
+        SchedulableEvent event = first;
+        while (event != null) {
+            // Get next before the sink returns the event to the pool.
+            SchedulableEvent next = event.mNext;
+            event.mNext = null;
+            sink.onEventReady(event);
+            count++;
+            event = next;
+        }
+        return count;
+    }
+
     /**
      * Return the next available event or wait until there is an event ready to
      * be processed. This method assumes that the timestamps are in nanoseconds
@@ -212,32 +599,109 @@ public class EventScheduler {
      * @throws InterruptedException
      */
     public SchedulableEvent waitNextEvent() throws InterruptedException {
+        SchedulableEvent event = (mIncoming != null) ? waitNextEventLockFree()
+                : waitNextEventLocked();
+        JitterHistogram histogram = mJitterHistogram;
+        if (histogram != null) {
+            histogram.record(System.nanoTime() - event.getTimestamp());
+        }
+        return event;
+    }
+
+    private SchedulableEvent waitNextEventLocked() throws InterruptedException {
         SchedulableEvent event = null;
         while (true) {
+            recycleCleared();
             long millisToWait = Integer.MAX_VALUE;
+            int nanosToWaitRemainder = 0;
+            boolean spin = false;
+            long lowestTime = 0;
             synchronized (lock) {
                 if (!mEventBuffer.isEmpty()) {
                     long now = System.nanoTime();
-                    long lowestTime = mEventBuffer.firstKey();
+                    lowestTime = mEventBuffer.firstKey();
                     // Is it time for the earliest list to be processed?
                     if (lowestTime <= now) {
                         event = removeNextEventLocked(lowestTime);
                         break;
+                    } else if (mPrecisionWaitEnabled) {
+                        // Wake up a little early then spin until the event is ready.
+                        long nanosToWait = (lowestTime - now) - mSpinWindowNanos;
+                        if (nanosToWait <= 0) {
+                            spin = true;
+                        } else {
+                            millisToWait = nanosToWait / NANOS_PER_MILLI;
+                            nanosToWaitRemainder = (int) (nanosToWait % NANOS_PER_MILLI);
+                        }
                     } else {
                         // Figure out how long to sleep until next event.
                         long nanosToWait = lowestTime - now;
                         // Add 1 millisecond so we don't wake up before it is
                         // ready.
                         millisToWait = 1 + (nanosToWait / NANOS_PER_MILLI);
-                        // Clip 64-bit value to 32-bit max.
-                        if (millisToWait > Integer.MAX_VALUE) {
-                            millisToWait = Integer.MAX_VALUE;
-                        }
                     }
+                    // Clip 64-bit value to 32-bit max.
+                    if (millisToWait > Integer.MAX_VALUE) {
+                        millisToWait = Integer.MAX_VALUE;
+                    }
+                }
+                // Do not wait if clear() has events for the pool.
+                if (!spin && mCleared == null) {
+                    lock.wait(millisToWait, nanosToWaitRemainder);
                 }
-                lock.wait((int) millisToWait);
+            }
+            if (spin) {
+                // Spin without holding the lock so the writer is not blocked.
+                spinUntil(lowestTime);
             }
         }
         return event;
     }
+
+    private static void spinUntil(long time) throws InterruptedException {
+        while (System.nanoTime() < time) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+        }
+    }
+
+    private SchedulableEvent waitNextEventLockFree() throws InterruptedException {
+        mWaitingThread = Thread.currentThread();
+        try {
+            while (true) {
+                drainIncoming();
+                long wakeTime = Long.MAX_VALUE;
+                if (!mEventHeap.isEmpty()) {
+                    wakeTime = mEventHeap.peekTime();
+                    if (wakeTime <= System.nanoTime()) {
+                        return mEventHeap.remove();
+                    }
+                }
+                // Tell the writer when we plan to wake up. Then check again
+                // in case an event was added before the writer could see it.
+                mNextWakeTime = wakeTime;
+                if (drainIncoming()) {
+                    continue;
+                }
+                if (wakeTime == Long.MAX_VALUE) {
+                    LockSupport.park(this);
+                } else {
+                    long nanosToWait = wakeTime - System.nanoTime();
+                    if (mPrecisionWaitEnabled) {
+                        // Wake up a little early then spin until the event is ready.
+                        nanosToWait -= mSpinWindowNanos;
+                    }
+                    if (nanosToWait > 0) {
+                        LockSupport.parkNanos(this, nanosToWait);
+                    }
+                }
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+            }
+        } finally {
+            mNextWakeTime = Long.MIN_VALUE;
+        }
+    }
 }
@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mobileer.miditools;
+
+/**
+ * Trace of the most recent events that were dispatched by a MidiEventThread.
+ *
+ * Each record has the timestamp of the event, how late it was dispatched,
+ * the status byte and the number of bytes. The records are stored in
+ * preallocated arrays by one thread without allocating memory or locking.
+ * Another thread can read or dump the most recent records at any time.
+ */
+public class EventTrace {
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private final long[] mTimestamps;
+    private final long[] mLatenessNanos;
+    private final byte[] mStatuses;
+    private final int[] mCounts;
+    private final RingIndex mRing;
+
+    public EventTrace() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity number of records kept, a read covers up to half of them
+     */
+    public EventTrace(int capacity) {
+        mTimestamps = new long[capacity];
+        mLatenessNanos = new long[capacity];
+        mStatuses = new byte[capacity];
+        mCounts = new int[capacity];
+        mRing = new RingIndex(capacity);
+    }
+
+    /**
+     * Call this from the thread that dispatches the events.
+     *
+     * @param timestamp when the event was scheduled
+     * @param latenessNanos dispatch time minus the timestamp
+     * @param status first byte of the message
+     * @param count number of bytes in the message
+     */
+    public void record(long timestamp, long latenessNanos, byte status, int count) {
+        int index = mRing.getWriteIndex();
+        mTimestamps[index] = timestamp;
+        mLatenessNanos[index] = latenessNanos;
+        mStatuses[index] = status;
+        mCounts[index] = count;
+        mRing.publish();
+    }
+
+    /**
+     * Forget the old records. Only call this when events are not being recorded.
+     */
+    public void reset() {
+        mRing.reset();
+    }
+
+    public int getCapacity() {
+        return mTimestamps.length;
+    }
+
+    /**
+     * @return total number of events recorded since reset()
+     */
+    public long getRecordCount() {
+        return mRing.getCount();
+    }
+
+    /**
+     * Copy the most recent records, oldest first.
+     * Up to half of the ring is read. Records that the recording thread
+     * overwrote while they were being copied are discarded.
+     *
+     * @param timestamps
+     * @param latenessNanos
+     * @param statuses
+     * @param counts
+     * @return number of records copied, no more than the length of the arrays
+     */
+    public int read(long[] timestamps, long[] latenessNanos, byte[] statuses, int[] counts) {
+        long recordCount = mRing.getCount();
+        int numRecords = (int) Math.min(recordCount, mTimestamps.length / 2);
+        numRecords = Math.min(numRecords, timestamps.length);
+        long first = recordCount - numRecords;
+        for (int i = 0; i < numRecords; i++) {
+            int index = mRing.getIndex(first + i);
+            timestamps[i] = mTimestamps[index];
+            latenessNanos[i] = mLatenessNanos[index];
+            statuses[i] = mStatuses[index];
+            counts[i] = mCounts[index];
+        }
+        int lost = mRing.countOverwritten(first, numRecords);
+        if (lost > 0) {
+            numRecords -= lost;
+            System.arraycopy(timestamps, lost, timestamps, 0, numRecords);
+            System.arraycopy(latenessNanos, lost, latenessNanos, 0, numRecords);
+            System.arraycopy(statuses, lost, statuses, 0, numRecords);
+            System.arraycopy(counts, lost, counts, 0, numRecords);
+        }
+        return numRecords;
+    }
+
+    /**
+     * Append the most recent records to the builder, one per line, oldest first.
+     * This allocates memory so do not call it from a timing critical thread.
+     *
+     * @param builder
+     */
+    public void dump(StringBuilder builder) {
+        int maxRecords = mTimestamps.length / 2;
+        long[] timestamps = new long[maxRecords];
+        long[] latenessNanos = new long[maxRecords];
+        byte[] statuses = new byte[maxRecords];
+        int[] counts = new int[maxRecords];
+        int numRecords = read(timestamps, latenessNanos, statuses, counts);
+        builder.append("recorded = ").append(mRing.getCount())
+                .append(", showing ").append(numRecords).append('\n');
+        for (int i = 0; i < numRecords; i++) {
+            builder.append(timestamps[i])
+                    .append(": status = 0x").append(Integer.toHexString(statuses[i] & 0xFF))
+                    .append(", count = ").append(counts[i])
+                    .append(", late = ").append(latenessNanos[i] / 1000).append(" usec\n");
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        dump(builder);
+        return builder.toString();
+    }
+}
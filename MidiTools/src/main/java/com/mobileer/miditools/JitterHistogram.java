@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mobileer.miditools;
+
+/**
+ * Histogram of how late events were delivered relative to their timestamp.
+ *
+ * Values are recorded by one thread without allocating memory or locking.
+ * Other threads may read the histogram at any time but the values may be
+ * slightly inconsistent while events are being recorded.
+ */
+public class JitterHistogram {
+    public static final int DEFAULT_NUM_BINS = 50;
+    public static final long DEFAULT_BIN_WIDTH_NANOS = 100 * 1000; // 100 usec
+
+    private final int[] mBins;
+    private final long mBinWidthNanos;
+    private volatile int mCount;
+    private volatile int mOverflowCount;
+    private volatile long mSumNanos;
+    private volatile long mMaxNanos;
+
+    public JitterHistogram() {
+        this(DEFAULT_NUM_BINS, DEFAULT_BIN_WIDTH_NANOS);
+    }
+
+    /**
+     * Values larger than numBins * binWidthNanos are counted as overflows.
+     *
+     * @param numBins
+     * @param binWidthNanos
+     */
+    public JitterHistogram(int numBins, long binWidthNanos) {
+        mBins = new int[numBins];
+        mBinWidthNanos = binWidthNanos;
+    }
+
+    /**
+     * @param latenessNanos how late the event was, early events are counted as zero
+     */
+    public void record(long latenessNanos) {
+        if (latenessNanos < 0) {
+            latenessNanos = 0;
+        }
+        long bin = latenessNanos / mBinWidthNanos;
+        if (bin < mBins.length) {
+            mBins[(int) bin]++;
+        } else {
+            mOverflowCount++;
+        }
+        mCount++;
+        mSumNanos += latenessNanos;
+        if (latenessNanos > mMaxNanos) {
+            mMaxNanos = latenessNanos;
+        }
+    }
+
+    public void reset() {
+        for (int i = 0; i < mBins.length; i++) {
+            mBins[i] = 0;
+        }
+        mCount = 0;
+        mOverflowCount = 0;
+        mSumNanos = 0;
+        mMaxNanos = 0;
+    }
+
+    public int getNumBins() {
+        return mBins.length;
+    }
+
+    public long getBinWidthNanos() {
+        return mBinWidthNanos;
+    }
+
+    /**
+     * @param bin
+     * @return number of events that were between bin * binWidth and (bin + 1) * binWidth late
+     */
+    public int getBinCount(int bin) {
+        return mBins[bin];
+    }
+
+    /**
+     * @return number of events that were later than the last bin
+     */
+    public int getOverflowCount() {
+        return mOverflowCount;
+    }
+
+    /**
+     * @return total number of events recorded
+     */
+    public int getCount() {
+        return mCount;
+    }
+
+    public long getMaxNanos() {
+        return mMaxNanos;
+    }
+
+    public long getMeanNanos() {
+        int count = mCount;
+        return (count == 0) ? 0 : (mSumNanos / count);
+    }
+
+    /**
+     * Estimate a percentile from the bins.
+     *
+     * @param fraction between 0.0 and 1.0, for example 0.99
+     * @return upper edge of the bin that contains the percentile
+     */
+    public long getPercentileNanos(double fraction) {
+        long target = (long) Math.ceil(mCount * fraction);
+        long sum = 0;
+        for (int i = 0; i < mBins.length; i++) {
+            sum += mBins[i];
+            if (sum >= target) {
+                return (i + 1) * mBinWidthNanos;
+            }
+        }
+        return mMaxNanos;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("count = ").append(mCount)
+                .append(", mean = ").append(getMeanNanos() / 1000).append(" usec")
+                .append(", p99 = ").append(getPercentileNanos(0.99) / 1000).append(" usec")
+                .append(", max = ").append(getMaxNanos() / 1000).append(" usec\n");
+        for (int i = 0; i < mBins.length; i++) {
+            if (mBins[i] > 0) {
+                builder.append(i * mBinWidthNanos / 1000).append(" usec: ")
+                        .append(mBins[i]).append('\n');
+            }
+        }
+        if (mOverflowCount > 0) {
+            builder.append(">= ").append(mBins.length * mBinWidthNanos / 1000)
+                    .append(" usec: ").append(mOverflowCount).append('\n');
+        }
+        return builder.toString();
+    }
+}
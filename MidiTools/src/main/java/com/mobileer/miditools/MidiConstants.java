@@ -51,6 +51,15 @@ public class MidiConstants {
     public static final byte STATUS_ACTIVE_SENSING = (byte) 0xFE;
     public static final byte STATUS_RESET = (byte) 0xFF;
 
+    // Control Change numbers.
+    public static final int CONTROLLER_MODULATION = 1;
+    public static final int CONTROLLER_VOLUME = 7;
+    public static final int CONTROLLER_PAN = 10;
+    public static final int CONTROLLER_SUSTAIN = 64;
+    public static final int CONTROLLER_ALL_SOUND_OFF = 120;
+    public static final int CONTROLLER_RESET_ALL = 121;
+    public static final int CONTROLLER_ALL_NOTES_OFF = 123;
+
     /** Number of bytes in a message nc from 8c to Ec */
     public final static int CHANNEL_BYTE_LENGTHS[] = { 3, 3, 3, 3, 2, 2, 3 };
 
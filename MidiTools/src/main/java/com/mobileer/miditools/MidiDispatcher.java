@@ -18,9 +18,11 @@ package com.mobileer.miditools;
 
 import android.media.midi.MidiReceiver;
 import android.media.midi.MidiSender;
+import android.util.Log;
 
 import java.io.IOException;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * Utility class for dispatching MIDI data to a list of {@link MidiReceiver}s.
@@ -28,11 +30,206 @@ import java.util.concurrent.CopyOnWriteArrayList;
  * to its receiver list. Any receivers that throw an exception upon receiving data will
  * be automatically removed from the receiver list, but no IOException will be returned
  * from the dispatcher's {@link MidiReceiver#onReceive} in that case.
+ *
+ * By default the receivers are called one after the other on the sender's thread.
+ * In DISPATCH_ASYNC mode each receiver has its own queue and thread so that
+ * a slow receiver does not delay the others. Then the dispatcher must only be
+ * called from one thread at a time. If there is only one receiver and its queue
+ * is empty then it is called directly.
+ *
+ * A receiver can be given a MidiFilter so that it only gets the messages it wants.
+ * When any receiver has a filter then each buffer is split into messages
+ * and the filters are checked once per message. Running status is followed
+ * so data bytes are filtered with the status of their message.
  */
 public final class MidiDispatcher extends MidiReceiver {
+    /** Call each receiver on the sender's thread. This is the default. */
+    public static final int DISPATCH_SERIAL = 0;
+    /** Give each receiver its own queue and thread. */
+    public static final int DISPATCH_ASYNC = 1;
+
+    /** Drop a message when the receiver's queue is full. This is the default. */
+    public static final int OVERFLOW_DROP = 0;
+    /** Wait for room in the receiver's queue. This will delay the other receivers. */
+    public static final int OVERFLOW_BLOCK = 1;
+
+    public static final int DEFAULT_QUEUE_CAPACITY = 4096;
+    private static final long BLOCK_SLEEP_NANOS = 100 * 1000;
+    private static final long STOP_TIMEOUT_MSEC = 500;
+
+    /**
+     * Counters for one receiver.
+     * The latency is only measured for messages that were queued.
+     */
+    public static final class Statistics {
+        private volatile long mDeliveredCount;
+        private volatile long mDroppedCount;
+        private volatile long mQueuedCount;
+        private volatile long mLatencySum;
+        private volatile long mMaxLatency;
+
+        public long getDeliveredCount() {
+            return mDeliveredCount;
+        }
+
+        /**
+         * @return number of messages dropped because the queue was full
+         */
+        public long getDroppedCount() {
+            return mDroppedCount;
+        }
+
+        /**
+         * @return number of messages delivered by the receiver's thread
+         */
+        public long getQueuedCount() {
+            return mQueuedCount;
+        }
+
+        /**
+         * @return average time from send() until the receiver was called
+         */
+        public long getMeanLatencyNanos() {
+            long count = mQueuedCount;
+            return (count == 0) ? 0 : mLatencySum / count;
+        }
+
+        public long getMaxLatencyNanos() {
+            return mMaxLatency;
+        }
+    }
+
+    // One receiver with its queue and thread.
+    private final class Connection implements Runnable {
+        private final MidiReceiver mReceiver;
+        private final Statistics mStatistics = new Statistics();
+        private volatile int mOverflowPolicy;
+        // Null if everything is accepted.
+        private volatile MidiFilter mFilter;
+        private MidiMessageRing mRing;
+        private volatile Thread mThread;
+        private volatile boolean mRunning;
+        private volatile boolean mSleeping;
+        // True while the thread may be calling the receiver.
+        private volatile boolean mBusy;
+
+        Connection(MidiReceiver receiver, int overflowPolicy) {
+            mReceiver = receiver;
+            mOverflowPolicy = overflowPolicy;
+        }
+
+        void start(int capacity) {
+            mRing = new MidiMessageRing(capacity);
+            mRunning = true;
+            mThread = new Thread(this, "MidiDispatcher");
+            mThread.setDaemon(true);
+            mThread.setPriority(Thread.MAX_PRIORITY);
+            mThread.start();
+        }
+
+        void stop() {
+            Thread thread = mThread;
+            if (thread == null) {
+                return;
+            }
+            mRunning = false;
+            LockSupport.unpark(thread);
+            if (thread != Thread.currentThread()) {
+                try {
+                    thread.join(STOP_TIMEOUT_MSEC);
+                } catch (InterruptedException e) {
+                    Log.e(MidiConstants.TAG, "Interrupted while stopping MidiDispatcher thread.");
+                }
+            }
+            mThread = null;
+        }
 
-    private final CopyOnWriteArrayList<MidiReceiver> mReceivers
-            = new CopyOnWriteArrayList<MidiReceiver>();
+        boolean isQueued() {
+            return mThread != null;
+        }
+
+        // A message with no data is used to request a flush.
+        void deliver(byte[] msg, int offset, int count, long timestamp) {
+            try {
+                if (count == 0) {
+                    mReceiver.flush();
+                } else {
+                    mReceiver.send(msg, offset, count, timestamp);
+                    mStatistics.mDeliveredCount++;
+                }
+            } catch (IOException e) {
+                // if the receiver fails we remove the receiver but do not propagate the exception
+                Log.w(MidiConstants.TAG, "MidiDispatcher removed a receiver that failed", e);
+                if (removeConnection(this)) {
+                    mFailedReceiverCount.incrementAndGet();
+                }
+            }
+        }
+
+        // Called by the sender.
+        void enqueue(byte[] msg, int offset, int count, long timestamp) {
+            MidiMessageRing ring = mRing;
+            long now = System.nanoTime();
+            while (!ring.write(msg, offset, count, timestamp, now)) {
+                if (mOverflowPolicy == OVERFLOW_DROP || !mRunning
+                        || count > ring.getMaxMessageSize()) {
+                    mStatistics.mDroppedCount++;
+                    return;
+                }
+                LockSupport.unpark(mThread);
+                LockSupport.parkNanos(BLOCK_SLEEP_NANOS);
+            }
+            if (mSleeping) {
+                LockSupport.unpark(mThread);
+            }
+        }
+
+        @Override
+        public void run() {
+            MidiMessageRing ring = mRing;
+            byte[] buffer = new byte[ring.getMaxMessageSize()];
+            while (mRunning) {
+                mBusy = true;
+                int count = ring.read(buffer);
+                if (count < 0) {
+                    mBusy = false;
+                    mSleeping = true;
+                    // Check again in case a message was written before mSleeping was set.
+                    if (ring.isEmpty() && mRunning) {
+                        LockSupport.park(this);
+                    }
+                    mSleeping = false;
+                    continue;
+                }
+                if (count > 0) {
+                    Statistics statistics = mStatistics;
+                    long latency = System.nanoTime() - ring.getWriteTime();
+                    statistics.mLatencySum += latency;
+                    if (latency > statistics.mMaxLatency) {
+                        statistics.mMaxLatency = latency;
+                    }
+                    statistics.mQueuedCount++;
+                }
+                deliver(buffer, 0, count, ring.getTimestamp());
+                mBusy = false;
+            }
+        }
+    }
+
+    private final Object mLock = new Object();
+    // Replaced when a receiver is added or removed so it can be read without locking.
+    private volatile Connection[] mConnections = new Connection[0];
+    private int mDispatchMode = DISPATCH_SERIAL;
+    private int mQueueCapacity = DEFAULT_QUEUE_CAPACITY;
+    private int mOverflowPolicy = OVERFLOW_DROP;
+    private final AtomicInteger mFailedReceiverCount = new AtomicInteger();
+    // Used to split a stream with running status when there is a filter.
+    private int mRunningStatus;
+    // Status and number of data bytes still to come of a message that was
+    // split between two buffers.
+    private int mPartialStatus;
+    private int mPartialRemaining;
+    private static final byte[] FLUSH_MESSAGE = new byte[0];
 
     private final MidiSender mSender = new MidiSender() {
         /**
@@ -42,7 +239,7 @@ public final class MidiDispatcher extends MidiReceiver {
          */
         @Override
         public void onConnect(MidiReceiver receiver) {
-            mReceivers.add(receiver);
+            addReceiver(receiver);
         }
 
         /**
@@ -52,7 +249,7 @@ public final class MidiDispatcher extends MidiReceiver {
          */
         @Override
         public void onDisconnect(MidiReceiver receiver) {
-            mReceivers.remove(receiver);
+            removeReceiver(receiver);
         }
     };
 
@@ -61,7 +258,7 @@ public final class MidiDispatcher extends MidiReceiver {
      * @return the number of receivers
      */
     public int getReceiverCount() {
-        return mReceivers.size();
+        return mConnections.length;
     }
 
     /**
@@ -74,22 +271,262 @@ public final class MidiDispatcher extends MidiReceiver {
         return mSender;
     }
 
+    /**
+     * Start or stop the receiver threads. Messages still in the queues are dropped.
+     * This should be called before sending.
+     *
+     * @param mode DISPATCH_SERIAL or DISPATCH_ASYNC
+     */
+    public void setDispatchMode(int mode) {
+        synchronized (mLock) {
+            if (mode == mDispatchMode) {
+                return;
+            }
+            mDispatchMode = mode;
+            for (Connection connection : mConnections) {
+                connection.stop();
+                if (mode == DISPATCH_ASYNC) {
+                    connection.start(mQueueCapacity);
+                }
+            }
+        }
+    }
+
+    public int getDispatchMode() {
+        return mDispatchMode;
+    }
+
+    /**
+     * Set the size of the queues for receivers that are added later.
+     *
+     * @param capacity in bytes, including 20 bytes per message
+     */
+    public void setQueueCapacity(int capacity) {
+        synchronized (mLock) {
+            mQueueCapacity = capacity;
+        }
+    }
+
+    /**
+     * Set the overflow policy for receivers that are added later.
+     *
+     * @param policy OVERFLOW_DROP or OVERFLOW_BLOCK
+     */
+    public void setOverflowPolicy(int policy) {
+        synchronized (mLock) {
+            mOverflowPolicy = policy;
+        }
+    }
+
+    /**
+     * Set the overflow policy for one receiver that was already added.
+     *
+     * @param receiver
+     * @param policy OVERFLOW_DROP or OVERFLOW_BLOCK
+     */
+    public void setOverflowPolicy(MidiReceiver receiver, int policy) {
+        Connection connection = findConnection(receiver);
+        if (connection != null) {
+            connection.mOverflowPolicy = policy;
+        }
+    }
+
+    /**
+     * Only pass the messages accepted by the filter to the receiver.
+     * The filter is copied so later changes to it have no effect.
+     *
+     * @param receiver that was already added
+     * @param filter or null to pass everything
+     */
+    public void setFilter(MidiReceiver receiver, MidiFilter filter) {
+        Connection connection = findConnection(receiver);
+        if (connection != null) {
+            connection.mFilter = (filter == null) ? null : new MidiFilter(filter);
+        }
+    }
+
+    /**
+     * @param receiver
+     * @return counters for the receiver or null if it is not connected
+     */
+    public Statistics getStatistics(MidiReceiver receiver) {
+        Connection connection = findConnection(receiver);
+        return (connection == null) ? null : connection.mStatistics;
+    }
+
+    /**
+     * @return number of receivers that were removed because they threw an exception
+     */
+    public int getFailedReceiverCount() {
+        return mFailedReceiverCount.get();
+    }
+
+    private Connection findConnection(MidiReceiver receiver) {
+        for (Connection connection : mConnections) {
+            if (connection.mReceiver == receiver) {
+                return connection;
+            }
+        }
+        return null;
+    }
+
+    private void addReceiver(MidiReceiver receiver) {
+        synchronized (mLock) {
+            Connection connection = new Connection(receiver, mOverflowPolicy);
+            if (mDispatchMode == DISPATCH_ASYNC) {
+                connection.start(mQueueCapacity);
+            }
+            Connection[] connections = new Connection[mConnections.length + 1];
+            System.arraycopy(mConnections, 0, connections, 0, mConnections.length);
+            connections[mConnections.length] = connection;
+            mConnections = connections;
+        }
+    }
+
+    private void removeReceiver(MidiReceiver receiver) {
+        Connection connection = findConnection(receiver);
+        if (connection != null) {
+            removeConnection(connection);
+        }
+    }
+
+    /**
+     * @return false if the connection was already removed
+     */
+    private boolean removeConnection(Connection connection) {
+        synchronized (mLock) {
+            Connection[] old = mConnections;
+            int index = -1;
+            for (int i = 0; i < old.length; i++) {
+                if (old[i] == connection) {
+                    index = i;
+                    break;
+                }
+            }
+            if (index < 0) {
+                return false;
+            }
+            Connection[] connections = new Connection[old.length - 1];
+            System.arraycopy(old, 0, connections, 0, index);
+            System.arraycopy(old, index + 1, connections, index, old.length - index - 1);
+            mConnections = connections;
+        }
+        // Stop outside the lock in case the thread is also removing itself.
+        connection.stop();
+        return true;
+    }
+
     @Override
     public void onSend(byte[] msg, int offset, int count, long timestamp) throws IOException {
-       for (MidiReceiver receiver : mReceivers) {
-            try {
-                receiver.send(msg, offset, count, timestamp);
-            } catch (IOException e) {
-                // if the receiver fails we remove the receiver but do not propagate the exception
-                mReceivers.remove(receiver);
-            }
+        if (count > 0) {
+            dispatch(msg, offset, count, timestamp);
         }
     }
 
     @Override
     public void flush() throws IOException {
-       for (MidiReceiver receiver : mReceivers) {
-            receiver.flush();
-       }
+        dispatch(FLUSH_MESSAGE, 0, 0, 0);
+    }
+
+    private void dispatch(byte[] msg, int offset, int count, long timestamp) {
+        final Connection[] connections = mConnections;
+        boolean filtered = false;
+        for (Connection connection : connections) {
+            if (connection.mFilter != null) {
+                filtered = true;
+                break;
+            }
+        }
+        if (!filtered || count == 0) {
+            for (Connection connection : connections) {
+                dispatch(connection, connections.length, msg, offset, count, timestamp);
+            }
+            return;
+        }
+        final int end = offset + count;
+        while (offset < end) {
+            int status = msg[offset] & 0xFF;
+            int length;
+            if (status < 0x80 && mPartialRemaining > 0) {
+                // The rest of a message from the previous buffer.
+                status = mPartialStatus;
+                length = Math.min(mPartialRemaining, end - offset);
+                mPartialRemaining -= length;
+            } else if (status < 0x80 && mRunningStatus != 0) {
+                // A message that uses running status.
+                status = mRunningStatus;
+                length = frameMessage(status, 1, end - offset);
+            } else if (status >= 0xF8) {
+                // Real-Time messages do not affect running status.
+                length = 1;
+            } else if (status == 0xF0 || status < 0x80) {
+                // SysEx, or data without a status byte, ends at the next status byte.
+                mRunningStatus = 0;
+                mPartialRemaining = 0;
+                length = getDataLength(msg, offset, end);
+            } else {
+                // Channel messages set running status. System Common messages clear it.
+                mRunningStatus = (status < 0xF0) ? status : 0;
+                length = frameMessage(status, 0, end - offset);
+            }
+            byte filterStatus = (byte) status;
+            for (Connection connection : connections) {
+                MidiFilter filter = connection.mFilter;
+                if (filter == null || filter.accepts(filterStatus)) {
+                    dispatch(connection, connections.length, msg, offset, length, timestamp);
+                }
+            }
+            offset += length;
+        }
+    }
+
+    private void dispatch(Connection connection, int numConnections,
+            byte[] msg, int offset, int count, long timestamp) {
+        if (!connection.isQueued()) {
+            connection.deliver(msg, offset, count, timestamp);
+        } else if (numConnections == 1 && connection.mRing.isEmpty()
+                && !connection.mBusy) {
+            // Nothing is waiting so there is no need to wake up the thread.
+            connection.deliver(msg, offset, count, timestamp);
+        } else {
+            connection.enqueue(msg, offset, count, timestamp);
+        }
+    }
+
+    /**
+     * Find the length of the part of a message that is in the buffer.
+     * Remember what is missing so it can be found in the next buffer.
+     *
+     * @param status of the message
+     * @param start number of bytes of the message before the buffer, 1 for running status
+     * @param available number of bytes left in the buffer
+     * @return number of bytes of the message in the buffer
+     */
+    private int frameMessage(int status, int start, int available) {
+        int needed = MidiConstants.getBytesPerMessage((byte) status) - start;
+        int length = Math.min(needed, available);
+        mPartialStatus = status;
+        mPartialRemaining = needed - length;
+        return length;
+    }
+
+    /**
+     * A SysEx, or data without a status byte, ends at the next status byte.
+     *
+     * @return length of the data that starts at offset
+     */
+    private static int getDataLength(byte[] msg, int offset, int end) {
+        int i = offset + 1;
+        while (i < end) {
+            int next = msg[i] & 0xFF;
+            if (next >= 0x80) {
+                if (next == 0xF7) {
+                    i++;
+                }
+                break;
+            }
+            i++;
+        }
+        return i - offset;
     }
 }
@@ -22,13 +22,83 @@ import java.io.IOException;
 
 /**
  * Add MIDI Events to an EventScheduler
+ *
+ * In arena mode every event is taken from a fixed set of events that are
+ * allocated when the scheduler is created, and the scheduler is lock-free.
+ * So no memory is allocated while scheduling, unless the arena runs out
+ * and the overflow policy is OVERFLOW_ALLOCATE.
+ * Messages that are sent together may share an event. They are only split
+ * at message boundaries, except for a SysEx that is longer than the
+ * maximum message size.
  */
 public class MidiEventScheduler extends EventScheduler {
     // Maintain a pool of scheduled events to reduce memory allocation.
     // This pool increases performance by about 14%.
     private final static int POOL_EVENT_SIZE = 16;
+    // Allocate a new event when the arena is empty.
+    public static final int OVERFLOW_ALLOCATE = 0;
+    // Drop the message when the arena is empty.
+    public static final int OVERFLOW_DROP = 1;
+
     private MidiReceiver mReceiver = new SchedulingReceiver();
 
+    // These are only used in arena mode.
+    private final EventRingBuffer mArena;
+    // Arena events that were never scheduled. Only used by the writing thread
+    // because only the reading thread may add to the arena.
+    private final MidiEvent[] mSpares;
+    private volatile int mSpareCount;
+    private final int mArenaCapacity;
+    private final int mMaxMessageSize;
+    private volatile int mOverflowPolicy = OVERFLOW_ALLOCATE;
+    // These are only modified by the writing thread.
+    private volatile int mDroppedCount;
+    private volatile int mAllocatedCount;
+    private volatile int mSplitCount;
+    // Running status at the end of the last scheduled send.
+    // Only used by the writing thread.
+    private int mRunningStatus;
+
+    public MidiEventScheduler() {
+        this(false);
+    }
+
+    /**
+     * @param lockFree if true then use a lock-free queue instead of a synchronized TreeMap
+     */
+    public MidiEventScheduler(boolean lockFree) {
+        super(lockFree);
+        mArena = null;
+        mSpares = null;
+        mArenaCapacity = 0;
+        mMaxMessageSize = 0;
+    }
+
+    /**
+     * Create a lock-free scheduler in arena mode.
+     * The locked TreeMap is not used because it allocates memory.
+     *
+     * @param arenaCapacity number of events to preallocate
+     * @param maxMessageSize number of bytes in each event, longer SysEx messages will be split
+     */
+    public MidiEventScheduler(int arenaCapacity, int maxMessageSize) {
+        // Make sure the lock-free queue can hold every event in the arena.
+        super(true, Math.max(arenaCapacity, DEFAULT_LOCK_FREE_CAPACITY));
+        if (maxMessageSize < 3) {
+            throw new IllegalArgumentException("maxMessageSize must be at least 3, was "
+                    + maxMessageSize);
+        }
+        mArena = new EventRingBuffer(arenaCapacity);
+        mSpares = new MidiEvent[arenaCapacity];
+        mArenaCapacity = arenaCapacity;
+        mMaxMessageSize = maxMessageSize;
+        for (int i = 0; i < arenaCapacity; i++) {
+            MidiEvent event = new MidiEvent(maxMessageSize);
+            event.mFromArena = true;
+            mArena.offer(event);
+        }
+    }
+
     private class SchedulingReceiver extends MidiReceiver
     {
         /**
@@ -38,6 +108,10 @@ public class MidiEventScheduler extends EventScheduler {
         @Override
         public void onSend(byte[] msg, int offset, int count, long timestamp)
                 throws IOException {
+            if (mArena != null) {
+                scheduleFromArena(msg, offset, count, timestamp);
+                return;
+            }
             MidiEvent event = createScheduledEvent(msg, offset, count, timestamp);
             if (event != null) {
                 add(event);
@@ -48,6 +122,7 @@ public class MidiEventScheduler extends EventScheduler {
     public static class MidiEvent extends SchedulableEvent {
         public int count = 0;
         public byte[] data;
+        private boolean mFromArena;
 
         private MidiEvent(int count) {
             super(0);
@@ -91,6 +166,137 @@ public class MidiEventScheduler extends EventScheduler {
         return event;
     }
 
+    /**
+     * Copy the messages into events from the arena.
+     */
+    private void scheduleFromArena(byte[] msg, int offset, int count, long timestamp) {
+        // Drop everything rather than send part of a SysEx.
+        if (mOverflowPolicy == OVERFLOW_DROP && (mSpareCount + mArena.size())
+                < packMessages(msg, offset, count, timestamp, false)) {
+            mDroppedCount++;
+            return;
+        }
+        packMessages(msg, offset, count, timestamp, true);
+    }
+
+    /**
+     * Pack whole messages into events. Start a new event when the next
+     * message does not fit, so that only messages longer than an event are split.
+     *
+     * @param schedule if false then only count the events
+     * @return number of events needed for the messages
+     */
+    private int packMessages(byte[] msg, int offset, int count, long timestamp,
+            boolean schedule) {
+        int end = offset + count;
+        int numEvents = 0;
+        MidiEvent event = null;
+        int space = 0; // left in the current event
+        int runningStatus = mRunningStatus;
+        while (offset < end) {
+            int length = getMessageLength(msg, offset, end, runningStatus);
+            runningStatus = getRunningStatus(msg[offset], runningStatus);
+            if (schedule && length > mMaxMessageSize) {
+                mSplitCount++;
+            }
+            while (length > 0) {
+                if (space == 0 || (length > space && space < mMaxMessageSize)) {
+                    numEvents++;
+                    space = mMaxMessageSize;
+                    if (schedule) {
+                        if (event != null) {
+                            add(event);
+                        }
+                        event = takeFromArena();
+                        if (event == null) {
+                            mAllocatedCount++;
+                            event = new MidiEvent(mMaxMessageSize);
+                        }
+                        event.count = 0;
+                        event.setTimestamp(timestamp);
+                    }
+                }
+                int size = Math.min(length, space);
+                if (schedule) {
+                    System.arraycopy(msg, offset, event.data, event.count, size);
+                    event.count += size;
+                }
+                offset += size;
+                length -= size;
+                space -= size;
+            }
+        }
+        if (schedule) {
+            if (event != null) {
+                add(event);
+            }
+            mRunningStatus = runningStatus;
+        }
+        return numEvents;
+    }
+
+    /**
+     * @return number of bytes in the message that starts at offset, no more than end
+     */
+    private static int getMessageLength(byte[] msg, int offset, int end, int runningStatus) {
+        int status = msg[offset] & 0xFF;
+        if (status == (MidiConstants.STATUS_SYSTEM_EXCLUSIVE & 0xFF)
+                || (status < 0x80 && runningStatus == 0)) {
+            // SysEx, or data bytes that continue a SysEx from an earlier send.
+            // It ends after the End of SysEx or before any other status byte.
+            int length = 1;
+            while (offset + length < end) {
+                int next = msg[offset + length] & 0xFF;
+                if (next >= 0x80) {
+                    if (next == (MidiConstants.STATUS_END_SYSEX & 0xFF)) {
+                        length++;
+                    }
+                    break;
+                }
+                length++;
+            }
+            return length;
+        }
+        int length = (status < 0x80)
+                ? MidiConstants.getBytesPerMessage((byte) runningStatus) - 1
+                : MidiConstants.getBytesPerMessage(msg[offset]);
+        return Math.min(length, end - offset);
+    }
+
+    // Channel messages set the running status and System Common messages cancel it.
+    private static int getRunningStatus(byte first, int runningStatus) {
+        int status = first & 0xFF;
+        if (status >= 0x80 && status < 0xF0) {
+            return status;
+        } else if (status >= 0xF0 && status < 0xF8) {
+            return 0;
+        }
+        return runningStatus;
+    }
+
+    // Called by the writing thread.
+    private MidiEvent takeFromArena() {
+        int spareCount = mSpareCount;
+        if (spareCount > 0) {
+            MidiEvent event = mSpares[--spareCount];
+            mSpares[spareCount] = null;
+            mSpareCount = spareCount;
+            return event;
+        }
+        return (MidiEvent) mArena.poll();
+    }
+
+    /**
+     * Keep an arena event that the lock-free queue rejected so it is not lost.
+     */
+    @Override
+    protected void onOverflow(SchedulableEvent event) {
+        if (event instanceof MidiEvent && ((MidiEvent) event).mFromArena) {
+            // Every arena event fits because there are only arenaCapacity of them.
+            mSpares[mSpareCount++] = (MidiEvent) event;
+        }
+    }
+
     /**
      * Return events to a pool so they can be reused.
      *
@@ -101,12 +307,80 @@ public class MidiEventScheduler extends EventScheduler {
         // Make sure the event is suitable for the pool.
         if (event instanceof MidiEvent) {
             MidiEvent midiEvent = (MidiEvent) event;
-            if (midiEvent.data.length == POOL_EVENT_SIZE) {
+            if (mArena != null) {
+                // Events that were allocated after an overflow are left for the
+                // garbage collector.
+                if (midiEvent.mFromArena) {
+                    mArena.offer(midiEvent);
+                }
+            } else if (midiEvent.data.length == POOL_EVENT_SIZE) {
                 super.addEventToPool(event);
             }
         }
     }
 
+    /**
+     * @return true if events are taken from a preallocated arena
+     */
+    public boolean isArenaEnabled() {
+        return mArena != null;
+    }
+
+    /**
+     * Control what happens when a message arrives and the arena is empty.
+     *
+     * @param policy OVERFLOW_ALLOCATE or OVERFLOW_DROP
+     */
+    public void setOverflowPolicy(int policy) {
+        mOverflowPolicy = policy;
+    }
+
+    public int getOverflowPolicy() {
+        return mOverflowPolicy;
+    }
+
+    /**
+     * @return number of events allocated when the arena was created
+     */
+    public int getArenaCapacity() {
+        return mArenaCapacity;
+    }
+
+    /**
+     * @return number of events in the arena that are not scheduled
+     */
+    public int getArenaAvailable() {
+        return (mArena == null) ? 0 : mArena.size() + mSpareCount;
+    }
+
+    /**
+     * @return maximum number of bytes in a single event in arena mode
+     */
+    public int getMaxMessageSize() {
+        return mMaxMessageSize;
+    }
+
+    /**
+     * @return number of messages dropped because the arena was empty
+     */
+    public int getDroppedCount() {
+        return mDroppedCount;
+    }
+
+    /**
+     * @return number of events allocated because the arena was empty
+     */
+    public int getAllocatedCount() {
+        return mAllocatedCount;
+    }
+
+    /**
+     * @return number of SysEx messages that were too big for one event
+     */
+    public int getSplitCount() {
+        return mSplitCount;
+    }
+
     /**
      * This MidiReceiver will write date to the scheduling buffer.
      * @return the MidiReceiver
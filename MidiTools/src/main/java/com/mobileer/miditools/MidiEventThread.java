@@ -24,6 +24,7 @@ import java.io.IOException;
 public class MidiEventThread extends MidiEventScheduler {
 
     private EventThread mEventThread;
+    private volatile EventTrace mEventTrace;
     MidiDispatcher mDispatcher = new MidiDispatcher();
 
     class EventThread extends Thread {
@@ -34,9 +35,13 @@ public class MidiEventThread extends MidiEventScheduler {
             while (go) {
                 try {
                     MidiEvent event = (MidiEvent) waitNextEvent();
+                    EventTrace trace = mEventTrace;
+                    if (trace != null) {
+                        trace.record(event.getTimestamp(),
+                                System.nanoTime() - event.getTimestamp(),
+                                event.data[0], event.count);
+                    }
                     try {
-                        Log.i(MidiConstants.TAG, "Fire event " + event.data[0] + " at "
-                                + event.getTimestamp());
                         mDispatcher.send(event.data, 0,
                                 event.count, event.getTimestamp());
                     } catch (IOException e) {
@@ -82,6 +87,20 @@ public class MidiEventThread extends MidiEventScheduler {
         }
     }
 
+    /**
+     * Record each event before it is dispatched.
+     * This can be changed while the thread is running.
+     *
+     * @param trace or null to stop recording
+     */
+    public void setEventTrace(EventTrace trace) {
+        mEventTrace = trace;
+    }
+
+    public EventTrace getEventTrace() {
+        return mEventTrace;
+    }
+
     public MidiSender getSender() {
         return mDispatcher.getSender();
     }
@@ -0,0 +1,175 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mobileer.miditools;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Standard MIDI File, format 0 or 1.
+ *
+ * The events of all the tracks are merged in time order. Each event has
+ * its tick and its time in nanoseconds from the start of the file, which
+ * is calculated from the tempo map. Running status is expanded so every
+ * MIDI event has a status byte.
+ *
+ * All of the events are kept in memory. Use a MidiFileReader to read
+ * a long file one event at a time.
+ */
+public class MidiFile {
+    public static final int META_TEXT = 0x01;
+    public static final int META_TRACK_NAME = 0x03;
+    public static final int META_END_OF_TRACK = 0x2F;
+    public static final int META_TEMPO = 0x51;
+    public static final int META_TIME_SIGNATURE = 0x58;
+    // 120 BPM
+    public static final int DEFAULT_MICROS_PER_QUARTER = 500000;
+
+    private final int mFormat;
+    private final int mTrackCount;
+    private final int mDivision;
+    private final List<Event> mEvents;
+
+    /**
+     * A MIDI message or a meta event.
+     */
+    public static class Event {
+        private final long mTick;
+        private final int mTrack;
+        private final int mMetaType;
+        private final byte[] mData;
+        private final long mTime;
+
+        private Event(long tick, long time, int track, int metaType, byte[] data) {
+            mTick = tick;
+            mTime = time;
+            mTrack = track;
+            mMetaType = metaType;
+            mData = data;
+        }
+
+        public long getTick() {
+            return mTick;
+        }
+
+        /**
+         * @return nanoseconds from the start of the file
+         */
+        public long getTime() {
+            return mTime;
+        }
+
+        public int getTrack() {
+            return mTrack;
+        }
+
+        public boolean isMeta() {
+            return mMetaType >= 0;
+        }
+
+        /**
+         * @return meta event type, for example META_TEMPO, or -1 for a MIDI message
+         */
+        public int getMetaType() {
+            return mMetaType;
+        }
+
+        /**
+         * @return a complete MIDI message, or the data of a meta event.
+         *     Do not modify it.
+         */
+        public byte[] getData() {
+            return mData;
+        }
+    }
+
+    private MidiFile(int format, int trackCount, int division, List<Event> events) {
+        mFormat = format;
+        mTrackCount = trackCount;
+        mDivision = division;
+        mEvents = events;
+    }
+
+    /**
+     * @param stream is read to the end but not closed
+     * @return the parsed file
+     * @throws IOException if the file is not a format 0 or 1 MIDI file
+     */
+    public static MidiFile read(InputStream stream) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int count;
+        while ((count = stream.read(buffer)) > 0) {
+            bytes.write(buffer, 0, count);
+        }
+        return parse(bytes.toByteArray());
+    }
+
+    /**
+     * @param data contents of a .mid file
+     * @return the parsed file
+     * @throws IOException if the file is not a format 0 or 1 MIDI file
+     */
+    public static MidiFile parse(byte[] data) throws IOException {
+        MidiFileReader reader = new MidiFileReader(data);
+        List<Event> events = new ArrayList<Event>();
+        while (reader.next()) {
+            byte[] message = new byte[reader.getLength()];
+            System.arraycopy(reader.getData(), 0, message, 0, message.length);
+            events.add(new Event(reader.getTick(), reader.getTime(), reader.getTrack(),
+                    reader.getMetaType(), message));
+        }
+        return new MidiFile(reader.getFormat(), reader.getTrackCount(), reader.getDivision(),
+                Collections.unmodifiableList(events));
+    }
+
+    /**
+     * @return 0 for a single track or 1 for several tracks played together
+     */
+    public int getFormat() {
+        return mFormat;
+    }
+
+    public int getTrackCount() {
+        return mTrackCount;
+    }
+
+    /**
+     * @return ticks per quarter note, or an SMPTE division if the high bit is set
+     */
+    public int getDivision() {
+        return mDivision;
+    }
+
+    /**
+     * @return events from all tracks in time order
+     */
+    public List<Event> getEvents() {
+        return mEvents;
+    }
+
+    /**
+     * @return time of the last event, usually the end of the longest track
+     */
+    public long getDurationNanos() {
+        return mEvents.isEmpty() ? 0 : mEvents.get(mEvents.size() - 1).getTime();
+    }
+}
@@ -0,0 +1,384 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mobileer.miditools;
+
+import android.media.midi.MidiReceiver;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Read the events of a Standard MIDI File one at a time, in time order.
+ *
+ * The tracks are parsed as they are read, so no memory is allocated for
+ * each event. The data of the current event is only valid until next()
+ * is called again. Running status is expanded by a MidiFramer for each
+ * track so every MIDI event has a status byte.
+ */
+public class MidiFileReader {
+    private static final int META_EVENT = 0xFF;
+    private static final int SYSEX_ESCAPE = 0xF7;
+    private static final long NANOS_PER_SECOND = 1000000000L;
+
+    private final byte[] mData;
+    private final int mFormat;
+    private final int mDivision;
+    private final TrackReader[] mTracks;
+    private final double mNanosPerTick; // only for SMPTE divisions
+
+    // The current event.
+    private TrackReader mCurrent;
+    private long mTime;
+    // The most recent tempo change.
+    private long mTempoTick;
+    private long mTempoTime;
+    private int mMicrosPerQuarter = MidiFile.DEFAULT_MICROS_PER_QUARTER;
+
+    /**
+     * Parse the header and find the tracks.
+     *
+     * @param data contents of a .mid file, which must not be modified while reading
+     * @throws IOException if the file is not a format 0 or 1 MIDI file
+     */
+    public MidiFileReader(byte[] data) throws IOException {
+        mData = data;
+        if (data.length < 14 || !tagEquals(0, "MThd")) {
+            throw new IOException("not a MIDI file");
+        }
+        int headerLength = readInt(4, 4);
+        if (headerLength < 6) {
+            throw new IOException("header is too short, " + headerLength);
+        }
+        mFormat = readInt(8, 2);
+        int trackCount = readInt(10, 2);
+        mDivision = readInt(12, 2);
+        if (mFormat > 1) {
+            throw new IOException("format " + mFormat + " is not supported");
+        }
+        if (mDivision == 0) {
+            throw new IOException("division is zero");
+        }
+        if ((mDivision & 0x8000) != 0) {
+            // SMPTE, negative frames per second and ticks per frame.
+            int framesPerSecond = -((byte) (mDivision >> 8));
+            int ticksPerFrame = mDivision & 0xFF;
+            double ticksPerSecond = ticksPerFrame
+                    * ((framesPerSecond == 29) ? 29.97 : framesPerSecond);
+            mNanosPerTick = NANOS_PER_SECOND / ticksPerSecond;
+        } else {
+            mNanosPerTick = 0.0;
+        }
+
+        List<TrackReader> tracks = new ArrayList<TrackReader>();
+        int position = 8 + headerLength;
+        while (tracks.size() < trackCount && position + 8 <= data.length) {
+            int length = readInt(position + 4, 4);
+            int start = position + 8;
+            if (length < 0 || length > data.length - start) {
+                throw new IOException("track " + tracks.size() + " is truncated");
+            }
+            if (tagEquals(position, "MTrk")) {
+                tracks.add(new TrackReader(tracks.size(), start, start + length));
+            } // else skip an unknown chunk
+            position = start + length;
+        }
+        mTracks = tracks.toArray(new TrackReader[tracks.size()]);
+        rewind();
+    }
+
+    private boolean tagEquals(int position, String tag) {
+        for (int i = 0; i < 4; i++) {
+            if (mData[position + i] != tag.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Big endian
+    private int readInt(int position, int numBytes) {
+        int value = 0;
+        for (int i = 0; i < numBytes; i++) {
+            value = (value << 8) | (mData[position + i] & 0xFF);
+        }
+        return value;
+    }
+
+    /**
+     * Go back to the start of the file.
+     */
+    public void rewind() throws IOException {
+        for (TrackReader track : mTracks) {
+            track.rewind();
+        }
+        mCurrent = null;
+        mTime = 0;
+        mTempoTick = 0;
+        mTempoTime = 0;
+        mMicrosPerQuarter = MidiFile.DEFAULT_MICROS_PER_QUARTER;
+    }
+
+    /**
+     * Advance to the next event. Events at the same tick are read
+     * in track order.
+     *
+     * @return false if there are no more events
+     * @throws IOException if the file is corrupt
+     */
+    public boolean next() throws IOException {
+        if (mCurrent != null) {
+            mCurrent.advance();
+        }
+        TrackReader earliest = null;
+        for (TrackReader track : mTracks) {
+            if (track.mHasEvent && (earliest == null || track.mTick < earliest.mTick)) {
+                earliest = track;
+            }
+        }
+        mCurrent = earliest;
+        if (earliest == null) {
+            return false;
+        }
+        mTime = getTimeAtTick(earliest.mTick);
+        if (earliest.mMetaType == MidiFile.META_TEMPO && earliest.mLength >= 3) {
+            byte[] data = earliest.mBuffer;
+            mTempoTick = earliest.mTick;
+            mTempoTime = mTime;
+            mMicrosPerQuarter = ((data[0] & 0xFF) << 16) | ((data[1] & 0xFF) << 8)
+                    | (data[2] & 0xFF);
+        }
+        return true;
+    }
+
+    /**
+     * Convert a tick to nanoseconds using the tempo of the current event.
+     * So it is only valid for ticks at or after the current event.
+     *
+     * @param tick
+     * @return nanoseconds from the start of the file
+     */
+    public long getTimeAtTick(long tick) {
+        if (mNanosPerTick > 0.0) {
+            return (long) (tick * mNanosPerTick);
+        }
+        return mTempoTime + ((tick - mTempoTick) * mMicrosPerQuarter * 1000) / mDivision;
+    }
+
+    /**
+     * @return duration of a tick at the tempo of the current event
+     */
+    public double getNanosPerTick() {
+        if (mNanosPerTick > 0.0) {
+            return mNanosPerTick;
+        }
+        return (mMicrosPerQuarter * 1000.0) / mDivision;
+    }
+
+    public int getFormat() {
+        return mFormat;
+    }
+
+    public int getTrackCount() {
+        return mTracks.length;
+    }
+
+    /**
+     * @return ticks per quarter note, or an SMPTE division if the high bit is set
+     */
+    public int getDivision() {
+        return mDivision;
+    }
+
+    /**
+     * @return tempo in effect at the current event
+     */
+    public int getMicrosPerQuarter() {
+        return mMicrosPerQuarter;
+    }
+
+    public long getTick() {
+        return mCurrent.mTick;
+    }
+
+    /**
+     * @return nanoseconds from the start of the file
+     */
+    public long getTime() {
+        return mTime;
+    }
+
+    public int getTrack() {
+        return mCurrent.mIndex;
+    }
+
+    public boolean isMeta() {
+        return mCurrent.mMetaType >= 0;
+    }
+
+    /**
+     * @return meta event type, for example MidiFile.META_TEMPO, or -1 for a MIDI message
+     */
+    public int getMetaType() {
+        return mCurrent.mMetaType;
+    }
+
+    /**
+     * @return a complete MIDI message, or the data of a meta event,
+     *     which is only valid until the next call to next()
+     */
+    public byte[] getData() {
+        return mCurrent.mBuffer;
+    }
+
+    /**
+     * @return number of valid bytes in getData()
+     */
+    public int getLength() {
+        return mCurrent.mLength;
+    }
+
+    // Reads one track, one event ahead of the merge.
+    private class TrackReader extends MidiReceiver {
+        private final int mIndex;
+        private final int mStart;
+        private final int mEnd;
+        private int mPosition;
+        private MidiFramer mFramer;
+        private int mRunningStatus;
+        // The next event in this track.
+        private boolean mHasEvent;
+        private long mTick;
+        private int mMetaType;
+        private byte[] mBuffer = new byte[16];
+        private int mLength;
+
+        TrackReader(int index, int start, int end) {
+            mIndex = index;
+            mStart = start;
+            mEnd = end;
+        }
+
+        void rewind() throws IOException {
+            mPosition = mStart;
+            mTick = 0;
+            mRunningStatus = 0;
+            mFramer = new MidiFramer(this);
+            advance();
+        }
+
+        // The framer calls this with a complete message.
+        @Override
+        public void onSend(byte[] msg, int offset, int count, long tick) {
+            setData(msg, offset, count);
+        }
+
+        private void ensureCapacity(int count) {
+            if (count > mBuffer.length) {
+                mBuffer = new byte[Math.max(count, mBuffer.length * 2)];
+            }
+        }
+
+        private void setData(byte[] data, int offset, int count) {
+            ensureCapacity(count);
+            System.arraycopy(data, offset, mBuffer, 0, count);
+            mLength = count;
+        }
+
+        private int readByte() throws IOException {
+            if (mPosition >= mEnd) {
+                throw new IOException("unexpected end of track " + mIndex);
+            }
+            return mData[mPosition++] & 0xFF;
+        }
+
+        // Variable length quantity, up to 4 bytes with 7 bits in each.
+        private int readVariableLength() throws IOException {
+            int value = 0;
+            for (int i = 0; i < 4; i++) {
+                int b = readByte();
+                value = (value << 7) | (b & 0x7F);
+                if (b < 0x80) {
+                    return value;
+                }
+            }
+            throw new IOException("variable length quantity is too long in track " + mIndex);
+        }
+
+        private int readLength() throws IOException {
+            int length = readVariableLength();
+            if (length > mEnd - mPosition) {
+                throw new IOException("unexpected end of track " + mIndex);
+            }
+            return length;
+        }
+
+        // Parse the next event.
+        void advance() throws IOException {
+            if (mPosition >= mEnd) {
+                mHasEvent = false;
+                return;
+            }
+            mHasEvent = true;
+            mTick += readVariableLength();
+            int status = readByte();
+            if (status == META_EVENT) {
+                mMetaType = readByte();
+                int length = readLength();
+                setData(mData, mPosition, length);
+                mPosition += length;
+                if (mMetaType == MidiFile.META_END_OF_TRACK) {
+                    mPosition = mEnd; // ignore anything after the end
+                }
+            } else if (status == (MidiConstants.STATUS_SYSTEM_EXCLUSIVE & 0xFF)) {
+                mMetaType = -1;
+                int length = readLength();
+                // Put back the F0 that is not counted in the length.
+                ensureCapacity(length + 1);
+                mBuffer[0] = (byte) status;
+                System.arraycopy(mData, mPosition, mBuffer, 1, length);
+                mLength = length + 1;
+                mPosition += length;
+                mRunningStatus = 0; // SysEx cancels running status
+            } else if (status == SYSEX_ESCAPE) {
+                mMetaType = -1;
+                int length = readLength();
+                setData(mData, mPosition, length);
+                mPosition += length;
+                mRunningStatus = 0;
+            } else {
+                mMetaType = -1;
+                int start = mPosition - 1;
+                int length;
+                if (status >= 0x80) {
+                    mRunningStatus = status;
+                    length = MidiConstants.getBytesPerMessage((byte) status);
+                } else if (mRunningStatus != 0) {
+                    length = MidiConstants.getBytesPerMessage((byte) mRunningStatus) - 1;
+                } else {
+                    throw new IOException("data byte without running status in track "
+                            + mIndex + " at " + start);
+                }
+                if (status >= 0xF0 || length > mEnd - start) {
+                    throw new IOException("bad MIDI event in track " + mIndex + " at " + start);
+                }
+                mFramer.send(mData, start, length, mTick);
+                mPosition = start + length;
+            }
+        }
+    }
+}
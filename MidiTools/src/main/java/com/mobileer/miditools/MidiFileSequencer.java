@@ -0,0 +1,508 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mobileer.miditools;
+
+import android.media.midi.MidiReceiver;
+import android.util.Log;
+
+import java.io.IOException;
+
+/**
+ * Play a Standard MIDI File through a MidiEventScheduler, such as a MidiEventThread.
+ *
+ * The file is parsed while it plays. A background thread keeps the events
+ * for the next lookahead window in the scheduler, so the number of scheduled
+ * events does not depend on the length of the file.
+ *
+ * A seek removes the scheduled events and starts again from the new position.
+ * Program changes, controllers, pitch bend and channel pressure before the
+ * new position are sent so that the instruments are in the right state.
+ * A change to the tempo scale applies to the events that have not been
+ * scheduled yet, so it takes effect within one lookahead window.
+ *
+ * The scheduler is cleared when playback is stopped or moved, so it should
+ * not be shared with other sources of events.
+ */
+public class MidiFileSequencer {
+    public static final long DEFAULT_LOOKAHEAD_NANOS = 500 * 1000000L;
+    private static final long NANOS_PER_MILLI = 1000000L;
+    private static final int MAX_SEGMENTS = 32;
+    // How long to wait for a full lock-free scheduler to make room for a clear.
+    private static final int CLEAR_TIMEOUT_MSEC = 100;
+    private static final int MAX_CONTROLLERS = 128;
+    // Controllers 120 to 127 are channel mode messages, not state.
+    private static final int FIRST_CHANNEL_MODE = MidiConstants.CONTROLLER_ALL_SOUND_OFF;
+    private static final int CONTROLLER_BANK_SELECT = 0;
+    private static final int CONTROLLER_BANK_SELECT_LSB = 32;
+    private static final int CONTROLLER_DATA_ENTRY = 6;
+    private static final int CONTROLLER_DATA_ENTRY_LSB = 38;
+    private static final int CONTROLLER_EXPRESSION = 11;
+    private static final int CONTROLLER_NRPN_LSB = 98;
+    private static final int CONTROLLER_NRPN_MSB = 99;
+    private static final int CONTROLLER_RPN_LSB = 100;
+    private static final int CONTROLLER_RPN_MSB = 101;
+    private static final int PARAMETER_NULL = 127;
+    private static final int BEND_CENTER = 0x2000;
+    // Changed by Reset All Controllers. Sustain, portamento, sostenuto and soft.
+    private static final int[] RESET_CONTROLLERS = {
+            MidiConstants.CONTROLLER_MODULATION, MidiConstants.CONTROLLER_SUSTAIN, 65, 66, 67 };
+
+    private final Object mLock = new Object();
+    private final MidiEventScheduler mScheduler;
+    private final MidiReceiver mReceiver;
+    private final MidiFileReader mReader;
+    private long mLookaheadNanos = DEFAULT_LOOKAHEAD_NANOS;
+    private double mTempoScale = 1.0;
+    private FeedThread mThread;
+    private long mPositionTick; // used when stopped
+
+    // The reader holds an event that has not been scheduled yet.
+    private boolean mPending;
+    private boolean mEndOfFile;
+    // Maps time in the file to System.nanoTime().
+    private long mAnchorFileTime;
+    private long mAnchorTime;
+    // The last event that was scheduled.
+    private long mLastFileTime;
+    private long mLastTime;
+    private long mLastTick;
+    private double mFileNanosPerTick;
+    // Each segment has a constant tempo. Used to calculate the position.
+    private final long[] mSegmentTimes = new long[MAX_SEGMENTS];
+    private final long[] mSegmentTicks = new long[MAX_SEGMENTS];
+    private final double[] mSegmentNanosPerTick = new double[MAX_SEGMENTS];
+    private int mSegmentCount;
+
+    // The latest state of each channel, sent after a seek.
+    private final int[] mPrograms = new int[MidiConstants.MAX_CHANNELS];
+    private final int[] mBends = new int[MidiConstants.MAX_CHANNELS];
+    private final int[] mPressures = new int[MidiConstants.MAX_CHANNELS];
+    private final int[][] mControllers = new int[MidiConstants.MAX_CHANNELS][MAX_CONTROLLERS];
+    // True if an NRPN was selected after the last RPN.
+    private final boolean[] mNrpnSelected = new boolean[MidiConstants.MAX_CHANNELS];
+    private final byte[] mMessage = new byte[3];
+
+    class FeedThread extends Thread {
+        private volatile boolean mGo = true;
+
+        @Override
+        public void run() {
+            synchronized (mLock) {
+                while (mGo) {
+                    try {
+                        feed(System.nanoTime());
+                    } catch (IOException e) {
+                        Log.e(MidiConstants.TAG, "MidiFileSequencer could not read the file", e);
+                        mEndOfFile = true; // until the next seek
+                    }
+                    try {
+                        mLock.wait(Math.max(1, mLookaheadNanos / (4 * NANOS_PER_MILLI)));
+                    } catch (InterruptedException e) {
+                        // OK, this is how we stop the thread.
+                    }
+                }
+            }
+        }
+
+        void requestStop() {
+            mGo = false;
+            interrupt();
+        }
+    }
+
+    /**
+     * @param scheduler events are added to this, for example a MidiEventThread
+     * @param reader file to play, which should not be used by anything else
+     */
+    public MidiFileSequencer(MidiEventScheduler scheduler, MidiFileReader reader) {
+        mScheduler = scheduler;
+        mReceiver = scheduler.getReceiver();
+        mReader = reader;
+    }
+
+    /**
+     * Events are scheduled this far ahead of when they are played.
+     * A longer window tolerates more delay of the background thread.
+     * A shorter window responds more quickly to tempo changes.
+     *
+     * @param nanos
+     */
+    public void setLookaheadNanos(long nanos) {
+        synchronized (mLock) {
+            mLookaheadNanos = nanos;
+        }
+    }
+
+    public long getLookaheadNanos() {
+        return mLookaheadNanos;
+    }
+
+    /**
+     * @param scale 1.0 for the tempo in the file, 2.0 for twice as fast
+     */
+    public void setTempoScale(double scale) {
+        if (scale <= 0.0) {
+            throw new IllegalArgumentException("tempo scale must be positive, " + scale);
+        }
+        synchronized (mLock) {
+            // Events that are already scheduled keep their times.
+            mAnchorFileTime = mLastFileTime;
+            mAnchorTime = mLastTime;
+            addSegment(mLastTime, mLastTick, mFileNanosPerTick / scale);
+            mTempoScale = scale;
+        }
+    }
+
+    public double getTempoScale() {
+        return mTempoScale;
+    }
+
+    /**
+     * Start playing from the current position.
+     * At the end of the file call stop() then seek(0) to play it again.
+     */
+    public void start() throws IOException {
+        synchronized (mLock) {
+            if (mThread != null) {
+                return;
+            }
+            prepare(mPositionTick, System.nanoTime());
+            mThread = new FeedThread();
+            mThread.start();
+        }
+    }
+
+    /**
+     * Stop playing and remember the position.
+     */
+    public void stop() {
+        FeedThread thread;
+        synchronized (mLock) {
+            thread = mThread;
+            if (thread == null) {
+                return;
+            }
+            long now = System.nanoTime();
+            mPositionTick = calculatePosition(now);
+            mThread = null;
+            // Stop the thread before it can schedule more events.
+            thread.requestStop();
+            silence(now);
+        }
+        try {
+            thread.join(500);
+        } catch (InterruptedException e) {
+            Log.e(MidiConstants.TAG, "Interrupted while waiting for MidiFileSequencer to stop.");
+        }
+    }
+
+    /**
+     * @return true if the thread is scheduling events, or the end of the file
+     *     has been scheduled but not played yet
+     */
+    public boolean isPlaying() {
+        synchronized (mLock) {
+            return mThread != null && !(mEndOfFile && System.nanoTime() > mLastTime);
+        }
+    }
+
+    /**
+     * Move to a new position. If playing then continue from there.
+     *
+     * @param tick position in the file
+     */
+    public void seek(long tick) throws IOException {
+        synchronized (mLock) {
+            if (mThread == null) {
+                mPositionTick = tick;
+                return;
+            }
+            long now = System.nanoTime();
+            silence(now);
+            prepare(tick, now);
+            mLock.notifyAll(); // feed the new events now
+        }
+    }
+
+    /**
+     * @return current position in ticks
+     */
+    public long getPositionTicks() {
+        synchronized (mLock) {
+            if (mThread == null) {
+                return mPositionTick;
+            }
+            return calculatePosition(System.nanoTime());
+        }
+    }
+
+    /**
+     * Remove the scheduled events and stop the notes that are playing.
+     * If the lock-free queue of the scheduler is full then wait for the
+     * reading thread to make room.
+     *
+     * @return false if the scheduled events could not be removed
+     */
+    boolean silence(long now) {
+        boolean cleared = mScheduler.clear();
+        for (int i = 0; !cleared && i < CLEAR_TIMEOUT_MSEC; i++) {
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            cleared = mScheduler.clear();
+        }
+        if (!cleared) {
+            Log.e(MidiConstants.TAG, "MidiFileSequencer could not clear the scheduler.");
+        }
+        for (int channel = 0; channel < MidiConstants.MAX_CHANNELS; channel++) {
+            sendMessage(MidiConstants.STATUS_CONTROL_CHANGE + channel,
+                    MidiConstants.CONTROLLER_SUSTAIN, 0, now);
+            sendMessage(MidiConstants.STATUS_CONTROL_CHANGE + channel,
+                    MidiConstants.CONTROLLER_ALL_NOTES_OFF, 0, now);
+        }
+        return cleared;
+    }
+
+    /**
+     * Position the reader at the tick and schedule it for the time.
+     * The caller must hold mLock.
+     */
+    void prepare(long tick, long now) throws IOException {
+        resetChannelState();
+        mReader.rewind();
+        mEndOfFile = false;
+        mPending = false;
+        long fileTime = mReader.getTimeAtTick(tick);
+        double nanosPerTick = mReader.getNanosPerTick();
+        while (mReader.next()) {
+            if (mReader.getTick() >= tick) {
+                mPending = true;
+                break;
+            }
+            if (!mReader.isMeta()) {
+                recordChannelState(mReader.getData(), mReader.getLength());
+            }
+            // A tempo change after this event will be at or after the tick.
+            fileTime = mReader.getTimeAtTick(tick);
+            nanosPerTick = mReader.getNanosPerTick();
+        }
+        mEndOfFile = !mPending;
+        mAnchorFileTime = fileTime;
+        mAnchorTime = now;
+        mLastFileTime = fileTime;
+        mLastTime = now;
+        mLastTick = tick;
+        mFileNanosPerTick = nanosPerTick;
+        mSegmentCount = 0;
+        addSegment(now, tick, nanosPerTick / mTempoScale);
+        sendChannelState(now);
+    }
+
+    /**
+     * Schedule the events up to the end of the lookahead window.
+     * The caller must hold mLock.
+     */
+    void feed(long now) throws IOException {
+        long windowEnd = now + mLookaheadNanos;
+        while (!mEndOfFile) {
+            if (!mPending) {
+                if (!mReader.next()) {
+                    mEndOfFile = true;
+                    break;
+                }
+                mPending = true;
+            }
+            long fileTime = mReader.getTime();
+            long time = mAnchorTime + (long) ((fileTime - mAnchorFileTime) / mTempoScale);
+            if (time > windowEnd) {
+                break;
+            }
+            if (mReader.isMeta()) {
+                if (mReader.getMetaType() == MidiFile.META_TEMPO) {
+                    mFileNanosPerTick = mReader.getNanosPerTick();
+                    addSegment(time, mReader.getTick(), mFileNanosPerTick / mTempoScale);
+                }
+            } else {
+                mReceiver.send(mReader.getData(), 0, mReader.getLength(), time);
+            }
+            mLastFileTime = fileTime;
+            mLastTime = time;
+            mLastTick = mReader.getTick();
+            mPending = false;
+        }
+    }
+
+    private void addSegment(long time, long tick, double nanosPerTick) {
+        if (mSegmentCount == MAX_SEGMENTS) {
+            // Keep the most recent segments.
+            System.arraycopy(mSegmentTimes, 1, mSegmentTimes, 0, MAX_SEGMENTS - 1);
+            System.arraycopy(mSegmentTicks, 1, mSegmentTicks, 0, MAX_SEGMENTS - 1);
+            System.arraycopy(mSegmentNanosPerTick, 1, mSegmentNanosPerTick, 0,
+                    MAX_SEGMENTS - 1);
+            mSegmentCount--;
+        }
+        mSegmentTimes[mSegmentCount] = time;
+        mSegmentTicks[mSegmentCount] = tick;
+        mSegmentNanosPerTick[mSegmentCount] = nanosPerTick;
+        mSegmentCount++;
+    }
+
+    // The caller must hold mLock.
+    long calculatePosition(long now) {
+        int index = 0;
+        for (int i = mSegmentCount - 1; i > 0; i--) {
+            if (mSegmentTimes[i] <= now) {
+                index = i;
+                break;
+            }
+        }
+        long elapsed = Math.max(0, now - mSegmentTimes[index]);
+        return mSegmentTicks[index] + (long) (elapsed / mSegmentNanosPerTick[index]);
+    }
+
+    private void resetChannelState() {
+        for (int channel = 0; channel < MidiConstants.MAX_CHANNELS; channel++) {
+            mPrograms[channel] = -1;
+            mBends[channel] = -1;
+            mPressures[channel] = -1;
+            mNrpnSelected[channel] = false;
+            for (int controller = 0; controller < MAX_CONTROLLERS; controller++) {
+                mControllers[channel][controller] = -1;
+            }
+        }
+    }
+
+    private void recordChannelState(byte[] data, int length) {
+        int status = data[0] & 0xFF;
+        if (status >= 0xF0 || length < 2) {
+            return;
+        }
+        int channel = status & 0x0F;
+        switch (status & 0xF0) {
+        case MidiConstants.STATUS_PROGRAM_CHANGE & 0xFF:
+            mPrograms[channel] = data[1];
+            break;
+        case MidiConstants.STATUS_CHANNEL_PRESSURE & 0xFF:
+            mPressures[channel] = data[1];
+            break;
+        case MidiConstants.STATUS_PITCH_BEND & 0xFF:
+            mBends[channel] = (data[2] << 7) | data[1];
+            break;
+        case MidiConstants.STATUS_CONTROL_CHANGE & 0xFF:
+            if (data[1] == MidiConstants.CONTROLLER_RESET_ALL) {
+                resetControllers(channel);
+            } else if (data[1] < FIRST_CHANNEL_MODE) {
+                mControllers[channel][data[1]] = data[2];
+                if (data[1] >= CONTROLLER_NRPN_LSB && data[1] <= CONTROLLER_RPN_MSB) {
+                    mNrpnSelected[channel] = (data[1] <= CONTROLLER_NRPN_MSB);
+                }
+            }
+            break;
+        default:
+            break;
+        }
+    }
+
+    // Record the values set by Reset All Controllers so they are sent after a seek.
+    private void resetControllers(int channel) {
+        for (int controller : RESET_CONTROLLERS) {
+            mControllers[channel][controller] = 0;
+        }
+        mControllers[channel][CONTROLLER_EXPRESSION] = 127;
+        // The selected parameter becomes null so data entry has no effect.
+        mControllers[channel][CONTROLLER_RPN_MSB] = PARAMETER_NULL;
+        mControllers[channel][CONTROLLER_RPN_LSB] = PARAMETER_NULL;
+        mControllers[channel][CONTROLLER_NRPN_MSB] = -1;
+        mControllers[channel][CONTROLLER_NRPN_LSB] = -1;
+        mNrpnSelected[channel] = false;
+        mBends[channel] = BEND_CENTER;
+        mPressures[channel] = 0;
+    }
+
+    /**
+     * Send the state in an order that a synthesizer can apply:
+     * the bank before the program, the selected RPN or NRPN before the
+     * data entry, then the other controllers, pitch bend and pressure.
+     */
+    private void sendChannelState(long now) {
+        for (int channel = 0; channel < MidiConstants.MAX_CHANNELS; channel++) {
+            sendController(channel, CONTROLLER_BANK_SELECT, now);
+            sendController(channel, CONTROLLER_BANK_SELECT_LSB, now);
+            if (mPrograms[channel] >= 0) {
+                sendMessage(MidiConstants.STATUS_PROGRAM_CHANGE + channel,
+                        mPrograms[channel], -1, now);
+            }
+            // The parameter that was selected last is sent last.
+            if (mNrpnSelected[channel]) {
+                sendController(channel, CONTROLLER_RPN_MSB, now);
+                sendController(channel, CONTROLLER_RPN_LSB, now);
+            }
+            sendController(channel, CONTROLLER_NRPN_MSB, now);
+            sendController(channel, CONTROLLER_NRPN_LSB, now);
+            if (!mNrpnSelected[channel]) {
+                sendController(channel, CONTROLLER_RPN_MSB, now);
+                sendController(channel, CONTROLLER_RPN_LSB, now);
+            }
+            sendController(channel, CONTROLLER_DATA_ENTRY, now);
+            sendController(channel, CONTROLLER_DATA_ENTRY_LSB, now);
+            for (int controller = 0; controller < MAX_CONTROLLERS; controller++) {
+                if (!isOrderedController(controller)) {
+                    sendController(channel, controller, now);
+                }
+            }
+            if (mBends[channel] >= 0) {
+                sendMessage(MidiConstants.STATUS_PITCH_BEND + channel,
+                        mBends[channel] & 0x7F, mBends[channel] >> 7, now);
+            }
+            if (mPressures[channel] >= 0) {
+                sendMessage(MidiConstants.STATUS_CHANNEL_PRESSURE + channel,
+                        mPressures[channel], -1, now);
+            }
+        }
+    }
+
+    // Controllers that sendChannelState() sends before the others.
+    private static boolean isOrderedController(int controller) {
+        return controller == CONTROLLER_BANK_SELECT
+                || controller == CONTROLLER_BANK_SELECT_LSB
+                || controller == CONTROLLER_DATA_ENTRY
+                || controller == CONTROLLER_DATA_ENTRY_LSB
+                || (controller >= CONTROLLER_NRPN_LSB && controller <= CONTROLLER_RPN_MSB);
+    }
+
+    private void sendController(int channel, int controller, long now) {
+        int value = mControllers[channel][controller];
+        if (value >= 0) {
+            sendMessage(MidiConstants.STATUS_CONTROL_CHANGE + channel, controller, value, now);
+        }
+    }
+
+    // Send a two or three byte message. data2 is negative for a two byte message.
+    private void sendMessage(int status, int data1, int data2, long time) {
+        mMessage[0] = (byte) status;
+        mMessage[1] = (byte) data1;
+        mMessage[2] = (byte) data2;
+        try {
+            mReceiver.send(mMessage, 0, (data2 < 0) ? 2 : 3, time);
+        } catch (IOException e) {
+            Log.e(MidiConstants.TAG, "MidiFileSequencer could not schedule a message", e);
+        }
+    }
+}
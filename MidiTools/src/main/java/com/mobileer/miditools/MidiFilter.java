@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mobileer.miditools;
+
+/**
+ * Select MIDI messages by their status byte.
+ *
+ * Channel messages are selected by channel and by type, for example
+ * only Note On and Note Off on channels 1 and 10. System messages,
+ * including System Real-Time, are selected individually.
+ * The selection is compiled into a 256 bit set so that accepts()
+ * is a single lookup.
+ *
+ * A new filter accepts everything.
+ */
+public final class MidiFilter {
+    private static final int NUM_TYPES = 7; // 0x80 to 0xE0
+    private static final int ALL_CHANNELS = 0xFFFF;
+    private static final int ALL_TYPES = (1 << NUM_TYPES) - 1;
+    private static final int ALL_SYSTEM = 0xFFFF;
+
+    private int mChannels = ALL_CHANNELS;
+    private int mTypes = ALL_TYPES;
+    private int mSystem = ALL_SYSTEM;
+    // One bit for each status byte.
+    private final long[] mBits = new long[4];
+
+    public MidiFilter() {
+        update();
+    }
+
+    /**
+     * @param other filter to copy
+     */
+    public MidiFilter(MidiFilter other) {
+        mChannels = other.mChannels;
+        mTypes = other.mTypes;
+        mSystem = other.mSystem;
+        update();
+    }
+
+    /**
+     * Accept everything.
+     * @return this filter
+     */
+    public MidiFilter acceptAll() {
+        mChannels = ALL_CHANNELS;
+        mTypes = ALL_TYPES;
+        mSystem = ALL_SYSTEM;
+        update();
+        return this;
+    }
+
+    /**
+     * Accept nothing. Then call the other methods to select messages.
+     * @return this filter
+     */
+    public MidiFilter acceptNone() {
+        mChannels = 0;
+        mTypes = 0;
+        mSystem = 0;
+        update();
+        return this;
+    }
+
+    /**
+     * @param channel 0 to 15
+     * @param accept
+     * @return this filter
+     */
+    public MidiFilter setChannel(int channel, boolean accept) {
+        mChannels = setBit(mChannels, channel, accept);
+        update();
+        return this;
+    }
+
+    /**
+     * @param type channel message type, for example MidiConstants.STATUS_NOTE_ON
+     * @param accept
+     * @return this filter
+     */
+    public MidiFilter setChannelMessage(int type, boolean accept) {
+        int index = ((type & 0xFF) >> 4) - 8;
+        if (index < 0 || index >= NUM_TYPES) {
+            throw new IllegalArgumentException("not a channel message, " + type);
+        }
+        mTypes = setBit(mTypes, index, accept);
+        update();
+        return this;
+    }
+
+    /**
+     * Select a System Common or System Real-Time message.
+     * SysEx continuation data is selected with MidiConstants.STATUS_SYSTEM_EXCLUSIVE.
+     *
+     * @param status between 0xF0 and 0xFF, for example MidiConstants.STATUS_ACTIVE_SENSING
+     * @param accept
+     * @return this filter
+     */
+    public MidiFilter setSystemMessage(int status, boolean accept) {
+        status &= 0xFF;
+        if (status < 0xF0) {
+            throw new IllegalArgumentException("not a system message, " + status);
+        }
+        mSystem = setBit(mSystem, status & 0x0F, accept);
+        update();
+        return this;
+    }
+
+    /**
+     * Select all of the System Real-Time messages from 0xF8 to 0xFF.
+     *
+     * @param accept
+     * @return this filter
+     */
+    public MidiFilter setRealTime(boolean accept) {
+        mSystem = accept ? (mSystem | 0xFF00) : (mSystem & 0x00FF);
+        update();
+        return this;
+    }
+
+    /**
+     * @param status first byte of a message
+     *     A data byte is treated as a continuation of a SysEx.
+     * @return true if the message should be passed on
+     */
+    public boolean accepts(byte status) {
+        int index = status & 0xFF;
+        if (index < 0x80) {
+            index = 0xF0;
+        }
+        return ((mBits[index >> 6] >>> index) & 1) != 0;
+    }
+
+    private static int setBit(int bits, int index, boolean value) {
+        return value ? (bits | (1 << index)) : (bits & ~(1 << index));
+    }
+
+    private void update() {
+        for (int i = 0; i < mBits.length; i++) {
+            mBits[i] = 0;
+        }
+        for (int status = 0x80; status < 0x100; status++) {
+            boolean accept;
+            if (status >= 0xF0) {
+                accept = ((mSystem >> (status & 0x0F)) & 1) != 0;
+            } else {
+                accept = ((mTypes >> ((status >> 4) - 8)) & 1) != 0
+                        && ((mChannels >> (status & 0x0F)) & 1) != 0;
+            }
+            if (accept) {
+                mBits[status >> 6] |= 1L << status;
+            }
+        }
+    }
+}
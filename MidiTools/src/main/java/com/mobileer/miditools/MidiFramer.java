@@ -25,11 +25,48 @@ import java.io.IOException;
  *
  * Parses the incoming bytes and then posts individual messages to the receiver
  * specified in the constructor. Short messages of 1-3 bytes will be complete.
- * System Exclusive messages may be posted in pieces.
+ * By default System Exclusive messages may be posted in pieces.
+ * Call setSysExReassembly() to receive each SysEx as one complete message,
+ * or setSysExStreaming() to receive it in chunks of a fixed size.
  *
  * Resolves Running Status and interleaved System Real-Time messages.
  */
 public class MidiFramer extends MidiReceiver {
+    /**
+     * Receives SysEx messages in chunks when streaming.
+     */
+    public interface SysExListener {
+        /**
+         * The data is owned by the MidiFramer and is only valid during this call.
+         *
+         * @param data the first chunk starts with 0xF0 and the last one ends with 0xF7
+         * @param offset
+         * @param count number of bytes in the chunk, only the last chunk can be short
+         * @param flags SYSEX_CHUNK_START, SYSEX_CHUNK_END and SYSEX_CHUNK_ABORTED
+         * @param timestamp
+         * @throws IOException
+         */
+        void onSysExChunk(byte[] data, int offset, int count, int flags,
+                long timestamp) throws IOException;
+    }
+
+    /** Pass SysEx to the receiver in the pieces that it arrives in. */
+    public static final int SYSEX_MODE_PASS_THROUGH = 0;
+    /** Pass each SysEx to the receiver as one complete message. */
+    public static final int SYSEX_MODE_REASSEMBLE = 1;
+    /** Pass SysEx to a SysExListener in chunks of a fixed size. */
+    public static final int SYSEX_MODE_STREAM = 2;
+
+    /** This is the first chunk of a SysEx message. */
+    public static final int SYSEX_CHUNK_START = 1;
+    /** This is the last chunk of a SysEx message. */
+    public static final int SYSEX_CHUNK_END = 2;
+    /** The SysEx was ended by a status byte other than 0xF7. Set with SYSEX_CHUNK_END. */
+    public static final int SYSEX_CHUNK_ABORTED = 4;
+
+    public static final int DEFAULT_MAX_SYSEX_SIZE = 64 * 1024;
+    private static final int INITIAL_SYSEX_CAPACITY = 256;
+
     private MidiReceiver mReceiver;
     private byte[] mBuffer = new byte[3];
     private int mCount;
@@ -37,22 +74,114 @@ public class MidiFramer extends MidiReceiver {
     private int mNeeded;
     private boolean mInSysEx;
 
+    // Used when reassembling or streaming SysEx.
+    private int mSysExMode = SYSEX_MODE_PASS_THROUGH;
+    private SysExListener mSysExListener;
+    private byte[] mSysExBuffer;
+    private int mSysExCount;
+    private int mMaxSysExSize = DEFAULT_MAX_SYSEX_SIZE;
+    private boolean mSysExStarted;
+    private boolean mSysExDropping;
+    private long mSysExTimestamp;
+    private int mDroppedSysExCount;
+
     public MidiFramer(MidiReceiver receiver) {
         mReceiver = receiver;
     }
 
+    /**
+     * Pass SysEx data to the receiver in the pieces that it arrives in.
+     * This is the default.
+     */
+    public void setSysExPassThrough() {
+        setSysExMode(SYSEX_MODE_PASS_THROUGH);
+        mSysExListener = null;
+        mSysExBuffer = null;
+    }
+
+    /**
+     * Collect each SysEx message and pass it to the receiver when it is complete.
+     * A message that is larger than maxSize is dropped.
+     * The buffer starts small and grows as needed. It is reused.
+     *
+     * @param maxSize largest SysEx message in bytes, including 0xF0 and 0xF7
+     */
+    public void setSysExReassembly(int maxSize) {
+        if (maxSize < 2) {
+            throw new IllegalArgumentException("maxSize too small, " + maxSize);
+        }
+        setSysExMode(SYSEX_MODE_REASSEMBLE);
+        mSysExListener = null;
+        mMaxSysExSize = maxSize;
+        mSysExBuffer = new byte[Math.min(INITIAL_SYSEX_CAPACITY, maxSize)];
+    }
+
+    /**
+     * Pass SysEx data to the listener in chunks of chunkSize bytes instead of to
+     * the receiver. A full chunk is passed on when the next byte arrives so that
+     * the last chunk is never empty.
+     *
+     * @param listener
+     * @param chunkSize
+     */
+    public void setSysExStreaming(SysExListener listener, int chunkSize) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("chunkSize too small, " + chunkSize);
+        }
+        setSysExMode(SYSEX_MODE_STREAM);
+        mSysExListener = listener;
+        mSysExBuffer = new byte[chunkSize];
+    }
+
+    private void setSysExMode(int mode) {
+        mSysExMode = mode;
+        mSysExCount = 0;
+        mSysExStarted = false;
+        mSysExDropping = false;
+    }
+
+    /**
+     * @return SYSEX_MODE_PASS_THROUGH, SYSEX_MODE_REASSEMBLE or SYSEX_MODE_STREAM
+     */
+    public int getSysExMode() {
+        return mSysExMode;
+    }
+
+    /**
+     * @return number of SysEx messages dropped because they were too large or were aborted
+     */
+    public int getDroppedSysExCount() {
+        return mDroppedSysExCount;
+    }
+
     /*
      * @see android.midi.MidiReceiver#onSend(byte[], int, int, long)
      */
     @Override
     public void onSend(byte[] data, int offset, int count, long timestamp)
             throws IOException {
+        parse(data, offset, count, timestamp);
+    }
+
+    /**
+     * Parse the bytes one at a time and send the messages to mReceiver.
+     */
+    private void parse(byte[] data, int offset, int count, long timestamp)
+            throws IOException {
         int sysExStartOffset = (mInSysEx ? offset : -1);
 
         for (int i = 0; i < count; i++) {
             final byte currentByte = data[offset];
             final int currentInt = currentByte & 0xFF;
             if (currentInt >= 0x80) { // status byte?
+                if (mInSysEx && currentInt < 0xF7 && mSysExMode != SYSEX_MODE_PASS_THROUGH) {
+                    // Unterminated SysEx.
+                    sendSysEx(data, sysExStartOffset, offset - sysExStartOffset,
+                            timestamp, false);
+                    abortSysEx(timestamp);
+                    mInSysEx = false;
+                    sysExStartOffset = -1;
+                }
                 if (currentInt < 0xF0) { // channel message?
                     mRunningStatus = currentByte;
                     mCount = 1;
@@ -65,8 +194,8 @@ public class MidiFramer extends MidiReceiver {
                     } else if (currentInt == 0xF7 /* SysEx End */) {
                         // Log.i(TAG, "SysEx End");
                         if (mInSysEx) {
-                            mReceiver.send(data, sysExStartOffset,
-                                offset - sysExStartOffset + 1, timestamp);
+                            sendSysEx(data, sysExStartOffset,
+                                offset - sysExStartOffset + 1, timestamp, true);
                             mInSysEx = false;
                             sysExStartOffset = -1;
                         }
@@ -79,8 +208,8 @@ public class MidiFramer extends MidiReceiver {
                 } else { // real-time?
                     // Single byte message interleaved with other data.
                     if (mInSysEx) {
-                        mReceiver.send(data, sysExStartOffset,
-                                offset - sysExStartOffset, timestamp);
+                        sendSysEx(data, sysExStartOffset,
+                                offset - sysExStartOffset, timestamp, false);
                         sysExStartOffset = offset + 1;
                     }
                     mReceiver.send(data, offset, 1, timestamp);
@@ -103,9 +232,103 @@ public class MidiFramer extends MidiReceiver {
 
         // send any accumulatedSysEx data
         if (sysExStartOffset >= 0 && sysExStartOffset < offset) {
-            mReceiver.send(data, sysExStartOffset,
-                    offset - sysExStartOffset, timestamp);
+            sendSysEx(data, sysExStartOffset,
+                    offset - sysExStartOffset, timestamp, false);
+        }
+    }
+
+    /**
+     * Handle a piece of a SysEx message according to the SysEx mode.
+     *
+     * @param end true if the piece ends with 0xF7
+     */
+    private void sendSysEx(byte[] data, int offset, int count, long timestamp,
+            boolean end) throws IOException {
+        switch (mSysExMode) {
+        case SYSEX_MODE_REASSEMBLE:
+            appendSysEx(data, offset, count, timestamp, end);
+            break;
+        case SYSEX_MODE_STREAM:
+            streamSysEx(data, offset, count, timestamp, end);
+            break;
+        default:
+            mReceiver.send(data, offset, count, timestamp);
+            break;
+        }
+    }
+
+    private void appendSysEx(byte[] data, int offset, int count, long timestamp,
+            boolean end) throws IOException {
+        if (!mSysExDropping) {
+            int needed = mSysExCount + count;
+            if (needed > mMaxSysExSize) {
+                mDroppedSysExCount++;
+                mSysExCount = 0;
+                mSysExDropping = true;
+            } else {
+                if (needed > mSysExBuffer.length) {
+                    int capacity = Math.min(mMaxSysExSize,
+                            Math.max(needed, 2 * mSysExBuffer.length));
+                    byte[] buffer = new byte[capacity];
+                    System.arraycopy(mSysExBuffer, 0, buffer, 0, mSysExCount);
+                    mSysExBuffer = buffer;
+                }
+                if (mSysExCount == 0) {
+                    // Use the time of the 0xF0.
+                    mSysExTimestamp = timestamp;
+                }
+                System.arraycopy(data, offset, mSysExBuffer, mSysExCount, count);
+                mSysExCount = needed;
+            }
+        }
+        if (end) {
+            if (!mSysExDropping) {
+                mReceiver.send(mSysExBuffer, 0, mSysExCount, mSysExTimestamp);
+            }
+            mSysExCount = 0;
+            mSysExDropping = false;
+        }
+    }
+
+    private void streamSysEx(byte[] data, int offset, int count, long timestamp,
+            boolean end) throws IOException {
+        final int chunkSize = mSysExBuffer.length;
+        while (count > 0) {
+            if (mSysExCount == chunkSize) {
+                sendSysExChunk(0, timestamp);
+            }
+            int numBytes = Math.min(count, chunkSize - mSysExCount);
+            System.arraycopy(data, offset, mSysExBuffer, mSysExCount, numBytes);
+            mSysExCount += numBytes;
+            offset += numBytes;
+            count -= numBytes;
+        }
+        if (end) {
+            sendSysExChunk(SYSEX_CHUNK_END, timestamp);
+        }
+    }
+
+    private void sendSysExChunk(int flags, long timestamp) throws IOException {
+        if (!mSysExStarted) {
+            flags |= SYSEX_CHUNK_START;
+        }
+        mSysExListener.onSysExChunk(mSysExBuffer, 0, mSysExCount, flags, timestamp);
+        mSysExCount = 0;
+        mSysExStarted = (flags & SYSEX_CHUNK_END) == 0;
+    }
+
+    // Called when a SysEx is ended by a status byte other than 0xF7.
+    private void abortSysEx(long timestamp) throws IOException {
+        if (mSysExMode == SYSEX_MODE_STREAM) {
+            sendSysExChunk(SYSEX_CHUNK_END | SYSEX_CHUNK_ABORTED, timestamp);
+            mDroppedSysExCount++;
+        } else {
+            if (!mSysExDropping) {
+                mDroppedSysExCount++;
+            }
+            mSysExCount = 0;
         }
+        mSysExDropping = false;
     }
 
 }
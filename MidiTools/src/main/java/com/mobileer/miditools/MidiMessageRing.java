@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mobileer.miditools;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded FIFO of MIDI messages stored in a byte array. It does not use locks.
+ *
+ * Each message is stored with its timestamp and the time it was written.
+ * Only one Thread can write into the buffer.
+ * And only one Thread can read from the buffer.
+ * Neither thread will block or allocate memory.
+ */
+public class MidiMessageRing {
+    // count, timestamp and time written
+    private static final int HEADER_SIZE = 4 + 8 + 8;
+
+    private final byte[] mBuffer;
+    private final int mMask;
+    // Only written by the writing thread.
+    // This uses set() instead of lazySet() so that a reader that is going
+    // to sleep can be woken up reliably.
+    private final AtomicLong mWriteIndex = new AtomicLong();
+    // Only written by the reading thread.
+    private final AtomicLong mReadIndex = new AtomicLong();
+
+    // Set by read().
+    private long mTimestamp;
+    private long mWriteTime;
+
+    /**
+     * @param capacity in bytes, will be rounded up to a power of two
+     */
+    public MidiMessageRing(int capacity) {
+        if (capacity <= HEADER_SIZE) {
+            throw new IllegalArgumentException("capacity too small, " + capacity);
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        mBuffer = new byte[size];
+        mMask = size - 1;
+    }
+
+    /**
+     * @return size of the buffer in bytes
+     */
+    public int getCapacity() {
+        return mBuffer.length;
+    }
+
+    /**
+     * @return largest message that can be written
+     */
+    public int getMaxMessageSize() {
+        return mBuffer.length - HEADER_SIZE;
+    }
+
+    public boolean isEmpty() {
+        return mReadIndex.get() >= mWriteIndex.get();
+    }
+
+    /**
+     * Add a message to the end of the buffer. Only call this from the writing thread.
+     *
+     * @param data
+     * @param offset
+     * @param count number of bytes, may be zero
+     * @param timestamp
+     * @param writeTime for measuring latency, from System.nanoTime()
+     * @return false if there was not enough room and the message was not added
+     */
+    public boolean write(byte[] data, int offset, int count, long timestamp,
+            long writeTime) {
+        long writeIndex = mWriteIndex.get();
+        int needed = HEADER_SIZE + count;
+        if ((writeIndex - mReadIndex.get()) + needed > mBuffer.length) {
+            return false;
+        }
+        int index = (int) writeIndex;
+        putInt(index, count);
+        putLong(index + 4, timestamp);
+        putLong(index + 12, writeTime);
+        copyIn(index + HEADER_SIZE, data, offset, count);
+        // Publish the message to the reader.
+        mWriteIndex.set(writeIndex + needed);
+        return true;
+    }
+
+    /**
+     * Remove the oldest message. Only call this from the reading thread.
+     * The timestamp and write time can then be read using getTimestamp()
+     * and getWriteTime().
+     *
+     * @param buffer must be at least getMaxMessageSize() bytes
+     * @return number of bytes in the message or -1 if the ring is empty
+     */
+    public int read(byte[] buffer) {
+        long readIndex = mReadIndex.get();
+        if (readIndex >= mWriteIndex.get()) {
+            return -1;
+        }
+        int index = (int) readIndex;
+        int count = getInt(index);
+        mTimestamp = getLong(index + 4);
+        mWriteTime = getLong(index + 12);
+        copyOut(index + HEADER_SIZE, buffer, count);
+        mReadIndex.lazySet(readIndex + HEADER_SIZE + count);
+        return count;
+    }
+
+    /**
+     * @return timestamp of the last message read
+     */
+    public long getTimestamp() {
+        return mTimestamp;
+    }
+
+    /**
+     * @return write time of the last message read
+     */
+    public long getWriteTime() {
+        return mWriteTime;
+    }
+
+    private void copyIn(int index, byte[] data, int offset, int count) {
+        int start = index & mMask;
+        int first = Math.min(count, mBuffer.length - start);
+        System.arraycopy(data, offset, mBuffer, start, first);
+        System.arraycopy(data, offset + first, mBuffer, 0, count - first);
+    }
+
+    private void copyOut(int index, byte[] buffer, int count) {
+        int start = index & mMask;
+        int first = Math.min(count, mBuffer.length - start);
+        System.arraycopy(mBuffer, start, buffer, 0, first);
+        System.arraycopy(mBuffer, 0, buffer, first, count - first);
+    }
+
+    private void putInt(int index, int value) {
+        for (int i = 0; i < 4; i++) {
+            mBuffer[(index + i) & mMask] = (byte) (value >> (i * 8));
+        }
+    }
+
+    private void putLong(int index, long value) {
+        for (int i = 0; i < 8; i++) {
+            mBuffer[(index + i) & mMask] = (byte) (value >> (i * 8));
+        }
+    }
+
+    private int getInt(int index) {
+        int value = 0;
+        for (int i = 0; i < 4; i++) {
+            value |= (mBuffer[(index + i) & mMask] & 0xFF) << (i * 8);
+        }
+        return value;
+    }
+
+    private long getLong(int index) {
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value |= (mBuffer[(index + i) & mMask] & 0xFFL) << (i * 8);
+        }
+        return value;
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mobileer.miditools;
+
+/**
+ * Index for a ring of records that is written by one thread and read by others.
+ *
+ * The records are stored by the owner in arrays of the same capacity.
+ * The writer stores a record at getWriteIndex() and then calls publish().
+ * It never waits for the readers, so it can overwrite a record while it is
+ * being copied. A reader copies the records it wants and then calls
+ * countOverwritten() to find out how many of them it must discard.
+ */
+public class RingIndex {
+    private final int mCapacity;
+    private volatile long mCount;
+    // Written by readers so that their copies are done before the count is checked.
+    private volatile int mReadFence;
+
+    /**
+     * @param capacity number of records in the arrays
+     */
+    public RingIndex(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive, " + capacity);
+        }
+        mCapacity = capacity;
+    }
+
+    public int getCapacity() {
+        return mCapacity;
+    }
+
+    /**
+     * @return total number of records published since reset()
+     */
+    public long getCount() {
+        return mCount;
+    }
+
+    /**
+     * Forget all the records. Only call this when nothing is being written.
+     */
+    public void reset() {
+        mCount = 0;
+    }
+
+    /**
+     * Only call this from the writing thread.
+     *
+     * @return array index for the next record
+     */
+    public int getWriteIndex() {
+        return (int) (mCount % mCapacity);
+    }
+
+    /**
+     * Make the record at getWriteIndex() visible to the readers.
+     * Only call this from the writing thread.
+     */
+    public void publish() {
+        mCount = mCount + 1;
+    }
+
+    /**
+     * @param record number of a record, counting from zero since reset()
+     * @return array index of the record
+     */
+    public int getIndex(long record) {
+        return (int) (record % mCapacity);
+    }
+
+    /**
+     * Call this after copying records, starting with record number first.
+     * The writer may be storing the record after the last one published, so that
+     * one is also treated as overwritten.
+     *
+     * @param first number of the oldest record that was copied
+     * @param numCopied number of records copied
+     * @return number of the oldest copied records that may have been overwritten
+     */
+    public int countOverwritten(long first, int numCopied) {
+        mReadFence = 0; // The copies happen before the count is read again.
+        long firstValid = mCount + 1 - mCapacity;
+        return (int) Math.max(0, Math.min(numCopied, firstValid - first));
+    }
+}
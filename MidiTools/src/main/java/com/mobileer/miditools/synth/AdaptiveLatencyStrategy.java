@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mobileer.miditools.synth;
+
+/**
+ * Choose a buffer size from the underrun count once per period.
+ * This has no Android dependencies so it can be tested on its own.
+ *
+ * At first the size is lowered by one block every period until there is
+ * an underrun. After that:
+ * <ul>
+ * <li>The size is raised by one block after every period with underruns.</li>
+ * <li>The size is only lowered by one block, as a probe, when there have been
+ *     no underruns in the window and the size has been stable for the probe wait.</li>
+ * <li>If a probe causes underruns within the window then the probe wait is doubled.
+ *     If a probe holds for the window then the probe wait is halved.
+ *     Underruns after that are not blamed on the probe.</li>
+ * </ul>
+ * So the size settles at the lowest stable value and probes below it less and
+ * less often. If the load drops then the probes start succeeding and the size
+ * comes back down.
+ */
+public class AdaptiveLatencyStrategy {
+    /** Number of periods in the sliding window of underruns. */
+    public static final int WINDOW_PERIODS = 8;
+    public static final int MIN_PROBE_WAIT_PERIODS = WINDOW_PERIODS;
+    public static final int MAX_PROBE_WAIT_PERIODS = 256;
+
+    private final int mFramesPerBlock;
+    private final int[] mWindow = new int[WINDOW_PERIODS];
+    private int mWindowIndex;
+    private int mWindowSum;
+    private boolean mFirstPeriod = true;
+    private int mPreviousUnderrunCount;
+    private boolean mConverged;
+    private boolean mProbing;
+    private int mStablePeriods;
+    private int mProbeWaitPeriods = MIN_PROBE_WAIT_PERIODS;
+
+    /**
+     * @param framesPerBlock the size is changed by this many frames at a time
+     */
+    public AdaptiveLatencyStrategy(int framesPerBlock) {
+        mFramesPerBlock = framesPerBlock;
+    }
+
+    public void reset() {
+        for (int i = 0; i < mWindow.length; i++) {
+            mWindow[i] = 0;
+        }
+        mWindowIndex = 0;
+        mWindowSum = 0;
+        mFirstPeriod = true;
+        mConverged = false;
+        mProbing = false;
+        mStablePeriods = 0;
+        mProbeWaitPeriods = MIN_PROBE_WAIT_PERIODS;
+    }
+
+    /**
+     * Call this at the end of each period.
+     *
+     * @param underrunCount total number of underruns
+     * @param bufferSize current buffer size in frames
+     * @return requested buffer size in frames
+     */
+    public int onPeriod(int underrunCount, int bufferSize) {
+        if (mFirstPeriod) {
+            mPreviousUnderrunCount = underrunCount;
+            mFirstPeriod = false;
+        }
+        int underruns = underrunCount - mPreviousUnderrunCount;
+        mPreviousUnderrunCount = underrunCount;
+        mWindowSum += underruns - mWindow[mWindowIndex];
+        mWindow[mWindowIndex] = underruns;
+        mWindowIndex = (mWindowIndex + 1) % mWindow.length;
+
+        if (underruns > 0) {
+            if (mProbing) {
+                // The probe failed so wait longer before the next one.
+                mProbeWaitPeriods = Math.min(MAX_PROBE_WAIT_PERIODS, mProbeWaitPeriods * 2);
+            }
+            mConverged = true;
+            mProbing = false;
+            mStablePeriods = 0;
+            return bufferSize + mFramesPerBlock;
+        }
+
+        mStablePeriods++;
+        if (mProbing && mStablePeriods >= WINDOW_PERIODS) {
+            // The probe held so the next one can come sooner.
+            mProbeWaitPeriods = Math.max(MIN_PROBE_WAIT_PERIODS, mProbeWaitPeriods / 2);
+            mProbing = false;
+        }
+        int lower = bufferSize - mFramesPerBlock;
+        if (lower < mFramesPerBlock) {
+            return bufferSize;
+        }
+        if (!mConverged) {
+            return lower;
+        }
+        if (mWindowSum == 0 && mStablePeriods >= mProbeWaitPeriods) {
+            mProbing = true;
+            mStablePeriods = 0;
+            return lower;
+        }
+        return bufferSize;
+    }
+
+    /**
+     * @return number of underruns in the last WINDOW_PERIODS periods
+     */
+    public int getWindowUnderruns() {
+        return mWindowSum;
+    }
+
+    /**
+     * @return number of stable periods required before lowering the size
+     */
+    public int getProbeWaitPeriods() {
+        return mProbeWaitPeriods;
+    }
+
+    /**
+     * @return true after the first underrun
+     */
+    public boolean isConverged() {
+        return mConverged;
+    }
+}
@@ -20,7 +20,6 @@ import android.annotation.TargetApi;
 import android.media.AudioAttributes;
 import android.media.AudioTrack;
 import android.os.Build;
-import android.util.Log;
 
 import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
@@ -34,6 +33,12 @@ import java.lang.reflect.Method;
  * Lower the latency until there are glitches.
  * Then raise the latency until the glitches stop.
  *
+ * With STRATEGY_ADAPTIVE, the default, the underruns are checked a few times
+ * per second and the size is lowered again after it has been stable for a while.
+ * See AdaptiveLatencyStrategy. STRATEGY_RAISE_ONLY never lowers the size again.
+ *
+ * Each check is recorded in a LatencyHistory.
+ *
  * <p/>
  * This feature was added in N. So we check for support based on the SDK version.
  */
@@ -42,6 +47,15 @@ public class AudioLatencyTuner {
     private static final int STATE_PRIMING = 0;
     private static final int STATE_LOWERING = 1;
     private static final int STATE_RAISING = 2;
+    private static final int STATE_ADAPTING = 3;
+
+    /** Lower the size until the first underrun and then only raise it. */
+    public static final int STRATEGY_RAISE_ONLY = 0;
+    /** Keep probing for a lower size. See AdaptiveLatencyStrategy. */
+    public static final int STRATEGY_ADAPTIVE = 1;
+
+    private static final int PERIODS_PER_SECOND = 4;
+    private static final int HISTORY_CAPACITY = 512;
 
     private static boolean mLowLatencySupported = Build.VERSION.SDK_INT >= Build.VERSION_CODES.N;
 
@@ -51,6 +65,11 @@ public class AudioLatencyTuner {
 
     private int mState = STATE_PRIMING;
     private int mPreviousUnderrunCount;
+    private int mStrategy = STRATEGY_ADAPTIVE;
+    private final AdaptiveLatencyStrategy mAdaptiveStrategy;
+    private final LatencyHistory mHistory = new LatencyHistory(HISTORY_CAPACITY);
+    private final int mFramesPerPeriod;
+    private int mPeriodStartPosition;
 
     /**
      * An application can determine the optimal framesPerBlock as follows:
@@ -66,9 +85,30 @@ public class AudioLatencyTuner {
         mAudioTrack = track;
         mInitialSize = track.getBufferSizeInFrames();
         mFramesPerBlock = framesPerBlock;
+        mFramesPerPeriod = track.getSampleRate() / PERIODS_PER_SECOND;
+        mAdaptiveStrategy = new AdaptiveLatencyStrategy(framesPerBlock);
         reset();
     }
 
+    /**
+     * @param strategy STRATEGY_ADAPTIVE or STRATEGY_RAISE_ONLY
+     */
+    public void setStrategy(int strategy) {
+        mStrategy = strategy;
+        reset();
+    }
+
+    public int getStrategy() {
+        return mStrategy;
+    }
+
+    /**
+     * @return buffer size and underrun count recorded at each check
+     */
+    public LatencyHistory getHistory() {
+        return mHistory;
+    }
+
     /**
      * This only works on N or later versions of Android.
      * @return number of times the audio buffer underflowed and glitched.
@@ -142,6 +182,7 @@ public class AudioLatencyTuner {
      */
     public void reset() {
         mState = STATE_PRIMING;
+        mAdaptiveStrategy.reset();
         setBufferSizeInFrames(mInitialSize);
     }
 
@@ -159,11 +200,17 @@ public class AudioLatencyTuner {
         int underrunCount;
         switch (mState) {
             case STATE_PRIMING:
-                if (mAudioTrack.getPlaybackHeadPosition() > (8 * mFramesPerBlock)) {
-                    nextState = STATE_LOWERING;
+                int position = mAudioTrack.getPlaybackHeadPosition();
+                if (position > (8 * mFramesPerBlock)) {
+                    nextState = (mStrategy == STRATEGY_ADAPTIVE)
+                            ? STATE_ADAPTING : STATE_LOWERING;
                     mPreviousUnderrunCount = getUnderrunCount();
+                    mPeriodStartPosition = position;
                 }
                 break;
+            case STATE_ADAPTING:
+                updateAdaptive();
+                break;
             case STATE_LOWERING:
                 underrunCount = getUnderrunCount();
                 if (underrunCount > mPreviousUnderrunCount) {
@@ -187,6 +234,22 @@ public class AudioLatencyTuner {
         mState = nextState;
     }
 
+    private void updateAdaptive() {
+        int position = mAudioTrack.getPlaybackHeadPosition();
+        // The position is unsigned and can wrap around.
+        if (position - mPeriodStartPosition < mFramesPerPeriod) {
+            return;
+        }
+        mPeriodStartPosition = position;
+        int underrunCount = getUnderrunCount();
+        int size = getBufferSizeInFrames();
+        int target = mAdaptiveStrategy.onPeriod(underrunCount, size);
+        if (target != size) {
+            size = setBufferSizeInFrames(target);
+        }
+        mHistory.add(System.nanoTime(), size, underrunCount);
+    }
+
     /**
      * Raise or lower the buffer size in blocks.
      * @return true if the size did not change
@@ -197,7 +260,8 @@ public class AudioLatencyTuner {
         numBlocks += deltaBlocks;
         int target = numBlocks * mFramesPerBlock;
         int actual = setBufferSizeInFrames(target);
-        Log.i(TAG, "Buffer size changed from " + original + " to " + actual);
+        // Record the change instead of logging from the audio thread.
+        mHistory.add(System.nanoTime(), actual, getUnderrunCount());
         return actual == original;
     }
 
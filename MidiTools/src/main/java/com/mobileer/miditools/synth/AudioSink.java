@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mobileer.miditools.synth;
+
+/**
+ * Destination for the stereo float audio rendered by the SynthEngine.
+ *
+ * The sink also provides the clock for the engine. MIDI events are rendered
+ * when getCurrentTime() reaches their timestamp, so a sink that does not
+ * play in real time can render faster than real time.
+ */
+public interface AudioSink {
+    /** Returned by getFramePresentationTime() when the time is not known. */
+    long TIME_UNKNOWN = Long.MIN_VALUE;
+
+    /**
+     * Prepare for writing. getFrameRate() is valid after this returns.
+     *
+     * @param framesPerBlock number of frames in each write
+     */
+    void start(int framesPerBlock);
+
+    /**
+     * Write interleaved stereo samples.
+     *
+     * @return number of samples written
+     */
+    int write(float[] buffer, int offset, int length);
+
+    void stop();
+
+    int getFrameRate();
+
+    /**
+     * @return number of frames written since start()
+     */
+    long getFramesWritten();
+
+    /**
+     * @param framePosition frame index since start(), for example getFramesWritten()
+     * @return time in getCurrentTime() units when the frame will be heard, or TIME_UNKNOWN
+     */
+    long getFramePresentationTime(long framePosition);
+
+    /**
+     * @return current time in nanoseconds, in the same time base as the MIDI timestamps
+     */
+    long getCurrentTime();
+
+    /**
+     * @return latency control, or null if the sink has no latency to control
+     */
+    LatencyController getLatencyController();
+
+    /**
+     * @return telemetry for the engine to fill in, or null
+     */
+    RenderTelemetry getRenderTelemetry();
+}
@@ -17,11 +17,19 @@
 package com.mobileer.miditools.synth;
 
 /**
- * Very simple Attack, Decay, Sustain, Release envelope with linear ramps.
+ * Very simple Attack, Decay, Sustain, Release envelope.
+ *
+ * The segments can be linear ramps or exponential curves like the charging
+ * and discharging of a capacitor. Both are calculated with the same
+ * recurrence, current = base + (current * coefficient), using coefficients
+ * that are only calculated when a parameter changes.
  *
  * Times are in seconds.
  */
 public class EnvelopeADSR extends SynthUnit {
+    public static final int MODE_LINEAR = 0;
+    public static final int MODE_EXPONENTIAL = 1;
+
     private static final int IDLE = 0;
     private static final int ATTACK = 1;
     private static final int DECAY = 2;
@@ -29,14 +37,26 @@ public class EnvelopeADSR extends SynthUnit {
     private static final int RELEASE = 4;
     private static final int FINISHED = 5;
     private static final float MIN_TIME = 0.001f;
+    // Exponential segments aim past their end level by this amount so that they finish.
+    private static final double ATTACK_TARGET_RATIO = 0.3;
+    private static final double DECAY_TARGET_RATIO = 0.0001;
 
-    private float mAttackRate;
-    private float mRreleaseRate;
+    private int mMode = MODE_LINEAR;
+    private float mAttackTime;
+    private float mDecayTime;
+    private float mReleaseTime;
     private float mSustainLevel;
-    private float mDecayRate;
+    private float mAttackCoefficient;
+    private float mAttackBase;
+    private float mDecayCoefficient;
+    private float mDecayBase;
+    private float mReleaseCoefficient;
+    private float mReleaseBase;
     private float mCurrent;
     private int mSstate = IDLE;
     private int mSamplerate;
+    // Frame in the last block where the envelope finished, or -1.
+    private int mFinishIndex = -1;
 
     public EnvelopeADSR( int sampleRate) {
         mSamplerate = sampleRate;
@@ -46,30 +66,71 @@ public class EnvelopeADSR extends SynthUnit {
         setReleaseTime(1.0f);
     }
 
+    /**
+     * @param mode MODE_LINEAR or MODE_EXPONENTIAL
+     */
+    public void setMode(int mode) {
+        mMode = mode;
+        updateCoefficients();
+    }
 
+    public int getMode() {
+        return mMode;
+    }
 
     public void setAttackTime(float time) {
         if (time < MIN_TIME)
             time = MIN_TIME;
-        mAttackRate = 1.0f / (mSamplerate * time);
+        mAttackTime = time;
+        updateCoefficients();
     }
 
     public void setDecayTime(float time) {
         if (time < MIN_TIME)
             time = MIN_TIME;
-        mDecayRate = 1.0f / (mSamplerate * time);
+        mDecayTime = time;
+        updateCoefficients();
     }
 
     public void setSustainLevel(float level) {
         if (level < 0.0f)
             level = 0.0f;
         mSustainLevel = level;
+        updateCoefficients();
     }
 
     public void setReleaseTime(float time) {
         if (time < MIN_TIME)
             time = MIN_TIME;
-        mRreleaseRate = 1.0f / (mSamplerate * time);
+        mReleaseTime = time;
+        updateCoefficients();
+    }
+
+    private void updateCoefficients() {
+        float attackFrames = mSamplerate * mAttackTime;
+        float decayFrames = mSamplerate * mDecayTime;
+        float releaseFrames = mSamplerate * mReleaseTime;
+        if (mMode == MODE_EXPONENTIAL) {
+            mAttackCoefficient = calculateCoefficient(attackFrames, ATTACK_TARGET_RATIO);
+            mAttackBase = (float) ((1.0 + ATTACK_TARGET_RATIO) * (1.0 - mAttackCoefficient));
+            mDecayCoefficient = calculateCoefficient(decayFrames, DECAY_TARGET_RATIO);
+            mDecayBase = (float) ((mSustainLevel - DECAY_TARGET_RATIO)
+                    * (1.0 - mDecayCoefficient));
+            mReleaseCoefficient = calculateCoefficient(releaseFrames, DECAY_TARGET_RATIO);
+            mReleaseBase = (float) (-DECAY_TARGET_RATIO * (1.0 - mReleaseCoefficient));
+        } else {
+            mAttackCoefficient = 1.0f;
+            mAttackBase = 1.0f / attackFrames;
+            mDecayCoefficient = 1.0f;
+            mDecayBase = -1.0f / decayFrames;
+            mReleaseCoefficient = 1.0f;
+            mReleaseBase = -1.0f / releaseFrames;
+        }
+    }
+
+    // Coefficient for a curve that covers a range of one in the given number of frames.
+    private static float calculateCoefficient(float frames, double targetRatio) {
+        return (float) Math.exp(-Math.log((1.0 + targetRatio) / targetRatio) / frames);
     }
 
     public void on() {
@@ -80,25 +141,33 @@ public class EnvelopeADSR extends SynthUnit {
         mSstate = RELEASE;
     }
 
+    /**
+     * Finish immediately without a release.
+     */
+    public void stop() {
+        mCurrent = 0.0f;
+        mSstate = FINISHED;
+    }
+
     @Override
     public float render() {
         switch (mSstate) {
         case ATTACK:
-            mCurrent += mAttackRate;
+            mCurrent = mAttackBase + (mCurrent * mAttackCoefficient);
             if (mCurrent > 1.0f) {
                 mCurrent = 1.0f;
                 mSstate = DECAY;
             }
             break;
         case DECAY:
-            mCurrent -= mDecayRate;
+            mCurrent = mDecayBase + (mCurrent * mDecayCoefficient);
             if (mCurrent < mSustainLevel) {
                 mCurrent = mSustainLevel;
                 mSstate = SUSTAIN;
             }
             break;
         case RELEASE:
-            mCurrent -= mRreleaseRate;
+            mCurrent = mReleaseBase + (mCurrent * mReleaseCoefficient);
             if (mCurrent < 0.0f) {
                 mCurrent = 0.0f;
                 mSstate = FINISHED;
@@ -108,6 +177,92 @@ public class EnvelopeADSR extends SynthUnit {
         return mCurrent;
     }
 
+    /**
+     * Render a block of the envelope.
+     * The state is only checked when a segment ends instead of every frame.
+     * Use getFinishIndex() to find out where the envelope finished.
+     */
+    @Override
+    public void render(float[] output, int offset, int numFrames) {
+        int i = offset;
+        int end = offset + numFrames;
+        float current = mCurrent;
+        mFinishIndex = (mSstate == FINISHED) ? 0 : -1;
+        while (i < end) {
+            switch (mSstate) {
+            case ATTACK: {
+                float base = mAttackBase;
+                float coefficient = mAttackCoefficient;
+                while (i < end) {
+                    current = base + (current * coefficient);
+                    if (current > 1.0f) {
+                        current = 1.0f;
+                        mSstate = DECAY;
+                        output[i++] = current;
+                        break;
+                    }
+                    output[i++] = current;
+                }
+                break;
+            }
+            case DECAY: {
+                float base = mDecayBase;
+                float coefficient = mDecayCoefficient;
+                float sustainLevel = mSustainLevel;
+                while (i < end) {
+                    current = base + (current * coefficient);
+                    if (current < sustainLevel) {
+                        current = sustainLevel;
+                        mSstate = SUSTAIN;
+                        output[i++] = current;
+                        break;
+                    }
+                    output[i++] = current;
+                }
+                break;
+            }
+            case RELEASE: {
+                float base = mReleaseBase;
+                float coefficient = mReleaseCoefficient;
+                while (i < end) {
+                    current = base + (current * coefficient);
+                    if (current < 0.0f) {
+                        current = 0.0f;
+                        mSstate = FINISHED;
+                        mFinishIndex = i - offset;
+                        output[i++] = current;
+                        break;
+                    }
+                    output[i++] = current;
+                }
+                break;
+            }
+            default:
+                // The envelope is constant in the other states.
+                while (i < end) {
+                    output[i++] = current;
+                }
+                break;
+            }
+        }
+        mCurrent = current;
+    }
+
+    /**
+     * @return index, relative to the offset, of the first frame of the last block
+     *     that was zero because the envelope finished, or -1 if it did not finish
+     */
+    public int getFinishIndex() {
+        return mFinishIndex;
+    }
+
+    /**
+     * @return most recent output of the envelope
+     */
+    public float getLevel() {
+        return mCurrent;
+    }
+
     public boolean isDone() {
         return mSstate == FINISHED;
     }
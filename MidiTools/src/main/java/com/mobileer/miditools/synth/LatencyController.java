@@ -75,4 +75,27 @@ public abstract class LatencyController {
      * @return percent CPU load
      */
     public abstract int getCpuLoad();
+
+    /**
+     * Copy the recent history of the buffer size and underrun count, oldest first.
+     * Any array may be null.
+     *
+     * @param times from System.nanoTime()
+     * @param bufferSizes in frames
+     * @param underrunCounts total underruns at that time
+     * @return number of entries copied
+     */
+    public int getLatencyHistory(long[] times, int[] bufferSizes, int[] underrunCounts) {
+        return 0;
+    }
+
+    /**
+     * Per-block render times and deadline misses.
+     * Call RenderTelemetry.snapshot() to read them from another thread.
+     *
+     * @return telemetry, or null if it is not measured
+     */
+    public RenderTelemetry getRenderTelemetry() {
+        return null;
+    }
 }
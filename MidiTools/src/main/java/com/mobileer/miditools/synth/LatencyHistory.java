@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mobileer.miditools.synth;
+
+import com.mobileer.miditools.RingIndex;
+
+/**
+ * Recent history of the buffer size and the underrun count.
+ *
+ * It is written by the audio thread without locking or allocating memory.
+ * Another thread can copy the most recent entries. The oldest entries
+ * are overwritten when it is full.
+ */
+public class LatencyHistory {
+    private final long[] mTimes;
+    private final int[] mBufferSizes;
+    private final int[] mUnderrunCounts;
+    private final RingIndex mRing;
+
+    /**
+     * @param capacity maximum number of entries kept
+     */
+    public LatencyHistory(int capacity) {
+        mTimes = new long[capacity];
+        mBufferSizes = new int[capacity];
+        mUnderrunCounts = new int[capacity];
+        mRing = new RingIndex(capacity);
+    }
+
+    public int getCapacity() {
+        return mTimes.length;
+    }
+
+    /**
+     * Only call this from one thread.
+     *
+     * @param time from System.nanoTime()
+     * @param bufferSize in frames
+     * @param underrunCount total number of underruns
+     */
+    public void add(long time, int bufferSize, int underrunCount) {
+        int index = mRing.getWriteIndex();
+        mTimes[index] = time;
+        mBufferSizes[index] = bufferSize;
+        mUnderrunCounts[index] = underrunCount;
+        mRing.publish();
+    }
+
+    /**
+     * @return total number of entries added, including overwritten ones
+     */
+    public int getCount() {
+        return (int) mRing.getCount();
+    }
+
+    public void clear() {
+        mRing.reset();
+    }
+
+    /**
+     * Copy the most recent entries, oldest first. Any array may be null.
+     * Up to half the capacity is copied. Entries that the writer overwrote
+     * while they were being copied are discarded.
+     *
+     * @return number of entries copied
+     */
+    public int copyTo(long[] times, int[] bufferSizes, int[] underrunCounts) {
+        long count = mRing.getCount();
+        int numEntries = (int) Math.min(count, mTimes.length / 2);
+        numEntries = Math.min(numEntries, minLength(times, bufferSizes, underrunCounts));
+        long first = count - numEntries;
+        for (int i = 0; i < numEntries; i++) {
+            int index = mRing.getIndex(first + i);
+            if (times != null) {
+                times[i] = mTimes[index];
+            }
+            if (bufferSizes != null) {
+                bufferSizes[i] = mBufferSizes[index];
+            }
+            if (underrunCounts != null) {
+                underrunCounts[i] = mUnderrunCounts[index];
+            }
+        }
+        int lost = mRing.countOverwritten(first, numEntries);
+        if (lost > 0) {
+            numEntries -= lost;
+            if (times != null) {
+                System.arraycopy(times, lost, times, 0, numEntries);
+            }
+            if (bufferSizes != null) {
+                System.arraycopy(bufferSizes, lost, bufferSizes, 0, numEntries);
+            }
+            if (underrunCounts != null) {
+                System.arraycopy(underrunCounts, lost, underrunCounts, 0, numEntries);
+            }
+        }
+        return numEntries;
+    }
+
+    private static int minLength(long[] times, int[] bufferSizes, int[] underrunCounts) {
+        int length = Integer.MAX_VALUE;
+        if (times != null) {
+            length = Math.min(length, times.length);
+        }
+        if (bufferSizes != null) {
+            length = Math.min(length, bufferSizes.length);
+        }
+        if (underrunCounts != null) {
+            length = Math.min(length, underrunCounts.length);
+        }
+        return length;
+    }
+}
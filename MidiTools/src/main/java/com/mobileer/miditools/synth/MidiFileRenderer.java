@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mobileer.miditools.synth;
+
+import com.mobileer.miditools.MidiFile;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Render a Standard MIDI File through a SynthEngine as fast as possible.
+ *
+ * The engine must write to a sink that does not block, such as an
+ * OfflineAudioSink. Events are sent to the engine one block ahead so that
+ * each one starts on the frame that matches its time in the file.
+ * Only channel messages are sent because the engine ignores the others.
+ */
+public class MidiFileRenderer {
+    public static final float DEFAULT_TAIL_SECONDS = 2.0f;
+    private static final long NANOS_PER_SECOND = 1000000000L;
+
+    private final SynthEngine mEngine;
+    private float mTailSeconds = DEFAULT_TAIL_SECONDS;
+    private long mFramesRendered;
+    private long mElapsedNanos;
+    private int mFrameRate;
+
+    /**
+     * @param engine for example new SynthEngine(new OfflineAudioSink())
+     */
+    public MidiFileRenderer(SynthEngine engine) {
+        mEngine = engine;
+    }
+
+    /**
+     * @param seconds time to render after the end of the file so that notes can release
+     */
+    public void setTailSeconds(float seconds) {
+        mTailSeconds = seconds;
+    }
+
+    public float getTailSeconds() {
+        return mTailSeconds;
+    }
+
+    /**
+     * Render the whole file on the calling thread.
+     * This will stop the engine if it is running.
+     *
+     * @param file
+     * @throws IOException
+     */
+    public void render(MidiFile file) throws IOException {
+        long startNanos = System.nanoTime();
+        mEngine.startOffline();
+        try {
+            AudioSink sink = mEngine.getAudioOutput();
+            long startFrame = sink.getFramesWritten();
+            long startTime = sink.getCurrentTime();
+            mFrameRate = sink.getFrameRate();
+            long nanosPerBlock = (mEngine.getFramesPerBlock() * NANOS_PER_SECOND) / mFrameRate;
+            long endTime = file.getDurationNanos() + (long) (mTailSeconds * NANOS_PER_SECOND);
+            List<MidiFile.Event> events = file.getEvents();
+            int next = 0;
+            long blockTime;
+            while ((blockTime = sink.getCurrentTime() - startTime) < endTime) {
+                // Send the events that belong in the next block.
+                while (next < events.size()
+                        && events.get(next).getTime() < blockTime + nanosPerBlock) {
+                    MidiFile.Event event = events.get(next++);
+                    byte[] data = event.getData();
+                    if (!event.isMeta() && (data[0] & 0xFF) < 0xF0) {
+                        // The engine renders events that are up to one block old,
+                        // so shift them by a block to put them on the exact frame.
+                        long timestamp = startTime + event.getTime() - nanosPerBlock + 1;
+                        mEngine.send(data, 0, data.length, timestamp);
+                    }
+                }
+                mEngine.renderBlocks(1);
+            }
+            mFramesRendered = sink.getFramesWritten() - startFrame;
+        } finally {
+            mEngine.stop();
+        }
+        mElapsedNanos = System.nanoTime() - startNanos;
+    }
+
+    /**
+     * @return number of frames rendered by the last call to render()
+     */
+    public long getFramesRendered() {
+        return mFramesRendered;
+    }
+
+    /**
+     * @return wall clock time taken by the last call to render()
+     */
+    public long getElapsedNanos() {
+        return mElapsedNanos;
+    }
+
+    /**
+     * @return duration of the audio divided by the time taken to render it
+     */
+    public double getRealTimeFactor() {
+        if (mElapsedNanos <= 0 || mFrameRate <= 0) {
+            return 0.0;
+        }
+        double audioNanos = (double) mFramesRendered * NANOS_PER_SECOND / mFrameRate;
+        return audioNanos / mElapsedNanos;
+    }
+}
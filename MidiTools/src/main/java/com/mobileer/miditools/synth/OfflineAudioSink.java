@@ -0,0 +1,207 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mobileer.miditools.synth;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Audio sink that does not play anything. It never blocks so the engine
+ * renders as fast as it can.
+ *
+ * Time is counted in frames written so it starts at zero and the results
+ * do not depend on the speed of the CPU. The audio can be kept in memory
+ * and then written to a WAV file, or discarded for benchmarks.
+ * Use it with SynthEngine.startOffline() and renderBlocks().
+ */
+public class OfflineAudioSink implements AudioSink {
+    public static final int DEFAULT_FRAME_RATE = 48000;
+    private static final int SAMPLES_PER_FRAME = 2;
+    private static final long NANOS_PER_SECOND = 1000000000L;
+    private static final int BITS_PER_SAMPLE = 16;
+
+    private final int mFrameRate;
+    private boolean mRecording = true;
+    private float[] mSamples = new float[0];
+    private int mSampleCount;
+    private long mFramesWritten;
+
+    public OfflineAudioSink() {
+        this(DEFAULT_FRAME_RATE);
+    }
+
+    public OfflineAudioSink(int frameRate) {
+        mFrameRate = frameRate;
+    }
+
+    /**
+     * @param recording if false then the audio is counted but not kept
+     */
+    public void setRecording(boolean recording) {
+        mRecording = recording;
+    }
+
+    public boolean isRecording() {
+        return mRecording;
+    }
+
+    @Override
+    public void start(int framesPerBlock) {
+        mFramesWritten = 0;
+        mSampleCount = 0;
+    }
+
+    @Override
+    public int write(float[] buffer, int offset, int length) {
+        if (mRecording) {
+            if (mSampleCount + length > mSamples.length) {
+                int capacity = Math.max(mSamples.length * 2, mFrameRate * SAMPLES_PER_FRAME);
+                capacity = Math.max(capacity, mSampleCount + length);
+                mSamples = Arrays.copyOf(mSamples, capacity);
+            }
+            System.arraycopy(buffer, offset, mSamples, mSampleCount, length);
+            mSampleCount += length;
+        }
+        mFramesWritten += length / SAMPLES_PER_FRAME;
+        return length;
+    }
+
+    @Override
+    public void stop() {
+    }
+
+    @Override
+    public int getFrameRate() {
+        return mFrameRate;
+    }
+
+    @Override
+    public long getFramesWritten() {
+        return mFramesWritten;
+    }
+
+    /**
+     * A frame is presented when it is written.
+     */
+    @Override
+    public long getFramePresentationTime(long framePosition) {
+        return (framePosition * NANOS_PER_SECOND) / mFrameRate;
+    }
+
+    /**
+     * @return time of the next frame to be written, starting from zero
+     */
+    @Override
+    public long getCurrentTime() {
+        return getFramePresentationTime(mFramesWritten);
+    }
+
+    /**
+     * @return null because there is no latency to control
+     */
+    @Override
+    public LatencyController getLatencyController() {
+        return null;
+    }
+
+    /**
+     * @return null because render timing is not useful offline
+     */
+    @Override
+    public RenderTelemetry getRenderTelemetry() {
+        return null;
+    }
+
+    /**
+     * @return number of interleaved samples kept in memory
+     */
+    public int getSampleCount() {
+        return mSampleCount;
+    }
+
+    /**
+     * @return copy of the interleaved stereo samples kept in memory
+     */
+    public float[] getSamples() {
+        return Arrays.copyOf(mSamples, mSampleCount);
+    }
+
+    /**
+     * Write the samples kept in memory as a 16-bit stereo WAV file.
+     *
+     * @param file
+     * @throws IOException
+     */
+    public void writeWav(File file) throws IOException {
+        OutputStream stream = new BufferedOutputStream(new FileOutputStream(file));
+        try {
+            writeWav(stream);
+        } finally {
+            stream.close();
+        }
+    }
+
+    /**
+     * Write the samples kept in memory as a 16-bit stereo WAV file.
+     * Samples outside the range -1.0 to 1.0 are clipped.
+     *
+     * @param stream is not closed
+     * @throws IOException
+     */
+    public void writeWav(OutputStream stream) throws IOException {
+        int bytesPerSample = BITS_PER_SAMPLE / 8;
+        int dataSize = mSampleCount * bytesPerSample;
+        writeTag(stream, "RIFF");
+        writeInt(stream, 36 + dataSize);
+        writeTag(stream, "WAVE");
+        writeTag(stream, "fmt ");
+        writeInt(stream, 16); // size of the fmt chunk
+        writeShort(stream, 1); // PCM
+        writeShort(stream, SAMPLES_PER_FRAME);
+        writeInt(stream, mFrameRate);
+        writeInt(stream, mFrameRate * SAMPLES_PER_FRAME * bytesPerSample); // bytes per second
+        writeShort(stream, SAMPLES_PER_FRAME * bytesPerSample); // block align
+        writeShort(stream, BITS_PER_SAMPLE);
+        writeTag(stream, "data");
+        writeInt(stream, dataSize);
+        for (int i = 0; i < mSampleCount; i++) {
+            float sample = Math.max(-1.0f, Math.min(1.0f, mSamples[i]));
+            writeShort(stream, Math.round(sample * Short.MAX_VALUE));
+        }
+    }
+
+    private static void writeTag(OutputStream stream, String tag) throws IOException {
+        for (int i = 0; i < 4; i++) {
+            stream.write(tag.charAt(i));
+        }
+    }
+
+    // WAV files are little endian.
+    private static void writeInt(OutputStream stream, int value) throws IOException {
+        writeShort(stream, value);
+        writeShort(stream, value >> 16);
+    }
+
+    private static void writeShort(OutputStream stream, int value) throws IOException {
+        stream.write(value);
+        stream.write(value >> 8);
+    }
+}
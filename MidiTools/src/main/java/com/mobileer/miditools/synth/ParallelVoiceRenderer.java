@@ -0,0 +1,222 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mobileer.miditools.synth;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Render partitions of a block on several threads at once.
+ *
+ * The calling thread renders partition zero and a pool of worker threads
+ * render the others. Each partition is rendered into its own scratch buffer.
+ * The scratch buffers are then added to the output in partition order so
+ * the result does not depend on which thread finished first.
+ *
+ * No memory is allocated and no locks are taken by render().
+ * If a worker throws then the caller renders that partition itself.
+ */
+public class ParallelVoiceRenderer {
+    // Spin this many times before parking. Most partitions finish quickly.
+    private static final int SPIN_COUNT = 2000;
+
+    /**
+     * Renders one partition of the voices.
+     */
+    public interface PartitionTask {
+        /**
+         * Add the output of the voices in one partition to the buffer.
+         * This will be called from several threads at once.
+         *
+         * @param partition between 0 and numPartitions - 1
+         * @param numPartitions
+         * @param buffer scratch buffer for this partition, already cleared
+         * @param frameOffset first frame to write
+         * @param numFrames number of frames to write
+         */
+        void renderPartition(int partition, int numPartitions, float[] buffer,
+                int frameOffset, int numFrames);
+    }
+
+    private final int mSamplesPerFrame;
+    private final Worker[] mWorkers;
+    private final float[][] mScratchBuffers;
+    private final AtomicInteger mPendingCount = new AtomicInteger();
+    // Set by a worker when its partition throws. Read after the workers finish.
+    private final boolean[] mFailed;
+    // Only written by the caller.
+    private volatile int mFailureCount;
+    private volatile Thread mCaller;
+    private volatile boolean mRunning = true;
+    // Incremented for each block. Written by the caller, read by the workers.
+    private volatile int mGeneration;
+    private PartitionTask mTask;
+    private int mFrameOffset;
+    private int mNumFrames;
+
+    private class Worker extends Thread {
+        private final int mPartition;
+
+        Worker(int partition) {
+            super("ParallelVoiceRenderer-" + partition);
+            mPartition = partition;
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            int seenGeneration = 0;
+            while (true) {
+                int generation = waitForGeneration(seenGeneration);
+                if (!mRunning) {
+                    break;
+                }
+                seenGeneration = generation;
+                try {
+                    renderPartition(mPartition);
+                } catch (Throwable e) {
+                    // The caller will render it again. Keep running for the next block.
+                    mFailed[mPartition] = true;
+                } finally {
+                    // Always report back so the caller does not wait forever.
+                    if (mPendingCount.decrementAndGet() == 0) {
+                        LockSupport.unpark(mCaller);
+                    }
+                }
+            }
+        }
+
+        private int waitForGeneration(int seenGeneration) {
+            int spins = 0;
+            int generation;
+            while ((generation = mGeneration) == seenGeneration && mRunning) {
+                if (spins < SPIN_COUNT) {
+                    spins++;
+                } else {
+                    LockSupport.park(this);
+                }
+            }
+            return generation;
+        }
+    }
+
+    /**
+     * @param numWorkers number of threads to start, in addition to the caller
+     * @param maxFramesPerBlock largest block that will be rendered
+     * @param samplesPerFrame
+     */
+    public ParallelVoiceRenderer(int numWorkers, int maxFramesPerBlock, int samplesPerFrame) {
+        mSamplesPerFrame = samplesPerFrame;
+        mScratchBuffers = new float[numWorkers + 1][maxFramesPerBlock * samplesPerFrame];
+        mFailed = new boolean[numWorkers + 1];
+        mWorkers = new Worker[numWorkers];
+        for (int i = 0; i < numWorkers; i++) {
+            mWorkers[i] = new Worker(i + 1);
+            mWorkers[i].start();
+        }
+    }
+
+    /**
+     * @return number of partitions, including the one rendered by the caller
+     */
+    public int getPartitionCount() {
+        return mScratchBuffers.length;
+    }
+
+    /**
+     * @return number of partitions that a worker failed to render
+     *     so the caller rendered them instead
+     */
+    public int getFailureCount() {
+        return mFailureCount;
+    }
+
+    /**
+     * Render every partition and add the results to the output.
+     * Only call this from one thread.
+     *
+     * @param task
+     * @param output
+     * @param frameOffset first frame to write
+     * @param numFrames number of frames to write
+     */
+    public void render(PartitionTask task, float[] output, int frameOffset, int numFrames) {
+        mCaller = Thread.currentThread();
+        mTask = task;
+        mFrameOffset = frameOffset;
+        mNumFrames = numFrames;
+        mPendingCount.set(mWorkers.length);
+        // Publish the task to the workers.
+        mGeneration++;
+        for (Worker worker : mWorkers) {
+            LockSupport.unpark(worker);
+        }
+        try {
+            renderPartition(0);
+        } finally {
+            // Do not let the workers run into the next block.
+            waitForWorkers();
+        }
+        for (int partition = 1; partition < mFailed.length; partition++) {
+            if (mFailed[partition]) {
+                mFailed[partition] = false;
+                mFailureCount++;
+                renderPartition(partition);
+            }
+        }
+        // Sum in a fixed order so the result is deterministic.
+        int start = frameOffset * mSamplesPerFrame;
+        int end = start + (numFrames * mSamplesPerFrame);
+        for (float[] scratch : mScratchBuffers) {
+            for (int i = start; i < end; i++) {
+                output[i] += scratch[i];
+            }
+        }
+    }
+
+    private void waitForWorkers() {
+        int spins = 0;
+        while (mPendingCount.get() > 0) {
+            if (spins < SPIN_COUNT) {
+                spins++;
+            } else {
+                LockSupport.park(this);
+            }
+        }
+    }
+
+    private void renderPartition(int partition) {
+        float[] scratch = mScratchBuffers[partition];
+        int start = mFrameOffset * mSamplesPerFrame;
+        int end = start + (mNumFrames * mSamplesPerFrame);
+        for (int i = start; i < end; i++) {
+            scratch[i] = 0.0f;
+        }
+        mTask.renderPartition(partition, mScratchBuffers.length, scratch,
+                mFrameOffset, mNumFrames);
+    }
+
+    /**
+     * Stop the worker threads.
+     */
+    public void close() {
+        mRunning = false;
+        for (Worker worker : mWorkers) {
+            LockSupport.unpark(worker);
+        }
+    }
+}
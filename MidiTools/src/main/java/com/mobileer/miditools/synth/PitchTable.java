@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mobileer.miditools.synth;
+
+/**
+ * Precalculated frequencies and phase increments for the 128 MIDI notes
+ * at one sample rate. This avoids calling Math.pow() for every note.
+ *
+ * The phase increment is for a phase that goes from -1.0 to +1.0,
+ * as used by SawOscillator.
+ *
+ * A table is shared by every oscillator that uses the same sample rate.
+ */
+public class PitchTable {
+    public static final int NUM_NOTES = 128;
+    // Resolution of the table used by semitonesToRatio().
+    private static final int EXP2_TABLE_BITS = 8;
+    private static final int EXP2_TABLE_SIZE = 1 << EXP2_TABLE_BITS;
+    // 2^(i / EXP2_TABLE_SIZE) with one extra entry for interpolation.
+    private static final float[] sExp2Table = new float[EXP2_TABLE_SIZE + 1];
+
+    static {
+        for (int i = 0; i <= EXP2_TABLE_SIZE; i++) {
+            sExp2Table[i] = (float) Math.pow(2.0, (double) i / EXP2_TABLE_SIZE);
+        }
+    }
+
+    private static PitchTable sLastTable;
+
+    private final int mSampleRate;
+    private final float[] mFrequencies = new float[NUM_NOTES];
+    private final float[] mPhaseIncrements = new float[NUM_NOTES];
+
+    /**
+     * Get a table for the sample rate. The most recently used table is reused.
+     *
+     * @param sampleRate
+     * @return shared table
+     */
+    public static synchronized PitchTable getInstance(int sampleRate) {
+        PitchTable table = sLastTable;
+        if (table == null || table.getSampleRate() != sampleRate) {
+            table = new PitchTable(sampleRate);
+            sLastTable = table;
+        }
+        return table;
+    }
+
+    public PitchTable(int sampleRate) {
+        mSampleRate = sampleRate;
+        for (int i = 0; i < NUM_NOTES; i++) {
+            double frequency = SynthUnit.pitchToFrequency(i);
+            mFrequencies[i] = (float) frequency;
+            mPhaseIncrements[i] = (float) (2.0 * frequency / sampleRate);
+        }
+    }
+
+    public int getSampleRate() {
+        return mSampleRate;
+    }
+
+    /**
+     * @param noteIndex between 0 and 127
+     * @return frequency in Hz
+     */
+    public float getFrequency(int noteIndex) {
+        return mFrequencies[noteIndex];
+    }
+
+    /**
+     * @param noteIndex between 0 and 127
+     * @return phase increment per frame for a phase from -1.0 to +1.0
+     */
+    public float getPhaseIncrement(int noteIndex) {
+        return mPhaseIncrements[noteIndex];
+    }
+
+    /**
+     * Convert a pitch offset to a frequency ratio without calling Math.pow().
+     * Uses linear interpolation in a table of one octave.
+     * The error is less than 0.01 cents.
+     *
+     * @param semitones pitch offset, for example from a pitch bend
+     * @return frequency ratio, 2^(semitones / 12)
+     */
+    public static float semitonesToRatio(float semitones) {
+        float octaves = semitones * (1.0f / 12.0f);
+        int whole = (int) Math.floor(octaves);
+        float position = (octaves - whole) * EXP2_TABLE_SIZE;
+        int index = (int) position;
+        float fraction = position - index;
+        if (index >= EXP2_TABLE_SIZE) {
+            // A tiny negative offset can round up to a whole octave.
+            index -= EXP2_TABLE_SIZE;
+            whole++;
+        }
+        float low = sExp2Table[index];
+        float ratio = low + ((sExp2Table[index + 1] - low) * fraction);
+        return Math.scalb(ratio, whole);
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mobileer.miditools.synth;
+
+/**
+ * Band limited sawtooth, pulse and triangle oscillator using PolyBLEP.
+ *
+ * The naive waveform is calculated and then a short polynomial correction
+ * is added on the samples next to each discontinuity. Steps are corrected
+ * with a PolyBLEP and corners of the triangle are corrected with a PolyBLAMP.
+ * This removes most of the aliasing without oversampling.
+ */
+public class PolyBlepOscillator extends SawOscillator {
+    public static final int WAVEFORM_SAWTOOTH = 0;
+    public static final int WAVEFORM_PULSE = 1;
+    public static final int WAVEFORM_TRIANGLE = 2;
+
+    private static final float MIN_PULSE_WIDTH = 0.01f;
+    private static final float MAX_PULSE_WIDTH = 0.99f;
+
+    private int mWaveform;
+    private float mPulseWidth = 0.5f;
+
+    /**
+     * @param sampleRate
+     * @param waveform WAVEFORM_SAWTOOTH, WAVEFORM_PULSE or WAVEFORM_TRIANGLE
+     */
+    public PolyBlepOscillator(int sampleRate, int waveform) {
+        super(sampleRate);
+        mWaveform = waveform;
+    }
+
+    public int getWaveform() {
+        return mWaveform;
+    }
+
+    /**
+     * @param waveform WAVEFORM_SAWTOOTH, WAVEFORM_PULSE or WAVEFORM_TRIANGLE
+     */
+    public void setWaveform(int waveform) {
+        mWaveform = waveform;
+    }
+
+    public float getPulseWidth() {
+        return mPulseWidth;
+    }
+
+    /**
+     * Set the fraction of each cycle that the pulse is high.
+     * This can be changed while the oscillator is playing.
+     *
+     * @param pulseWidth 0.5 is a square wave
+     */
+    public void setPulseWidth(float pulseWidth) {
+        mPulseWidth = Math.max(MIN_PULSE_WIDTH, Math.min(MAX_PULSE_WIDTH, pulseWidth));
+    }
+
+    /**
+     * Correction to add for a step of +2 at t = 0.
+     * Subtract it for a step of -2.
+     *
+     * @param t position in the cycle, between 0.0 and 1.0
+     * @param dt cycles per frame
+     */
+    private static float polyBlep(float t, float dt) {
+        if (t < dt) {
+            t /= dt;
+            return t + t - (t * t) - 1.0f;
+        } else if (t > 1.0f - dt) {
+            t = (t - 1.0f) / dt;
+            return (t * t) + t + t + 1.0f;
+        } else {
+            return 0.0f;
+        }
+    }
+
+    /**
+     * Correction to add for a change in slope of +2 per frame at t = 0.
+     *
+     * @param t position in the cycle, between 0.0 and 1.0
+     * @param dt cycles per frame
+     */
+    private static float polyBlamp(float t, float dt) {
+        if (t < dt) {
+            t = (t / dt) - 1.0f;
+            return -(1.0f / 3.0f) * t * t * t;
+        } else if (t > 1.0f - dt) {
+            t = ((t - 1.0f) / dt) + 1.0f;
+            return (1.0f / 3.0f) * t * t * t;
+        } else {
+            return 0.0f;
+        }
+    }
+
+    private static float wrap(float t) {
+        return (t >= 1.0f) ? t - 1.0f : t;
+    }
+
+    /**
+     * @param phase between -1.0 and +1.0
+     * @param dt cycles per frame, must be less than 0.5
+     */
+    private float calculate(float phase, float dt) {
+        float t = (phase + 1.0f) * 0.5f;
+        switch (mWaveform) {
+        case WAVEFORM_PULSE: {
+            float pulseWidth = mPulseWidth;
+            float value = (t < pulseWidth) ? 1.0f : -1.0f;
+            return value + polyBlep(t, dt) - polyBlep(wrap(t + 1.0f - pulseWidth), dt);
+        }
+        case WAVEFORM_TRIANGLE: {
+            // Rises from -1.0 at t = 0.0 to +1.0 at t = 0.5.
+            float value = 1.0f - (4.0f * Math.abs(t - 0.5f));
+            // The slope changes by 8 * dt per frame at each corner.
+            float scaler = 4.0f * dt;
+            return value + (scaler * (polyBlamp(t, dt) - polyBlamp(wrap(t + 0.5f), dt)));
+        }
+        default:
+            return phase - polyBlep(t, dt);
+        }
+    }
+
+    @Override
+    public float render() {
+        float dt = Math.abs(getPhaseIncrement()) * 0.5f;
+        float phase = incrementWrapPhase();
+        if (dt >= 0.5f) {
+            return 0.0f;
+        }
+        return calculate(phase, dt) * getAmplitude();
+    }
+
+    @Override
+    public void render(float[] output, int offset, int numFrames) {
+        renderPhases(output, offset, numFrames);
+        float dt = Math.abs(getPhaseIncrement()) * 0.5f;
+        float amplitude = getAmplitude();
+        if (dt >= 0.5f) {
+            // Above the Nyquist frequency. Nothing useful can be played.
+            for (int i = offset; i < offset + numFrames; i++) {
+                output[i] = 0.0f;
+            }
+            return;
+        }
+        for (int i = offset; i < offset + numFrames; i++) {
+            output[i] = calculate(output[i], dt) * amplitude;
+        }
+    }
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mobileer.miditools.synth;
+
+/**
+ * PolyBLEP sawtooth, pulse or triangle oscillator with an ADSR.
+ */
+public class PolyBlepVoice extends SawVoice {
+    /**
+     * @param sampleRate
+     * @param waveform PolyBlepOscillator.WAVEFORM_SAWTOOTH, WAVEFORM_PULSE or WAVEFORM_TRIANGLE
+     * @param pulseWidth fraction of the cycle that a pulse is high
+     */
+    public PolyBlepVoice(int sampleRate, int waveform, float pulseWidth) {
+        super(sampleRate, createOscillator(sampleRate, waveform, pulseWidth));
+    }
+
+    private static PolyBlepOscillator createOscillator(int sampleRate, int waveform,
+            float pulseWidth) {
+        PolyBlepOscillator oscillator = new PolyBlepOscillator(sampleRate, waveform);
+        oscillator.setPulseWidth(pulseWidth);
+        return oscillator;
+    }
+}
@@ -0,0 +1,332 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mobileer.miditools.synth;
+
+import android.os.Debug;
+
+import com.mobileer.miditools.RingIndex;
+
+import java.util.Arrays;
+
+/**
+ * Measure how long it takes to render each block of audio.
+ *
+ * The audio thread calls beginBlock() and endBlock() around the rendering.
+ * The wall time, the thread CPU time, the voice count and the number of MIDI events
+ * are stored for each block. A block whose wall time is longer than the block period
+ * is a deadline miss. Misses are also stored in a separate ring so they are not
+ * lost when the block ring wraps around.
+ *
+ * The audio thread does not lock or allocate memory. Another thread, for example
+ * the UI, can call snapshot() to get the statistics for the most recent blocks.
+ */
+public class RenderTelemetry {
+    /** Number of blocks kept. A snapshot covers up to half of them. */
+    public static final int DEFAULT_CAPACITY = 1024;
+    /** Number of deadline misses kept. */
+    public static final int DEFAULT_MISS_CAPACITY = 64;
+    /** Returned for the CPU time when it is not supported. */
+    public static final long TIME_UNKNOWN = -1;
+
+    // One entry per block.
+    private final long[] mWallNanos;
+    private final long[] mCpuNanos;
+    private final RingIndex mBlocks;
+    // One entry per deadline miss.
+    private final long[] mMissTimes;
+    private final long[] mMissWallNanos;
+    private final long[] mMissCpuNanos;
+    private final int[] mMissVoiceCounts;
+    private final int[] mMissEventCounts;
+    private final RingIndex mMisses;
+    private volatile long mMaxIntervalNanos;
+
+    private volatile long mBlockPeriodNanos;
+    private long mBeginWall;
+    private long mBeginCpu;
+    private long mPreviousBeginWall;
+
+    /**
+     * Statistics for a window of recent blocks.
+     * Allocate one and reuse it to avoid garbage.
+     * Times are in nanoseconds. CPU times are TIME_UNKNOWN if not supported.
+     */
+    public static class Snapshot {
+        public long blockPeriodNanos;
+        /** Total blocks rendered since reset(). */
+        public long totalBlocks;
+        /** Total deadline misses since reset(). */
+        public long totalMisses;
+        /** Longest time between the start of two blocks since reset(). */
+        public long maxIntervalNanos;
+
+        /** Number of blocks in the window. */
+        public int numBlocks;
+        public long minWallNanos;
+        public long maxWallNanos;
+        public long meanWallNanos;
+        public long p99WallNanos;
+        public long minCpuNanos;
+        public long maxCpuNanos;
+        public long meanCpuNanos;
+        public long p99CpuNanos;
+
+        /** Number of valid entries in the miss arrays, oldest first. */
+        public int numMisses;
+        public final long[] missTimes;
+        public final long[] missWallNanos;
+        public final long[] missCpuNanos;
+        public final int[] missVoiceCounts;
+        public final int[] missEventCounts;
+
+        private long[] mSortedWall = new long[0];
+        private long[] mSortedCpu = new long[0];
+
+        public Snapshot() {
+            this(DEFAULT_MISS_CAPACITY / 2);
+        }
+
+        /**
+         * @param maxMisses number of recent misses to copy
+         */
+        public Snapshot(int maxMisses) {
+            missTimes = new long[maxMisses];
+            missWallNanos = new long[maxMisses];
+            missCpuNanos = new long[maxMisses];
+            missVoiceCounts = new int[maxMisses];
+            missEventCounts = new int[maxMisses];
+        }
+
+        /**
+         * @return percent of the block period spent rendering, on average
+         */
+        public int getLoadPercent() {
+            if (blockPeriodNanos <= 0) {
+                return 0;
+            }
+            return (int) ((meanWallNanos * 100) / blockPeriodNanos);
+        }
+    }
+
+    public RenderTelemetry() {
+        this(DEFAULT_CAPACITY, DEFAULT_MISS_CAPACITY);
+    }
+
+    /**
+     * @param capacity number of blocks kept
+     * @param missCapacity number of deadline misses kept
+     */
+    public RenderTelemetry(int capacity, int missCapacity) {
+        mWallNanos = new long[capacity];
+        mCpuNanos = new long[capacity];
+        mBlocks = new RingIndex(capacity);
+        mMissTimes = new long[missCapacity];
+        mMissWallNanos = new long[missCapacity];
+        mMissCpuNanos = new long[missCapacity];
+        mMissVoiceCounts = new int[missCapacity];
+        mMissEventCounts = new int[missCapacity];
+        mMisses = new RingIndex(missCapacity);
+    }
+
+    /**
+     * Clear the history. Call this from the audio thread before the first block.
+     *
+     * @param blockPeriodNanos duration of one block of audio
+     */
+    public void reset(long blockPeriodNanos) {
+        mBlockPeriodNanos = blockPeriodNanos;
+        mBlocks.reset();
+        mMisses.reset();
+        mMaxIntervalNanos = 0;
+        mPreviousBeginWall = 0;
+    }
+
+    public long getBlockPeriodNanos() {
+        return mBlockPeriodNanos;
+    }
+
+    /**
+     * Call this from the audio thread before rendering a block.
+     */
+    public void beginBlock() {
+        beginBlock(System.nanoTime(), Debug.threadCpuTimeNanos());
+    }
+
+    /**
+     * @param wallNanos from System.nanoTime()
+     * @param cpuNanos thread CPU time, or a negative value if unknown
+     */
+    void beginBlock(long wallNanos, long cpuNanos) {
+        if (mPreviousBeginWall > 0) {
+            long interval = wallNanos - mPreviousBeginWall;
+            if (interval > mMaxIntervalNanos) {
+                mMaxIntervalNanos = interval;
+            }
+        }
+        mPreviousBeginWall = wallNanos;
+        mBeginWall = wallNanos;
+        mBeginCpu = cpuNanos;
+    }
+
+    /**
+     * Call this from the audio thread after rendering a block.
+     *
+     * @param voiceCount number of voices rendered
+     * @param eventCount number of MIDI events applied
+     */
+    public void endBlock(int voiceCount, int eventCount) {
+        endBlock(System.nanoTime(), Debug.threadCpuTimeNanos(), voiceCount, eventCount);
+    }
+
+    void endBlock(long wallNanos, long cpuNanos, int voiceCount, int eventCount) {
+        long wall = wallNanos - mBeginWall;
+        long cpu = (cpuNanos < 0 || mBeginCpu < 0) ? TIME_UNKNOWN : cpuNanos - mBeginCpu;
+        int index = mBlocks.getWriteIndex();
+        mWallNanos[index] = wall;
+        mCpuNanos[index] = cpu;
+        mBlocks.publish();
+
+        long period = mBlockPeriodNanos;
+        if (period > 0 && wall > period) {
+            int missIndex = mMisses.getWriteIndex();
+            mMissTimes[missIndex] = mBeginWall;
+            mMissWallNanos[missIndex] = wall;
+            mMissCpuNanos[missIndex] = cpu;
+            mMissVoiceCounts[missIndex] = voiceCount;
+            mMissEventCounts[missIndex] = eventCount;
+            mMisses.publish();
+        }
+    }
+
+    /**
+     * @return total blocks rendered since reset()
+     */
+    public long getBlockCount() {
+        return mBlocks.getCount();
+    }
+
+    /**
+     * @return total deadline misses since reset()
+     */
+    public long getMissCount() {
+        return mMisses.getCount();
+    }
+
+    /**
+     * Calculate statistics for the most recent blocks and copy the most recent misses.
+     * Up to half of each ring is read. Entries that the audio thread overwrote
+     * while they were being copied are discarded.
+     *
+     * @param snapshot filled in with the results
+     */
+    public void snapshot(Snapshot snapshot) {
+        long blockCount = mBlocks.getCount();
+        long missCount = mMisses.getCount();
+        snapshot.blockPeriodNanos = mBlockPeriodNanos;
+        snapshot.totalBlocks = blockCount;
+        snapshot.totalMisses = missCount;
+        snapshot.maxIntervalNanos = mMaxIntervalNanos;
+
+        int numBlocks = (int) Math.min(blockCount, mWallNanos.length / 2);
+        if (snapshot.mSortedWall.length < numBlocks) {
+            snapshot.mSortedWall = new long[mWallNanos.length / 2];
+            snapshot.mSortedCpu = new long[mWallNanos.length / 2];
+        }
+        long[] sortedWall = snapshot.mSortedWall;
+        long[] sortedCpu = snapshot.mSortedCpu;
+        long first = blockCount - numBlocks;
+        for (int i = 0; i < numBlocks; i++) {
+            int index = mBlocks.getIndex(first + i);
+            sortedWall[i] = mWallNanos[index];
+            sortedCpu[i] = mCpuNanos[index];
+        }
+        int lost = mBlocks.countOverwritten(first, numBlocks);
+        numBlocks -= lost;
+        int numCpu = 0;
+        for (int i = 0; i < numBlocks; i++) {
+            sortedWall[i] = sortedWall[lost + i];
+            long cpu = sortedCpu[lost + i];
+            if (cpu >= 0) {
+                sortedCpu[numCpu++] = cpu;
+            }
+        }
+        snapshot.numBlocks = numBlocks;
+        Arrays.sort(sortedWall, 0, numBlocks);
+        snapshot.minWallNanos = (numBlocks > 0) ? sortedWall[0] : 0;
+        snapshot.maxWallNanos = (numBlocks > 0) ? sortedWall[numBlocks - 1] : 0;
+        snapshot.meanWallNanos = mean(sortedWall, numBlocks);
+        snapshot.p99WallNanos = percentile99(sortedWall, numBlocks);
+        if (numCpu > 0) {
+            Arrays.sort(sortedCpu, 0, numCpu);
+            snapshot.minCpuNanos = sortedCpu[0];
+            snapshot.maxCpuNanos = sortedCpu[numCpu - 1];
+            snapshot.meanCpuNanos = mean(sortedCpu, numCpu);
+            snapshot.p99CpuNanos = percentile99(sortedCpu, numCpu);
+        } else {
+            snapshot.minCpuNanos = TIME_UNKNOWN;
+            snapshot.maxCpuNanos = TIME_UNKNOWN;
+            snapshot.meanCpuNanos = TIME_UNKNOWN;
+            snapshot.p99CpuNanos = TIME_UNKNOWN;
+        }
+
+        int numMisses = (int) Math.min(missCount, mMissTimes.length / 2);
+        numMisses = Math.min(numMisses, snapshot.missTimes.length);
+        long firstMiss = missCount - numMisses;
+        for (int i = 0; i < numMisses; i++) {
+            int index = mMisses.getIndex(firstMiss + i);
+            snapshot.missTimes[i] = mMissTimes[index];
+            snapshot.missWallNanos[i] = mMissWallNanos[index];
+            snapshot.missCpuNanos[i] = mMissCpuNanos[index];
+            snapshot.missVoiceCounts[i] = mMissVoiceCounts[index];
+            snapshot.missEventCounts[i] = mMissEventCounts[index];
+        }
+        int lostMisses = mMisses.countOverwritten(firstMiss, numMisses);
+        if (lostMisses > 0) {
+            numMisses -= lostMisses;
+            System.arraycopy(snapshot.missTimes, lostMisses, snapshot.missTimes, 0, numMisses);
+            System.arraycopy(snapshot.missWallNanos, lostMisses,
+                    snapshot.missWallNanos, 0, numMisses);
+            System.arraycopy(snapshot.missCpuNanos, lostMisses,
+                    snapshot.missCpuNanos, 0, numMisses);
+            System.arraycopy(snapshot.missVoiceCounts, lostMisses,
+                    snapshot.missVoiceCounts, 0, numMisses);
+            System.arraycopy(snapshot.missEventCounts, lostMisses,
+                    snapshot.missEventCounts, 0, numMisses);
+        }
+        snapshot.numMisses = numMisses;
+    }
+
+    private static long mean(long[] values, int count) {
+        if (count == 0) {
+            return 0;
+        }
+        long sum = 0;
+        for (int i = 0; i < count; i++) {
+            sum += values[i];
+        }
+        return sum / count;
+    }
+
+    // The values must be sorted.
+    private static long percentile99(long[] sorted, int count) {
+        if (count == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(count * 0.99) - 1;
+        return sorted[Math.max(0, index)];
+    }
+}
@@ -17,24 +17,74 @@
 package com.mobileer.miditools.synth;
 
 public class SawOscillator extends SynthUnit {
+    private final int mSampleRate;
+    private final PitchTable mPitchTable;
     private float mPhase = 0.0f;
     private float mPhaseIncrement = 0.01f;
+    // Phase increment before the frequency scaler is applied.
+    private float mBaseIncrement = 0.01f;
     private float mFrequency = 0.0f;
     private float mFrequencyScaler = 1.0f;
     private float mAmplitude = 1.0f;
 
+    public SawOscillator(int sampleRate) {
+        mSampleRate = sampleRate;
+        mPitchTable = PitchTable.getInstance(sampleRate);
+    }
+
+    public int getSampleRate() {
+        return mSampleRate;
+    }
+
+    /**
+     * @param pitch MIDI pitch in semitones, may be fractional
+     */
     public void setPitch(float pitch) {
         float freq = (float) pitchToFrequency(pitch);
         setFrequency(freq);
     }
 
+    /**
+     * Faster than setPitch() because it uses a precalculated table.
+     *
+     * @param noteIndex MIDI note between 0 and 127
+     */
+    public void setNote(int noteIndex) {
+        mFrequency = mPitchTable.getFrequency(noteIndex);
+        mBaseIncrement = mPitchTable.getPhaseIncrement(noteIndex);
+        updatePhaseIncrement();
+        onFrequencyChanged(mFrequency);
+    }
+
     public void setFrequency(float frequency) {
         mFrequency = frequency;
+        mBaseIncrement = 2.0f * frequency / mSampleRate;
         updatePhaseIncrement();
+        onFrequencyChanged(frequency);
+    }
+
+    public float getFrequency() {
+        return mFrequency;
+    }
+
+    /**
+     * Called when the frequency is set, before the frequency scaler is applied.
+     * Subclasses can override this to update frequency dependent values.
+     *
+     * @param frequency in Hz
+     */
+    protected void onFrequencyChanged(float frequency) {
     }
 
     private void updatePhaseIncrement() {
-        mPhaseIncrement = 2.0f * mFrequency * mFrequencyScaler / 48000.0f;
+        mPhaseIncrement = mBaseIncrement * mFrequencyScaler;
+    }
+
+    /**
+     * @return change in phase per frame, the phase goes from -1.0 to +1.0
+     */
+    float getPhaseIncrement() {
+        return mPhaseIncrement;
     }
 
     public void setAmplitude(float amplitude) {
@@ -65,9 +115,43 @@ public class SawOscillator extends SynthUnit {
         return mPhase;
     }
 
+    /**
+     * Write the raw sawtooth phase, between -1.0 and +1.0, into the output.
+     */
+    void renderPhases(float[] output, int offset, int numFrames) {
+        float phase = mPhase;
+        float phaseIncrement = mPhaseIncrement;
+        if (phaseIncrement >= 2.0f || phaseIncrement <= -2.0f) {
+            // The phase can wrap more than once per frame. Very unusual.
+            for (int i = 0; i < numFrames; i++) {
+                output[offset + i] = incrementWrapPhase();
+            }
+            return;
+        }
+        for (int i = offset; i < offset + numFrames; i++) {
+            phase += phaseIncrement;
+            if (phase > 1.0f) {
+                phase -= 2.0f;
+            } else if (phase < -1.0f) {
+                phase += 2.0f;
+            }
+            output[i] = phase;
+        }
+        mPhase = phase;
+    }
+
     @Override
     public float render() {
         return incrementWrapPhase() * mAmplitude;
     }
 
+    @Override
+    public void render(float[] output, int offset, int numFrames) {
+        renderPhases(output, offset, numFrames);
+        float amplitude = mAmplitude;
+        for (int i = offset; i < offset + numFrames; i++) {
+            output[i] *= amplitude;
+        }
+    }
+
 }
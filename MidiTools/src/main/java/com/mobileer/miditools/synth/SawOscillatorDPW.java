@@ -26,15 +26,22 @@ public class SawOscillatorDPW extends SawOscillator {
     private float mScaler; // frequency dependent scaler
     private final static float VERY_LOW_FREQ = 0.0000001f;
 
+    public SawOscillatorDPW(int sampleRate) {
+        super(sampleRate);
+    }
+
     @Override
     public void setFrequency(float freq) {
+        super.setFrequency(Math.abs(freq));
+    }
+
+    @Override
+    protected void onFrequencyChanged(float freq) {
         /* Calculate scaling based on frequency. */
-        freq = Math.abs(freq);
-        super.setFrequency(freq);
         if (freq < VERY_LOW_FREQ) {
-            mScaler = (float) (0.125 * 44100 / VERY_LOW_FREQ);
+            mScaler = (float) (0.125 * getSampleRate() / VERY_LOW_FREQ);
         } else {
-            mScaler = (float) (0.125 * 44100 / freq);
+            mScaler = (float) (0.125 * getSampleRate() / freq);
         }
     }
 
@@ -49,4 +56,21 @@ public class SawOscillatorDPW extends SawOscillator {
         return diffed * mScaler * getAmplitude();
     }
 
+    @Override
+    public void render(float[] output, int offset, int numFrames) {
+        renderPhases(output, offset, numFrames);
+        float z1 = mZ1;
+        float z2 = mZ2;
+        float gain = mScaler * getAmplitude();
+        for (int i = offset; i < offset + numFrames; i++) {
+            float phase = output[i];
+            float squared = phase * phase;
+            output[i] = (squared - z2) * gain;
+            z2 = z1;
+            z1 = squared;
+        }
+        mZ1 = z1;
+        mZ2 = z2;
+    }
+
 }
@@ -22,20 +22,30 @@ package com.mobileer.miditools.synth;
 public class SawVoice extends SynthVoice {
     private SawOscillator mOscillator;
     private EnvelopeADSR mEnvelope;
+    private float[] mEnvelopeBuffer = new float[0];
 
     public SawVoice(int sampleRate) {
-        mOscillator = createOscillator();
+        mOscillator = createOscillator(sampleRate);
         mEnvelope = new EnvelopeADSR(sampleRate);
     }
 
-    protected SawOscillator createOscillator() {
-        return new SawOscillator();
+    /**
+     * @param sampleRate
+     * @param oscillator used instead of calling createOscillator()
+     */
+    protected SawVoice(int sampleRate, SawOscillator oscillator) {
+        mOscillator = oscillator;
+        mEnvelope = new EnvelopeADSR(sampleRate);
+    }
+
+    protected SawOscillator createOscillator(int sampleRate) {
+        return new SawOscillator(sampleRate);
     }
 
     @Override
     public void noteOn(int noteIndex, int velocity) {
         super.noteOn(noteIndex, velocity);
-        mOscillator.setPitch(noteIndex);
+        mOscillator.setNote(noteIndex);
         mOscillator.setAmplitude(getAmplitude());
         mEnvelope.on();
     }
@@ -46,6 +56,16 @@ public class SawVoice extends SynthVoice {
         mEnvelope.off();
     }
 
+    @Override
+    public void stop() {
+        super.stop();
+        mEnvelope.stop();
+    }
+
+    public EnvelopeADSR getEnvelope() {
+        return mEnvelope;
+    }
+
     @Override
     public void setFrequencyScaler(float scaler) {
         mOscillator.setFrequencyScaler(scaler);
@@ -57,6 +77,32 @@ public class SawVoice extends SynthVoice {
         return output;
     }
 
+    @Override
+    public void render(float[] output, int offset, int numFrames) {
+        if (mEnvelopeBuffer.length < numFrames) {
+            mEnvelopeBuffer = new float[numFrames];
+        }
+        float[] envelope = mEnvelopeBuffer;
+        mEnvelope.render(envelope, 0, numFrames);
+        // Do not run the oscillator after the envelope has finished.
+        int activeFrames = mEnvelope.getFinishIndex();
+        if (activeFrames < 0) {
+            activeFrames = numFrames;
+        }
+        mOscillator.render(output, offset, activeFrames);
+        for (int i = 0; i < activeFrames; i++) {
+            output[offset + i] *= envelope[i];
+        }
+        for (int i = activeFrames; i < numFrames; i++) {
+            output[offset + i] = 0.0f;
+        }
+    }
+
+    @Override
+    public float getCurrentLevel() {
+        return getAmplitude() * mEnvelope.getLevel();
+    }
+
     @Override
     public boolean isDone() {
         return mEnvelope.isDone();
@@ -19,6 +19,7 @@ package com.mobileer.miditools.synth;
 import android.annotation.TargetApi;
 import android.media.AudioAttributes;
 import android.media.AudioFormat;
+import android.media.AudioTimestamp;
 import android.media.AudioTrack;
 import android.os.Build;
 import android.util.Log;
@@ -26,8 +27,9 @@ import android.util.Log;
 /**
  * Simple base class for implementing audio output for examples.
  * This can be sub-classed for experimentation or to redirect audio output.
+ * It plays through an AudioTrack in real time.
  */
-public class SimpleAudioOutput {
+public class SimpleAudioOutput implements AudioSink {
 
     private static final String TAG = "SimpleAudioOutput";
     public static final int SAMPLES_PER_FRAME = 2;
@@ -42,6 +44,9 @@ public class SimpleAudioOutput {
     // The 512 is arbitrary. 512*3 gives us a 32 msec buffer at 48000 Hz.
     // That is more than we need but not hugely wasteful.
     private static final int LOW_LATENCY_BUFFER_CAPACITY_IN_FRAMES = 512 * 3;
+    private static final long NANOS_PER_SECOND = 1000000000L;
+    // Query the AudioTrack timestamp about this often. It does not change quickly.
+    private static final int TIMESTAMPS_PER_SECOND = 4;
 
     private AudioTrack mAudioTrack;
     private int mFrameRate;
@@ -50,6 +55,11 @@ public class SimpleAudioOutput {
     private long previousBeginTime;
     private volatile long filteredCpuInterval;
     private volatile long filteredTotalInterval;
+    private long mFramesWritten;
+    private final AudioTimestamp mTimestamp = new AudioTimestamp();
+    private boolean mTimestampValid;
+    private long mNextTimestampFrame;
+    private final RenderTelemetry mRenderTelemetry = new RenderTelemetry();
 
     class MyLatencyController extends LatencyController
     {
@@ -103,6 +113,20 @@ public class SimpleAudioOutput {
             }
         }
 
+        @Override
+        public int getLatencyHistory(long[] times, int[] bufferSizes, int[] underrunCounts) {
+            AudioLatencyTuner tuner = mLatencyTuner;
+            if (tuner != null) {
+                return tuner.getHistory().copyTo(times, bufferSizes, underrunCounts);
+            } else {
+                return 0;
+            }
+        }
+
+        @Override
+        public RenderTelemetry getRenderTelemetry() {
+            return mRenderTelemetry;
+        }
 
         @Override
         public int getCpuLoad() {
@@ -117,6 +141,7 @@ public class SimpleAudioOutput {
     /**
      * Create an audio track then call play().
      */
+    @Override
     public void start(int framesPerBlock) {
         stop();
         mAudioTrack = createAudioTrack();
@@ -130,6 +155,10 @@ public class SimpleAudioOutput {
         previousBeginTime = 0;
         filteredCpuInterval = 0;
         filteredTotalInterval = 0;
+        mFramesWritten = 0;
+        mTimestampValid = false;
+        mNextTimestampFrame = 0;
+        mRenderTelemetry.reset((framesPerBlock * NANOS_PER_SECOND) / mFrameRate);
     }
 
     @TargetApi(Build.VERSION_CODES.M)
@@ -164,12 +193,16 @@ public class SimpleAudioOutput {
         return track;
     }
 
+    @Override
     public int write(float[] buffer, int offset, int length) {
         endCpuLoadInterval();
         int result = mAudioTrack.write(buffer, offset, length,
                 AudioTrack.WRITE_BLOCKING);
         // This thread just woke up and will now render some audio.
         beginCpuLoadInterval();
+        if (result > 0) {
+            mFramesWritten += result / SAMPLES_PER_FRAME;
+        }
         if (result > 0 && mLatencyController.isAutoSizeEnabled()) {
             mLatencyTuner.update();
         }
@@ -197,6 +230,7 @@ public class SimpleAudioOutput {
         previousBeginTime = now;
     }
 
+    @Override
     public void stop() {
         if (mAudioTrack != null) {
             mAudioTrack.stop();
@@ -205,10 +239,56 @@ public class SimpleAudioOutput {
         }
     }
 
+    /**
+     * @return number of frames written since start()
+     */
+    @Override
+    public long getFramesWritten() {
+        return mFramesWritten;
+    }
+
+    /**
+     * Estimate when a frame will be heard, based on the AudioTrack timestamp.
+     * This should be called from the thread that calls write().
+     *
+     * @param framePosition frame index since start(), for example getFramesWritten()
+     * @return System.nanoTime() when the frame will be presented, or TIME_UNKNOWN
+     */
+    @Override
+    public long getFramePresentationTime(long framePosition) {
+        if (mFramesWritten >= mNextTimestampFrame) {
+            // Timestamps are not valid until the track has started playing.
+            if (mAudioTrack.getTimestamp(mTimestamp)) {
+                mTimestampValid = true;
+                mNextTimestampFrame = mFramesWritten + (mFrameRate / TIMESTAMPS_PER_SECOND);
+            }
+        }
+        if (!mTimestampValid) {
+            return TIME_UNKNOWN;
+        }
+        long deltaFrames = framePosition - mTimestamp.framePosition;
+        return mTimestamp.nanoTime + ((deltaFrames * NANOS_PER_SECOND) / mFrameRate);
+    }
+
+    @Override
+    public long getCurrentTime() {
+        return System.nanoTime();
+    }
+
+    @Override
     public int getFrameRate() {
         return mFrameRate;
     }
 
+    /**
+     * The caller should measure its rendering with this.
+     */
+    @Override
+    public RenderTelemetry getRenderTelemetry() {
+        return mRenderTelemetry;
+    }
+
+    @Override
     public LatencyController getLatencyController() {
         return mLatencyController;
     }
@@ -27,6 +27,10 @@ public class SineOscillator extends SawOscillator {
     private static final float IF9 = IF7 / (8 * 9);
     private static final float IF11 = IF9 / (10 * 11);
 
+    public SineOscillator(int sampleRate) {
+        super(sampleRate);
+    }
+
     /**
      * Calculate sine using Taylor expansion. Do not use values outside the range.
      *
@@ -51,4 +55,13 @@ public class SineOscillator extends SawOscillator {
         return fastSin(phase) * getAmplitude();
     }
 
+    @Override
+    public void render(float[] output, int offset, int numFrames) {
+        renderPhases(output, offset, numFrames);
+        float amplitude = getAmplitude();
+        for (int i = offset; i < offset + numFrames; i++) {
+            output[i] = fastSin(output[i]) * amplitude;
+        }
+    }
+
 }
@@ -25,7 +25,7 @@ public class SineVoice extends SawVoice {
     }
 
     @Override
-    protected SawOscillator createOscillator() {
-        return new SineOscillator();
+    protected SawOscillator createOscillator(int sampleRate) {
+        return new SineOscillator(sampleRate);
     }
 }
@@ -0,0 +1,253 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mobileer.miditools.synth;
+
+/**
+ * State of one MIDI channel in the SynthEngine.
+ *
+ * Changes to the volume and pan are smoothed over several blocks
+ * by calling advanceBlock() once per block. This avoids clicks when
+ * a controller is moved quickly.
+ */
+public class SynthChannel {
+    public static final float DEFAULT_BEND_RANGE = 2.0f; // semitones
+    private static final int BEND_CENTER = 0x2000;
+    private static final float SQRT_TWO = (float) Math.sqrt(2.0);
+    // Fraction of the remaining distance to the target gain covered in each block.
+    private static final float GAIN_SMOOTHING = 0.25f;
+    private static final float GAIN_EPSILON = 0.0001f;
+    private static final float VIBRATO_RATE = 5.5f; // Hz
+    private static final float VIBRATO_MAX_DEPTH = 0.5f; // semitones
+
+    private int mProgram;
+    private int mBend = BEND_CENTER;
+    private float mBendRange = DEFAULT_BEND_RANGE;
+    private float mBendScaler = 1.0f;
+    private float mFrequencyScaler = 1.0f;
+    private float mVolume = 1.0f;
+    private float mPan = 0.5f;
+    private float mTargetLeftGain = 1.0f;
+    private float mTargetRightGain = 1.0f;
+    private float mLeftGain = 1.0f;
+    private float mRightGain = 1.0f;
+    private float mModulation;
+    private float mVibratoPhase;
+    private float mVibratoSemitones;
+    private boolean mSustainOn;
+    private final boolean[] mSustainedNotes = new boolean[VoiceAllocator.NOTES_PER_CHANNEL];
+
+    public int getProgram() {
+        return mProgram;
+    }
+
+    public void setProgram(int program) {
+        mProgram = program;
+    }
+
+    /**
+     * @return 14-bit pitch bend, 0x2000 is centered
+     */
+    public int getBend() {
+        return mBend;
+    }
+
+    /**
+     * @param bend 14-bit pitch bend, 0x2000 is centered
+     */
+    public void setBend(int bend) {
+        mBend = bend;
+        updateBendScaler();
+    }
+
+    public float getBendRange() {
+        return mBendRange;
+    }
+
+    /**
+     * @param semitones how far a full pitch bend will change the pitch
+     */
+    public void setBendRange(float semitones) {
+        mBendRange = semitones;
+        updateBendScaler();
+    }
+
+    /**
+     * @return frequency multiplier based on the pitch bend and vibrato
+     */
+    public float getFrequencyScaler() {
+        return mFrequencyScaler;
+    }
+
+    private void updateBendScaler() {
+        float semitones = (mBendRange * (mBend - BEND_CENTER)) / BEND_CENTER;
+        mBendScaler = PitchTable.semitonesToRatio(semitones);
+        updateFrequencyScaler();
+    }
+
+    private void updateFrequencyScaler() {
+        if (mVibratoSemitones == 0.0f) {
+            mFrequencyScaler = mBendScaler;
+        } else {
+            mFrequencyScaler = mBendScaler
+                    * PitchTable.semitonesToRatio(mVibratoSemitones);
+        }
+    }
+
+    public float getModulation() {
+        return mModulation;
+    }
+
+    /**
+     * @param modulation vibrato depth between 0.0 and 1.0
+     */
+    public void setModulation(float modulation) {
+        mModulation = Math.max(0.0f, Math.min(1.0f, modulation));
+    }
+
+    public boolean isSustainOn() {
+        return mSustainOn;
+    }
+
+    public void setSustainOn(boolean on) {
+        mSustainOn = on;
+    }
+
+    /**
+     * @return true if the note was released while the sustain pedal was down
+     */
+    public boolean isNoteSustained(int noteIndex) {
+        return mSustainedNotes[noteIndex];
+    }
+
+    public void setNoteSustained(int noteIndex, boolean sustained) {
+        mSustainedNotes[noteIndex] = sustained;
+    }
+
+    public float getVolume() {
+        return mVolume;
+    }
+
+    /**
+     * @param volume linear gain between 0.0 and 1.0
+     */
+    public void setVolume(float volume) {
+        mVolume = volume;
+        updateGains();
+    }
+
+    public float getPan() {
+        return mPan;
+    }
+
+    /**
+     * @param pan 0.0 for left, 0.5 for center, 1.0 for right
+     */
+    public void setPan(float pan) {
+        mPan = Math.max(0.0f, Math.min(1.0f, pan));
+        updateGains();
+    }
+
+    /**
+     * Constant power panning, normalized so that the center has unity gain.
+     */
+    private void updateGains() {
+        double angle = mPan * Math.PI * 0.5;
+        mTargetLeftGain = (float) Math.cos(angle) * SQRT_TWO * mVolume;
+        mTargetRightGain = (float) Math.sin(angle) * SQRT_TWO * mVolume;
+    }
+
+    /**
+     * @return smoothed left gain for the current block
+     */
+    public float getLeftGain() {
+        return mLeftGain;
+    }
+
+    /**
+     * @return smoothed right gain for the current block
+     */
+    public float getRightGain() {
+        return mRightGain;
+    }
+
+    /**
+     * Move the gains toward their targets and advance the vibrato.
+     * Call this once at the start of each block.
+     *
+     * @param blockSeconds duration of the block
+     * @return true if the frequency scaler changed
+     */
+    public boolean advanceBlock(float blockSeconds) {
+        mLeftGain = smooth(mLeftGain, mTargetLeftGain);
+        mRightGain = smooth(mRightGain, mTargetRightGain);
+        if (mModulation > 0.0f) {
+            mVibratoPhase += VIBRATO_RATE * blockSeconds;
+            if (mVibratoPhase >= 1.0f) {
+                mVibratoPhase -= 1.0f;
+            }
+            mVibratoSemitones = mModulation * VIBRATO_MAX_DEPTH
+                    * (float) Math.sin(mVibratoPhase * 2.0 * Math.PI);
+            updateFrequencyScaler();
+            return true;
+        } else if (mVibratoSemitones != 0.0f) {
+            // Modulation was just turned off.
+            mVibratoSemitones = 0.0f;
+            mVibratoPhase = 0.0f;
+            updateFrequencyScaler();
+            return true;
+        }
+        return false;
+    }
+
+    private static float smooth(float current, float target) {
+        float difference = target - current;
+        if (Math.abs(difference) < GAIN_EPSILON) {
+            return target;
+        }
+        return current + (difference * GAIN_SMOOTHING);
+    }
+
+    /**
+     * Set the pitch bend, modulation and sustain back to the default values.
+     * This does not release notes that were held by the sustain pedal.
+     */
+    public void resetControllers() {
+        mBend = BEND_CENTER;
+        mModulation = 0.0f;
+        mSustainOn = false;
+        updateBendScaler();
+    }
+
+    /**
+     * Set everything except the program back to the default values.
+     */
+    public void reset() {
+        resetControllers();
+        mBendRange = DEFAULT_BEND_RANGE;
+        mVolume = 1.0f;
+        mPan = 0.5f;
+        mVibratoSemitones = 0.0f;
+        mVibratoPhase = 0.0f;
+        updateBendScaler();
+        updateGains();
+        mLeftGain = mTargetLeftGain;
+        mRightGain = mTargetRightGain;
+        for (int i = 0; i < mSustainedNotes.length; i++) {
+            mSustainedNotes[i] = false;
+        }
+    }
+}
@@ -19,18 +19,20 @@ package com.mobileer.miditools.synth;
 import android.media.midi.MidiReceiver;
 import android.util.Log;
 
+import com.mobileer.miditools.EventScheduler;
 import com.mobileer.miditools.MidiConstants;
 import com.mobileer.miditools.MidiEventScheduler;
 import com.mobileer.miditools.MidiFramer;
 
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Hashtable;
-import java.util.Iterator;
 
 /**
- * Very simple polyphonic, single channel synthesizer. It runs a background
+ * Very simple polyphonic, multitimbral synthesizer. It runs a background
  * thread that processes MIDI events and synthesizes audio.
+ * Each of the 16 MIDI channels has its own program, pitch bend,
+ * volume, pan, modulation and sustain.
+ * Messages that are not supported are counted but otherwise ignored.
+ * MIDI events are rendered at the frame that matches their timestamp.
  */
 public class SynthEngine extends MidiReceiver {
 
@@ -38,36 +40,92 @@ public class SynthEngine extends MidiReceiver {
     // 64 is the greatest common divisor of 192 and 128
     private static final int DEFAULT_FRAMES_PER_BLOCK = 64;
     private static final int SAMPLES_PER_FRAME = 2;
+    private static final float MASTER_LEVEL = 0.25f;
+    // Preallocate MIDI events so that we do not allocate memory while playing.
+    private static final int EVENT_ARENA_CAPACITY = 512;
+    private static final int EVENT_ARENA_MESSAGE_SIZE = 32;
+    private static final long NANOS_PER_SECOND = 1000000000L;
+    // Controls how slowly the event latency follows a lower output latency.
+    private static final int LATENCY_DECAY_SHIFT = 12;
+    private static final int DEFAULT_MAX_VOICES = 64;
+    // createVoice() uses the low three bits of the program number.
+    private static final int NUM_VOICE_PROGRAMS = 8;
+    // Parallel rendering is not worth the overhead for small amounts of work.
+    private static final int MIN_PARALLEL_VOICES = 8;
+    private static final int MIN_PARALLEL_FRAMES = 16;
 
     private volatile boolean mThreadEnabled;
     private Thread mThread;
     private float[] mBuffer = null;
-    private float mFrequencyScaler = 1.0f;
-    private float mBendRange = 2.0f; // semitones
-    private int mProgram;
+    private final SynthChannel[] mChannels = new SynthChannel[MidiConstants.MAX_CHANNELS];
 
-    private ArrayList<SynthVoice> mFreeVoices = new ArrayList<SynthVoice>();
-    private Hashtable<Integer, SynthVoice>
-            mVoices = new Hashtable<Integer, SynthVoice>();
+    private int mMaxVoices = DEFAULT_MAX_VOICES;
+    private int mStealPolicy = VoiceAllocator.STEAL_OLDEST;
+    private int mEnvelopeMode = EnvelopeADSR.MODE_LINEAR;
+    private VoiceAllocator.VoiceFactory mVoiceFactory = new VoiceAllocator.VoiceFactory() {
+        @Override
+        public SynthVoice createVoice(int program) {
+            return SynthEngine.this.createVoice(program);
+        }
+    };
+    private VoiceAllocator mVoiceAllocator;
+    private int mRenderThreadCount;
+    private ParallelVoiceRenderer mParallelRenderer;
+    private ParallelVoiceRenderer.PartitionTask mPartitionTask =
+            new ParallelVoiceRenderer.PartitionTask() {
+        @Override
+        public void renderPartition(int partition, int numPartitions, float[] buffer,
+                int frameOffset, int numFrames) {
+            mixVoices(buffer, frameOffset, numFrames, partition, numPartitions);
+        }
+    };
     private MidiEventScheduler mEventScheduler;
     private MidiFramer mFramer;
     private MidiReceiver mReceiver = new MyReceiver();
-    private SimpleAudioOutput mAudioOutput;
+    private EventScheduler.EventSink mEventSink = new MyEventSink();
+    private AudioSink mAudioOutput;
     private int mSampleRate;
     private int mFramesPerBlock = DEFAULT_FRAMES_PER_BLOCK;
     private int mMidiByteCount;
+    // Only written by the synthesis thread.
+    private volatile int mUnhandledMessageCount;
+    private float mSecondsPerBlock;
+    // Used to place MIDI events at the correct frame within a block.
+    private long mBlockStartTime;
+    private long mNanosPerBlock;
+    private RenderTelemetry mTelemetry;
+    private int mRenderedVoiceCount; // for telemetry
+    private boolean mOffline;
+    private long mEventLatencyNanos;
+    private int mFrameCursor;
 
     public SynthEngine() {
         this(new SimpleAudioOutput());
     }
 
-    public SynthEngine(SimpleAudioOutput audioOutput) {
+    /**
+     * @param audioOutput for example SimpleAudioOutput or OfflineAudioSink
+     */
+    public SynthEngine(AudioSink audioOutput) {
         mAudioOutput = audioOutput;
         mReceiver = new MyReceiver();
         mFramer = new MidiFramer(mReceiver);
+        mVoiceAllocator = new VoiceAllocator(mVoiceFactory, mMaxVoices,
+                NUM_VOICE_PROGRAMS);
+        for (int i = 0; i < mChannels.length; i++) {
+            mChannels[i] = new SynthChannel();
+        }
     }
 
-    public SimpleAudioOutput getAudioOutput() {
+    /**
+     * @param channel between 0 and 15
+     * @return state of the channel
+     */
+    public SynthChannel getChannel(int channel) {
+        return mChannels[channel];
+    }
+
+    public AudioSink getAudioOutput() {
         return mAudioOutput;
     }
 
@@ -92,6 +150,61 @@ public class SynthEngine extends MidiReceiver {
         mFramesPerBlock = framesPerBlock;
     }
 
+    public int getFramesPerBlock() {
+        return mFramesPerBlock;
+    }
+
+
+    /**
+     * Call this before the engine is started.
+     * @param maxVoices maximum number of voices that can play at once
+     */
+    public void setMaxVoices(int maxVoices) {
+        mMaxVoices = maxVoices;
+    }
+
+    public int getMaxVoices() {
+        return mMaxVoices;
+    }
+
+    /**
+     * Call this before the engine is started.
+     * @param policy VoiceAllocator.STEAL_OLDEST, STEAL_QUIETEST or STEAL_SAME_NOTE
+     */
+    public void setStealPolicy(int policy) {
+        mStealPolicy = policy;
+    }
+
+    public int getStealPolicy() {
+        return mStealPolicy;
+    }
+
+    /**
+     * Call this before the engine is started.
+     * @param mode EnvelopeADSR.MODE_LINEAR or MODE_EXPONENTIAL
+     */
+    public void setEnvelopeMode(int mode) {
+        mEnvelopeMode = mode;
+    }
+
+    public int getEnvelopeMode() {
+        return mEnvelopeMode;
+    }
+
+    /**
+     * Call this before the engine is started.
+     * If greater than zero then voices will be rendered on this many extra
+     * threads, in addition to the synthesis thread, when there are many voices.
+     *
+     * @param threadCount
+     */
+    public void setRenderThreadCount(int threadCount) {
+        mRenderThreadCount = threadCount;
+    }
+
+    public int getRenderThreadCount() {
+        return mRenderThreadCount;
+    }
 
     private class MyReceiver extends MidiReceiver {
         @Override
@@ -111,43 +224,100 @@ public class SynthEngine extends MidiReceiver {
                 pitchBend(channel, bend);
                 break;
             case MidiConstants.STATUS_PROGRAM_CHANGE:
-                mProgram = data[1];
-                mFreeVoices.clear();
+                mChannels[channel].setProgram(data[1]);
+                break;
+            case MidiConstants.STATUS_CONTROL_CHANGE:
+                controlChange(channel, data[1], data[2]);
                 break;
             default:
-                logMidiMessage(data, offset, count);
+                // Do not log here because it would allocate memory on the audio thread.
+                mUnhandledMessageCount++;
                 break;
             }
         }
     }
 
+    // Pass scheduled MIDI events to the synthesizer.
+    private class MyEventSink implements EventScheduler.EventSink {
+        @Override
+        public void onEventReady(EventScheduler.SchedulableEvent event) {
+            MidiEventScheduler.MidiEvent midiEvent = (MidiEventScheduler.MidiEvent) event;
+            // Render the voices up to the event so it starts on the right frame.
+            int frame = timeToFrameOffset(event.getTimestamp());
+            if (frame > mFrameCursor) {
+                renderVoices(mFrameCursor, frame - mFrameCursor);
+                mFrameCursor = frame;
+            }
+            try {
+                mFramer.send(midiEvent.data, 0, midiEvent.count, midiEvent.getTimestamp());
+            } catch (IOException e) {
+                Log.e(TAG, "SynthEngine could not process MIDI event.", e);
+            }
+            mEventScheduler.addEventToPool(event);
+        }
+    }
+
     class MyRunnable implements Runnable {
         @Override
         public void run() {
             try {
-                mAudioOutput.start(mFramesPerBlock);
-                mSampleRate = mAudioOutput.getFrameRate(); // rate is now valid
-                if (mBuffer == null) {
-                    mBuffer = new float[mFramesPerBlock * SAMPLES_PER_FRAME];
-                }
-                onLoopStarted();
+                beginLoop();
                 // The safest way to exit from a thread is to check a variable.
                 while (mThreadEnabled) {
-                    processMidiEvents();
-                    generateBuffer();
-                    float[] buffer = mBuffer;
-                    mAudioOutput.write(buffer, 0, buffer.length);
-                    onBufferCompleted(mFramesPerBlock);
+                    renderBlock();
                 }
             } catch (Exception e) {
                 Log.e(TAG, "SynthEngine background thread exception.", e);
             } finally {
-                onLoopEnded();
-                mAudioOutput.stop();
+                endLoop();
             }
         }
     }
 
+    private void beginLoop() {
+        mAudioOutput.start(mFramesPerBlock);
+        mSampleRate = mAudioOutput.getFrameRate(); // rate is now valid
+        if (mBuffer == null || mBuffer.length != mFramesPerBlock * SAMPLES_PER_FRAME) {
+            mBuffer = new float[mFramesPerBlock * SAMPLES_PER_FRAME];
+        }
+        mNanosPerBlock = (mFramesPerBlock * NANOS_PER_SECOND) / mSampleRate;
+        mSecondsPerBlock = (float) mFramesPerBlock / mSampleRate;
+        // Create new voices because they depend on the sample rate.
+        mVoiceAllocator = new VoiceAllocator(mVoiceFactory, mMaxVoices,
+                NUM_VOICE_PROGRAMS);
+        mVoiceAllocator.setStealPolicy(mStealPolicy);
+        if (mRenderThreadCount > 0) {
+            mParallelRenderer = new ParallelVoiceRenderer(mRenderThreadCount,
+                    mFramesPerBlock, SAMPLES_PER_FRAME);
+        }
+        mEventLatencyNanos = 0;
+        mTelemetry = mAudioOutput.getRenderTelemetry();
+        onLoopStarted();
+    }
+
+    private void renderBlock() {
+        RenderTelemetry telemetry = mTelemetry;
+        if (telemetry != null) {
+            telemetry.beginBlock();
+        }
+        int eventCount = generateBuffer();
+        if (telemetry != null) {
+            telemetry.endBlock(mRenderedVoiceCount, eventCount);
+        }
+        float[] buffer = mBuffer;
+        mAudioOutput.write(buffer, 0, buffer.length);
+        onBufferCompleted(mFramesPerBlock);
+    }
+
+    private void endLoop() {
+        if (mParallelRenderer != null) {
+            mParallelRenderer.close();
+            mParallelRenderer = null;
+        }
+        onLoopEnded();
+        mAudioOutput.stop();
+    }
+
     /**
      * This is called from the synthesis thread before it starts looping.
      */
@@ -184,64 +354,238 @@ public class SynthEngine extends MidiReceiver {
     }
 
     /**
-     * @throws IOException
+     * Calculate the end of the time window for MIDI events that will be
+     * rendered in the next block.
      *
+     * Events are delayed by the output latency so that the block is heard
+     * at the same relative time as the events. This keeps the timing
+     * between events accurate to one frame.
      */
-    private void processMidiEvents() throws IOException {
-        long now = System.nanoTime(); // TODO use audio presentation time
-        MidiEventScheduler.MidiEvent event = (MidiEventScheduler.MidiEvent) mEventScheduler.getNextEvent(now);
-        while (event != null) {
-            mFramer.send(event.data, 0, event.count, event.getTimestamp());
-            mEventScheduler.addEventToPool(event);
-            event = (MidiEventScheduler.MidiEvent) mEventScheduler.getNextEvent(now);
+    private long calculateEventWindowEnd() {
+        long now = mAudioOutput.getCurrentTime();
+        long presentationTime = mAudioOutput.getFramePresentationTime(
+                mAudioOutput.getFramesWritten());
+        if (presentationTime == AudioSink.TIME_UNKNOWN) {
+            return now;
+        }
+        // Do not render events that may not have arrived yet.
+        long latency = presentationTime - now;
+        if (latency > mEventLatencyNanos) {
+            mEventLatencyNanos = latency;
+        } else {
+            // Slowly follow the latency down if the buffer size is lowered.
+            mEventLatencyNanos -= (mEventLatencyNanos - latency) >> LATENCY_DECAY_SHIFT;
         }
+        return presentationTime - mEventLatencyNanos;
     }
 
     /**
-     * Mix the output of each active voice into a buffer.
+     * @param time event timestamp
+     * @return offset of the frame within the current block
      */
-    private void generateBuffer() {
+    private int timeToFrameOffset(long time) {
+        long nanos = time - mBlockStartTime;
+        if (nanos <= 0) {
+            return 0; // late
+        }
+        long frame = (nanos * mSampleRate) / NANOS_PER_SECOND;
+        return (int) Math.min(frame, mFramesPerBlock - 1);
+    }
+
+    /**
+     * Render one block of audio. The MIDI events that are ready are applied
+     * at the frame that corresponds to their timestamp.
+     *
+     * @return number of MIDI events applied
+     */
+    private int generateBuffer() {
         float[] buffer = mBuffer;
         for (int i = 0; i < buffer.length; i++) {
             buffer[i] = 0.0f;
         }
-        Iterator<SynthVoice> iterator = mVoices.values().iterator();
-        while (iterator.hasNext()) {
-            SynthVoice voice = iterator.next();
-            if (voice.isDone()) {
-                iterator.remove();
-                // mFreeVoices.add(voice);
-            } else {
-                voice.mix(buffer, SAMPLES_PER_FRAME, 0.25f);
+        advanceChannels();
+        long windowEnd = calculateEventWindowEnd();
+        mBlockStartTime = windowEnd - mNanosPerBlock;
+        mFrameCursor = 0;
+        // The event sink will render the voices up to each event.
+        int eventCount = mEventScheduler.drainReadyEvents(windowEnd, mEventSink);
+        renderVoices(mFrameCursor, mFramesPerBlock - mFrameCursor);
+        mRenderedVoiceCount = mVoiceAllocator.getActiveCount();
+        // Free the voices that finished in this block so they can be reused.
+        mVoiceAllocator.retireFinishedVoices();
+        return eventCount;
+    }
+
+    // Smooth the channel gains and update the vibrato once per block.
+    private void advanceChannels() {
+        for (int i = 0; i < mChannels.length; i++) {
+            if (mChannels[i].advanceBlock(mSecondsPerBlock)) {
+                updateFrequencyScalers(i);
             }
         }
     }
 
+    /**
+     * Mix the output of each active voice into part of the buffer.
+     */
+    private void renderVoices(int frameOffset, int numFrames) {
+        mVoiceAllocator.retireFinishedVoices();
+        if (mParallelRenderer != null
+                && mVoiceAllocator.getActiveCount() >= MIN_PARALLEL_VOICES
+                && numFrames >= MIN_PARALLEL_FRAMES) {
+            mParallelRenderer.render(mPartitionTask, mBuffer, frameOffset, numFrames);
+        } else {
+            mixVoices(mBuffer, frameOffset, numFrames, 0, 1);
+        }
+    }
+
+    /**
+     * Mix every Nth active voice into the buffer.
+     *
+     * @param first index of the first voice to mix
+     * @param step mix every step voices
+     */
+    private void mixVoices(float[] buffer, int frameOffset, int numFrames,
+            int first, int step) {
+        VoiceAllocator allocator = mVoiceAllocator;
+        int count = allocator.getActiveCount();
+        for (int i = first; i < count; i += step) {
+            SynthVoice voice = allocator.getActiveVoice(i);
+            SynthChannel channel = mChannels[voice.getChannel()];
+            voice.mixStereo(buffer, frameOffset, numFrames,
+                    MASTER_LEVEL * channel.getLeftGain(),
+                    MASTER_LEVEL * channel.getRightGain());
+        }
+    }
+
     public void noteOff(int channel, int noteIndex, int velocity) {
-        SynthVoice voice = mVoices.get(noteIndex);
-        if (voice != null) {
-            voice.noteOff();
+        SynthChannel synthChannel = mChannels[channel];
+        if (synthChannel.isSustainOn()) {
+            // Keep playing until the sustain pedal is released.
+            if (mVoiceAllocator.findVoice(channel, noteIndex) != null) {
+                synthChannel.setNoteSustained(noteIndex, true);
+            }
+        } else {
+            mVoiceAllocator.release(channel, noteIndex);
         }
     }
 
     public void allNotesOff() {
-        Iterator<SynthVoice> iterator = mVoices.values().iterator();
-        while (iterator.hasNext()) {
-            SynthVoice voice = iterator.next();
-            voice.noteOff();
+        mVoiceAllocator.releaseAll();
+        for (int i = 0; i < mChannels.length; i++) {
+            clearSustainedNotes(i);
+        }
+    }
+
+    /**
+     * Handle a MIDI Control Change message.
+     *
+     * @param channel
+     * @param controller
+     * @param value between 0 and 127
+     */
+    public void controlChange(int channel, int controller, int value) {
+        switch (controller) {
+        case MidiConstants.CONTROLLER_MODULATION:
+            mChannels[channel].setModulation(value / 127.0f);
+            break;
+        case MidiConstants.CONTROLLER_VOLUME:
+            setVolume(channel, value / 127.0f);
+            break;
+        case MidiConstants.CONTROLLER_PAN:
+            setPan(channel, value / 127.0f);
+            break;
+        case MidiConstants.CONTROLLER_SUSTAIN:
+            setSustain(channel, value >= 64);
+            break;
+        case MidiConstants.CONTROLLER_ALL_SOUND_OFF:
+            mVoiceAllocator.stopChannel(channel);
+            clearSustainedNotes(channel);
+            break;
+        case MidiConstants.CONTROLLER_RESET_ALL:
+            mChannels[channel].resetControllers();
+            updateFrequencyScalers(channel);
+            releaseSustainedNotes(channel);
+            break;
+        case MidiConstants.CONTROLLER_ALL_NOTES_OFF:
+            for (int i = 0; i < VoiceAllocator.NOTES_PER_CHANNEL; i++) {
+                noteOff(channel, i, 0);
+            }
+            break;
+        default:
+            mUnhandledMessageCount++;
+            break;
         }
     }
 
     /**
-     * Create a SynthVoice.
+     * @param channel
+     * @param on true if the sustain pedal is down
+     */
+    public void setSustain(int channel, boolean on) {
+        mChannels[channel].setSustainOn(on);
+        if (!on) {
+            releaseSustainedNotes(channel);
+        }
+    }
+
+    private void releaseSustainedNotes(int channel) {
+        SynthChannel synthChannel = mChannels[channel];
+        for (int i = 0; i < VoiceAllocator.NOTES_PER_CHANNEL; i++) {
+            if (synthChannel.isNoteSustained(i)) {
+                synthChannel.setNoteSustained(i, false);
+                mVoiceAllocator.release(channel, i);
+            }
+        }
+    }
+
+    private void clearSustainedNotes(int channel) {
+        SynthChannel synthChannel = mChannels[channel];
+        for (int i = 0; i < VoiceAllocator.NOTES_PER_CHANNEL; i++) {
+            synthChannel.setNoteSustained(i, false);
+        }
+    }
+
+    /**
+     * Create a SynthVoice. The low three bits of the program number select:
+     * 0 sawtooth, 1 sine, 2 wavetable sawtooth, 3 wavetable square,
+     * 4 PolyBLEP sawtooth, 5 PolyBLEP square, 6 PolyBLEP triangle
+     * and 7 PolyBLEP pulse.
      */
     public SynthVoice createVoice(int program) {
-        // For every odd program number use a sine wave.
-        if ((program & 1) == 1) {
-            return new SineVoice(mSampleRate);
-        } else {
-            return new SawVoice(mSampleRate);
+        SawVoice voice;
+        switch (program & 7) {
+        case 1:
+            voice = new SineVoice(mSampleRate);
+            break;
+        case 2:
+            voice = new WavetableVoice(mSampleRate, Wavetable.getSawtooth());
+            break;
+        case 3:
+            voice = new WavetableVoice(mSampleRate, Wavetable.getSquare());
+            break;
+        case 4:
+            voice = new PolyBlepVoice(mSampleRate,
+                    PolyBlepOscillator.WAVEFORM_SAWTOOTH, 0.5f);
+            break;
+        case 5:
+            voice = new PolyBlepVoice(mSampleRate,
+                    PolyBlepOscillator.WAVEFORM_PULSE, 0.5f);
+            break;
+        case 6:
+            voice = new PolyBlepVoice(mSampleRate,
+                    PolyBlepOscillator.WAVEFORM_TRIANGLE, 0.5f);
+            break;
+        case 7:
+            voice = new PolyBlepVoice(mSampleRate,
+                    PolyBlepOscillator.WAVEFORM_PULSE, 0.25f);
+            break;
+        default:
+            voice = new SawVoice(mSampleRate);
+            break;
         }
+        voice.getEnvelope().setMode(mEnvelopeMode);
+        return voice;
     }
 
     /**
@@ -254,29 +598,57 @@ public class SynthEngine extends MidiReceiver {
         if (velocity == 0) {
             noteOff(channel, noteIndex, velocity);
         } else {
-            mVoices.remove(noteIndex);
-            SynthVoice voice;
-            if (mFreeVoices.size() > 0) {
-                voice = mFreeVoices.remove(mFreeVoices.size() - 1);
-            } else {
-                voice = createVoice(mProgram);
-            }
-            voice.setFrequencyScaler(mFrequencyScaler);
+            SynthChannel synthChannel = mChannels[channel];
+            SynthVoice voice = mVoiceAllocator.allocate(channel, noteIndex,
+                    synthChannel.getProgram() % NUM_VOICE_PROGRAMS);
+            synthChannel.setNoteSustained(noteIndex, false);
+            voice.setFrequencyScaler(synthChannel.getFrequencyScaler());
             voice.noteOn(noteIndex, velocity);
-            mVoices.put(noteIndex, voice);
         }
     }
 
     public void pitchBend(int channel, int bend) {
-        double semitones = (mBendRange * (bend - 0x2000)) / 0x2000;
-        mFrequencyScaler = (float) Math.pow(2.0, semitones / 12.0);
-        Iterator<SynthVoice> iterator = mVoices.values().iterator();
-        while (iterator.hasNext()) {
-            SynthVoice voice = iterator.next();
-            voice.setFrequencyScaler(mFrequencyScaler);
+        mChannels[channel].setBend(bend);
+        updateFrequencyScalers(channel);
+    }
+
+    /**
+     * @param channel
+     * @param semitones how far a full pitch bend will change the pitch
+     */
+    public void setBendRange(int channel, float semitones) {
+        mChannels[channel].setBendRange(semitones);
+        updateFrequencyScalers(channel);
+    }
+
+    // Apply the channel pitch bend to the voices playing on that channel.
+    private void updateFrequencyScalers(int channel) {
+        float scaler = mChannels[channel].getFrequencyScaler();
+        VoiceAllocator allocator = mVoiceAllocator;
+        for (int i = 0; i < allocator.getActiveCount(); i++) {
+            SynthVoice voice = allocator.getActiveVoice(i);
+            if (voice.getChannel() == channel) {
+                voice.setFrequencyScaler(scaler);
+            }
         }
     }
 
+    /**
+     * @param channel
+     * @param volume linear gain between 0.0 and 1.0
+     */
+    public void setVolume(int channel, float volume) {
+        mChannels[channel].setVolume(volume);
+    }
+
+    /**
+     * @param channel
+     * @param pan 0.0 for left, 0.5 for center, 1.0 for right
+     */
+    public void setPan(int channel, float pan) {
+        mChannels[channel].setPan(pan);
+    }
+
     /**
      * Start the synthesizer.
      */
@@ -284,14 +656,50 @@ public class SynthEngine extends MidiReceiver {
         stop();
         mThreadEnabled = true;
         mThread = new Thread(new MyRunnable());
-        mEventScheduler = new MidiEventScheduler();
+        // The audio thread must never block waiting for the MIDI thread.
+        mEventScheduler = new MidiEventScheduler(EVENT_ARENA_CAPACITY,
+                EVENT_ARENA_MESSAGE_SIZE);
         mThread.start();
     }
 
+    /**
+     * Prepare to render on the calling thread instead of a background thread.
+     * This is for rendering faster than real time with an OfflineAudioSink.
+     * Send MIDI with timestamps in AudioSink.getCurrentTime() units, which
+     * starts at zero for an OfflineAudioSink, then call renderBlocks().
+     * Call stop() when finished.
+     */
+    public void startOffline() {
+        stop();
+        mEventScheduler = new MidiEventScheduler(EVENT_ARENA_CAPACITY,
+                EVENT_ARENA_MESSAGE_SIZE);
+        beginLoop();
+        mOffline = true;
+    }
+
+    /**
+     * Render and write blocks on the calling thread.
+     *
+     * @param numBlocks number of blocks of getFramesPerBlock() frames
+     */
+    public void renderBlocks(int numBlocks) {
+        if (!mOffline) {
+            throw new IllegalStateException("startOffline() has not been called");
+        }
+        for (int i = 0; i < numBlocks; i++) {
+            renderBlock();
+        }
+    }
+
     /**
      * Stop the synthesizer.
      */
     public void stop() {
+        if (mOffline) {
+            mOffline = false;
+            endLoop();
+            mEventScheduler = null;
+        }
         mThreadEnabled = false;
         if (mThread != null) {
             try {
@@ -305,6 +713,9 @@ public class SynthEngine extends MidiReceiver {
         }
     }
 
+    /**
+     * @return latency control, or null if the audio output does not have one
+     */
     public LatencyController getLatencyController() {
         return mAudioOutput.getLatencyController();
     }
@@ -312,4 +723,11 @@ public class SynthEngine extends MidiReceiver {
     public int getMidiByteCount() {
         return mMidiByteCount;
     }
+
+    /**
+     * @return number of MIDI messages and controllers that the synthesizer ignored
+     */
+    public int getUnhandledMessageCount() {
+        return mUnhandledMessageCount;
+    }
 }
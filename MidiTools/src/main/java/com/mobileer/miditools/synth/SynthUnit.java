@@ -32,4 +32,19 @@ public abstract class SynthUnit {
     }
 
     public abstract float render();
+
+    /**
+     * Render a block of values.
+     * Subclasses should override this with a loop that does not call render()
+     * for every frame.
+     *
+     * @param output
+     * @param offset index of the first value to write
+     * @param numFrames number of values to write
+     */
+    public void render(float[] output, int offset, int numFrames) {
+        for (int i = 0; i < numFrames; i++) {
+            output[offset + i] = render();
+        }
+    }
 }
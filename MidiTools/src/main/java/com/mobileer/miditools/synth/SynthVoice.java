@@ -21,10 +21,14 @@ package com.mobileer.miditools.synth;
  */
 public abstract class SynthVoice {
     private int mNoteIndex;
+    private int mChannel;
+    private int mProgram;
     private float mAmplitude;
     public static final int STATE_OFF = 0;
     public static final int STATE_ON = 1;
     private int mState = STATE_OFF;
+    // Holds one block of output from render().
+    private float[] mScratch = new float[0];
 
     public SynthVoice() {
         mNoteIndex = -1;
@@ -40,6 +44,13 @@ public abstract class SynthVoice {
         mState = STATE_OFF;
     }
 
+    /**
+     * Silence the voice immediately, without a release.
+     */
+    public void stop() {
+        mState = STATE_OFF;
+    }
+
     /**
      * Add the output of this voice to an output buffer.
      *
@@ -48,18 +59,76 @@ public abstract class SynthVoice {
      * @param level
      */
     public void mix(float[] outputBuffer, int samplesPerFrame, float level) {
-        int numFrames = outputBuffer.length / samplesPerFrame;
+        mix(outputBuffer, 0, outputBuffer.length / samplesPerFrame, samplesPerFrame, level);
+    }
+
+    /**
+     * Add the output of this voice to part of an output buffer.
+     *
+     * @param outputBuffer
+     * @param frameOffset first frame to write
+     * @param numFrames number of frames to write
+     * @param samplesPerFrame
+     * @param level
+     */
+    public void mix(float[] outputBuffer, int frameOffset, int numFrames,
+            int samplesPerFrame, float level) {
+        if (mScratch.length < numFrames) {
+            mScratch = new float[numFrames];
+        }
+        float[] scratch = mScratch;
+        render(scratch, 0, numFrames);
+        int offset = frameOffset * samplesPerFrame;
         for (int i = 0; i < numFrames; i++) {
-            float output = render();
-            int offset = i * samplesPerFrame;
+            float output = scratch[i] * level;
             for (int jf = 0; jf < samplesPerFrame; jf++) {
-                outputBuffer[offset + jf] += output * level;
+                outputBuffer[offset + jf] += output;
             }
+            offset += samplesPerFrame;
+        }
+    }
+
+    /**
+     * Add the output of this voice to part of a stereo output buffer.
+     *
+     * @param outputBuffer interleaved stereo
+     * @param frameOffset first frame to write
+     * @param numFrames number of frames to write
+     * @param leftLevel
+     * @param rightLevel
+     */
+    public void mixStereo(float[] outputBuffer, int frameOffset, int numFrames,
+            float leftLevel, float rightLevel) {
+        if (mScratch.length < numFrames) {
+            mScratch = new float[numFrames];
+        }
+        float[] scratch = mScratch;
+        render(scratch, 0, numFrames);
+        int offset = frameOffset * 2;
+        for (int i = 0; i < numFrames; i++) {
+            float output = scratch[i];
+            outputBuffer[offset++] += output * leftLevel;
+            outputBuffer[offset++] += output * rightLevel;
         }
     }
 
     public abstract float render();
 
+    /**
+     * Render a block of this voice.
+     * Subclasses should override this to render each SynthUnit one block
+     * at a time. By default it calls render() for each frame.
+     *
+     * @param output
+     * @param offset index of the first value to write
+     * @param numFrames number of values to write
+     */
+    public void render(float[] output, int offset, int numFrames) {
+        for (int i = 0; i < numFrames; i++) {
+            output[offset + i] = render();
+        }
+    }
+
     public boolean isDone() {
         return mState == STATE_OFF;
     }
@@ -68,6 +137,33 @@ public abstract class SynthVoice {
         return mNoteIndex;
     }
 
+    public int getChannel() {
+        return mChannel;
+    }
+
+    public void setChannel(int channel) {
+        mChannel = channel;
+    }
+
+    /**
+     * @return the program that was used to create this voice
+     */
+    public int getProgram() {
+        return mProgram;
+    }
+
+    public void setProgram(int program) {
+        mProgram = program;
+    }
+
+    /**
+     * Used when deciding which voice to steal.
+     * @return approximate output level of the voice
+     */
+    public float getCurrentLevel() {
+        return isDone() ? 0.0f : mAmplitude;
+    }
+
     public float getAmplitude() {
         return mAmplitude;
     }
@@ -0,0 +1,315 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mobileer.miditools.synth;
+
+import com.mobileer.miditools.MidiConstants;
+
+/**
+ * Fixed capacity table of SynthVoices.
+ *
+ * Active voices are kept in an array. Each channel has a 128 entry
+ * table that maps a note to the voice that is playing it. Voices that
+ * finish are returned to a free pool and reused. When every voice is
+ * in use a voice is stolen based on the stealing policy.
+ *
+ * The constructor creates maxVoices voices for each program, so there is
+ * always a voice for a new note without calling the factory again.
+ * No memory is allocated after that.
+ *
+ * This should only be called from the synthesis thread.
+ */
+public class VoiceAllocator {
+    // Steal the voice that was started first.
+    public static final int STEAL_OLDEST = 0;
+    // Steal the voice with the lowest output level.
+    public static final int STEAL_QUIETEST = 1;
+    // Steal a voice playing the same note on the same channel, else the oldest.
+    public static final int STEAL_SAME_NOTE = 2;
+
+    public static final int NOTES_PER_CHANNEL = 128;
+
+    /**
+     * Creates the voices. Only called by the constructor.
+     */
+    public interface VoiceFactory {
+        SynthVoice createVoice(int program);
+    }
+
+    private final int mMaxVoices;
+    private final int mNumPrograms;
+    private final SynthVoice[] mActiveVoices;
+    // When each active voice was started. Used to find the oldest voice.
+    private final long[] mActiveAges;
+    private int mActiveCount;
+    // Voices that are not active, indexed by program.
+    private final SynthVoice[][] mFreeVoices;
+    private final int[] mFreeCounts;
+    // Voice holding each note, indexed by (channel * NOTES_PER_CHANNEL) + note.
+    private final SynthVoice[] mNoteVoices;
+    private long mNextAge;
+    private int mStealPolicy = STEAL_OLDEST;
+    private int mStolenCount;
+
+    /**
+     * Create an allocator for program 0 only.
+     *
+     * @param factory used to create voices
+     * @param maxVoices maximum number of voices that can play at the same time
+     */
+    public VoiceAllocator(VoiceFactory factory, int maxVoices) {
+        this(factory, maxVoices, 1);
+    }
+
+    /**
+     * @param factory used to create voices
+     * @param maxVoices maximum number of voices that can play at the same time
+     * @param numPrograms voices are created for programs 0 to numPrograms - 1
+     */
+    public VoiceAllocator(VoiceFactory factory, int maxVoices, int numPrograms) {
+        if (maxVoices <= 0) {
+            throw new IllegalArgumentException("maxVoices must be positive, " + maxVoices);
+        }
+        if (numPrograms <= 0) {
+            throw new IllegalArgumentException("numPrograms must be positive, " + numPrograms);
+        }
+        mMaxVoices = maxVoices;
+        mNumPrograms = numPrograms;
+        mActiveVoices = new SynthVoice[maxVoices];
+        mActiveAges = new long[maxVoices];
+        mFreeVoices = new SynthVoice[numPrograms][maxVoices];
+        mFreeCounts = new int[numPrograms];
+        mNoteVoices = new SynthVoice[MidiConstants.MAX_CHANNELS * NOTES_PER_CHANNEL];
+        for (int program = 0; program < numPrograms; program++) {
+            for (int i = 0; i < maxVoices; i++) {
+                SynthVoice voice = factory.createVoice(program);
+                voice.setProgram(program);
+                mFreeVoices[program][i] = voice;
+            }
+            mFreeCounts[program] = maxVoices;
+        }
+    }
+
+    /**
+     * @param policy STEAL_OLDEST, STEAL_QUIETEST or STEAL_SAME_NOTE
+     */
+    public void setStealPolicy(int policy) {
+        mStealPolicy = policy;
+    }
+
+    public int getStealPolicy() {
+        return mStealPolicy;
+    }
+
+    public int getMaxVoices() {
+        return mMaxVoices;
+    }
+
+    public int getNumPrograms() {
+        return mNumPrograms;
+    }
+
+    /**
+     * @return number of voices that are playing or releasing
+     */
+    public int getActiveCount() {
+        return mActiveCount;
+    }
+
+    /**
+     * @param index between 0 and getActiveCount() - 1
+     * @return active voice
+     */
+    public SynthVoice getActiveVoice(int index) {
+        return mActiveVoices[index];
+    }
+
+    /**
+     * @return number of voices that were stolen while still playing
+     */
+    public int getStolenCount() {
+        return mStolenCount;
+    }
+
+    /**
+     * @return the voice holding the note or null
+     */
+    public SynthVoice findVoice(int channel, int noteIndex) {
+        return mNoteVoices[(channel * NOTES_PER_CHANNEL) + noteIndex];
+    }
+
+    /**
+     * Get a voice for a new note. A voice already holding the same note
+     * is released.
+     * The caller should call noteOn() on the returned voice.
+     *
+     * @param program between 0 and getNumPrograms() - 1
+     * @return voice that is now active
+     */
+    public SynthVoice allocate(int channel, int noteIndex, int program) {
+        if (program < 0 || program >= mNumPrograms) {
+            throw new IllegalArgumentException("program out of range, " + program);
+        }
+        int noteSlot = (channel * NOTES_PER_CHANNEL) + noteIndex;
+        SynthVoice previous = mNoteVoices[noteSlot];
+        if (previous != null) {
+            // Let the previous voice for this note fade out.
+            previous.noteOff();
+            mNoteVoices[noteSlot] = null;
+        }
+        SynthVoice voice;
+        if (mActiveCount < mMaxVoices) {
+            // Each program has maxVoices voices so one of them is free.
+            voice = removeFreeVoice(program);
+        } else {
+            voice = stealVoice(channel, noteIndex, program);
+        }
+        voice.setChannel(channel);
+        mActiveVoices[mActiveCount] = voice;
+        mActiveAges[mActiveCount] = mNextAge++;
+        mActiveCount++;
+        mNoteVoices[noteSlot] = voice;
+        return voice;
+    }
+
+    /**
+     * Release the voice holding the note.
+     *
+     * @return the voice that was released or null
+     */
+    public SynthVoice release(int channel, int noteIndex) {
+        int noteSlot = (channel * NOTES_PER_CHANNEL) + noteIndex;
+        SynthVoice voice = mNoteVoices[noteSlot];
+        if (voice != null) {
+            voice.noteOff();
+            mNoteVoices[noteSlot] = null;
+        }
+        return voice;
+    }
+
+    /**
+     * Release every voice that is holding a note.
+     */
+    public void releaseAll() {
+        for (int i = 0; i < mActiveCount; i++) {
+            mActiveVoices[i].noteOff();
+        }
+        for (int i = 0; i < mNoteVoices.length; i++) {
+            mNoteVoices[i] = null;
+        }
+    }
+
+    /**
+     * Silence every voice on the channel immediately.
+     */
+    public void stopChannel(int channel) {
+        for (int i = 0; i < mActiveCount; i++) {
+            SynthVoice voice = mActiveVoices[i];
+            if (voice.getChannel() == channel) {
+                voice.stop();
+            }
+        }
+        int first = channel * NOTES_PER_CHANNEL;
+        for (int i = first; i < first + NOTES_PER_CHANNEL; i++) {
+            mNoteVoices[i] = null;
+        }
+    }
+
+    /**
+     * Move voices that have finished into the free pool.
+     */
+    public void retireFinishedVoices() {
+        int i = 0;
+        while (i < mActiveCount) {
+            SynthVoice voice = mActiveVoices[i];
+            if (voice.isDone()) {
+                removeActive(i);
+                addFreeVoice(voice);
+            } else {
+                i++;
+            }
+        }
+    }
+
+    private SynthVoice removeFreeVoice(int program) {
+        int freeCount = --mFreeCounts[program];
+        SynthVoice voice = mFreeVoices[program][freeCount];
+        mFreeVoices[program][freeCount] = null;
+        return voice;
+    }
+
+    private void addFreeVoice(SynthVoice voice) {
+        int program = voice.getProgram();
+        mFreeVoices[program][mFreeCounts[program]++] = voice;
+    }
+
+    private SynthVoice stealVoice(int channel, int noteIndex, int program) {
+        int victim = -1;
+        if (mStealPolicy == STEAL_SAME_NOTE) {
+            for (int i = 0; i < mActiveCount; i++) {
+                SynthVoice voice = mActiveVoices[i];
+                if (voice.getChannel() == channel && voice.getNoteIndex() == noteIndex) {
+                    victim = i;
+                    break;
+                }
+            }
+        } else if (mStealPolicy == STEAL_QUIETEST) {
+            float lowestLevel = Float.MAX_VALUE;
+            for (int i = 0; i < mActiveCount; i++) {
+                float level = mActiveVoices[i].getCurrentLevel();
+                if (level < lowestLevel) {
+                    lowestLevel = level;
+                    victim = i;
+                }
+            }
+        }
+        if (victim < 0) {
+            long oldestAge = Long.MAX_VALUE;
+            for (int i = 0; i < mActiveCount; i++) {
+                if (mActiveAges[i] < oldestAge) {
+                    oldestAge = mActiveAges[i];
+                    victim = i;
+                }
+            }
+        }
+        SynthVoice voice = mActiveVoices[victim];
+        removeActive(victim);
+        mStolenCount++;
+        if (voice.getProgram() != program) {
+            // Silence the stolen voice and use one that was created for the program.
+            voice.stop();
+            addFreeVoice(voice);
+            voice = removeFreeVoice(program);
+        }
+        return voice;
+    }
+
+    // Remove an active voice and clear its note slot if it still holds it.
+    private void removeActive(int index) {
+        SynthVoice voice = mActiveVoices[index];
+        int noteIndex = voice.getNoteIndex();
+        if (noteIndex >= 0) {
+            int noteSlot = (voice.getChannel() * NOTES_PER_CHANNEL) + noteIndex;
+            if (mNoteVoices[noteSlot] == voice) {
+                mNoteVoices[noteSlot] = null;
+            }
+        }
+        mActiveCount--;
+        mActiveVoices[index] = mActiveVoices[mActiveCount];
+        mActiveAges[index] = mActiveAges[mActiveCount];
+        mActiveVoices[mActiveCount] = null;
+    }
+}
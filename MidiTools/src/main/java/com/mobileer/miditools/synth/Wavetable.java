@@ -0,0 +1,227 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mobileer.miditools.synth;
+
+/**
+ * Immutable set of band limited tables containing one cycle of a waveform.
+ *
+ * Level zero contains every harmonic that fits in the table. Each level
+ * after that contains half as many harmonics, so it can be played one
+ * octave higher without aliasing. The tables are built by adding sine waves
+ * so they contain no energy above the highest harmonic.
+ *
+ * Each table has one extra value before the cycle and three after it
+ * so that an oscillator can interpolate without wrapping the index.
+ *
+ * Tables can be shared by any number of oscillators.
+ */
+public class Wavetable {
+    public static final int DEFAULT_TABLE_SIZE = 2048;
+    // Guard values added before and after each cycle.
+    static final int GUARD_BEFORE = 1;
+    static final int GUARD_AFTER = 3;
+
+    private final int mTableSize;
+    private final float[][] mLevels;
+
+    private static class SineHolder {
+        static final Wavetable INSTANCE = new Wavetable(new float[] { 1.0f });
+    }
+
+    private static class SawtoothHolder {
+        static final Wavetable INSTANCE = new Wavetable(
+                createSawtoothHarmonics(DEFAULT_TABLE_SIZE / 2));
+    }
+
+    private static class SquareHolder {
+        static final Wavetable INSTANCE = new Wavetable(
+                createSquareHarmonics(DEFAULT_TABLE_SIZE / 2));
+    }
+
+    /**
+     * @return shared table containing a sine wave
+     */
+    public static Wavetable getSine() {
+        return SineHolder.INSTANCE;
+    }
+
+    /**
+     * @return shared band limited sawtooth
+     */
+    public static Wavetable getSawtooth() {
+        return SawtoothHolder.INSTANCE;
+    }
+
+    /**
+     * @return shared band limited square wave
+     */
+    public static Wavetable getSquare() {
+        return SquareHolder.INSTANCE;
+    }
+
+    /**
+     * @param numHarmonics
+     * @return amplitudes of the harmonics of a sawtooth
+     */
+    public static float[] createSawtoothHarmonics(int numHarmonics) {
+        float[] amplitudes = new float[numHarmonics];
+        for (int i = 0; i < numHarmonics; i++) {
+            amplitudes[i] = 1.0f / (i + 1);
+        }
+        return amplitudes;
+    }
+
+    /**
+     * @param numHarmonics
+     * @return amplitudes of the harmonics of a square wave
+     */
+    public static float[] createSquareHarmonics(int numHarmonics) {
+        float[] amplitudes = new float[numHarmonics];
+        for (int i = 0; i < numHarmonics; i += 2) {
+            amplitudes[i] = 1.0f / (i + 1);
+        }
+        return amplitudes;
+    }
+
+    public Wavetable(float[] harmonicAmplitudes) {
+        this(harmonicAmplitudes, DEFAULT_TABLE_SIZE);
+    }
+
+    /**
+     * @param harmonicAmplitudes amplitude of each harmonic, starting with the fundamental
+     * @param tableSize number of values in one cycle, must be a power of two
+     */
+    public Wavetable(float[] harmonicAmplitudes, int tableSize) {
+        if (Integer.bitCount(tableSize) != 1) {
+            throw new IllegalArgumentException("tableSize must be a power of 2, not "
+                    + tableSize);
+        }
+        mTableSize = tableSize;
+        int maxHarmonics = tableSize / 2;
+        int numLevels = Integer.numberOfTrailingZeros(maxHarmonics) + 1;
+        mLevels = new float[numLevels][];
+
+        // One cycle of a sine wave. Harmonic k at index n is at (k * n) % tableSize.
+        float[] sine = new float[tableSize];
+        for (int i = 0; i < tableSize; i++) {
+            sine[i] = (float) Math.sin(2.0 * Math.PI * i / tableSize);
+        }
+
+        // Start with the fewest harmonics and add more for each lower level.
+        double[] sum = new double[tableSize];
+        int numHarmonics = 0;
+        float[] previous = null;
+        for (int level = numLevels - 1; level >= 0; level--) {
+            int levelHarmonics = Math.min(maxHarmonics >> level, harmonicAmplitudes.length);
+            boolean changed = false;
+            for (int k = numHarmonics + 1; k <= levelHarmonics; k++) {
+                float amplitude = harmonicAmplitudes[k - 1];
+                if (amplitude != 0.0f) {
+                    int index = 0;
+                    for (int i = 0; i < tableSize; i++) {
+                        sum[i] += amplitude * sine[index];
+                        index = (index + k) & (tableSize - 1);
+                    }
+                    changed = true;
+                }
+            }
+            numHarmonics = Math.max(numHarmonics, levelHarmonics);
+            if (changed || previous == null) {
+                previous = createLevel(sum);
+            }
+            // Levels with the same harmonics share the same array.
+            mLevels[level] = previous;
+        }
+        normalize();
+    }
+
+    private float[] createLevel(double[] sum) {
+        int tableSize = mTableSize;
+        float[] table = new float[GUARD_BEFORE + tableSize + GUARD_AFTER];
+        for (int i = 0; i < tableSize; i++) {
+            table[GUARD_BEFORE + i] = (float) sum[i];
+        }
+        for (int i = 0; i < GUARD_BEFORE; i++) {
+            table[i] = (float) sum[tableSize - GUARD_BEFORE + i];
+        }
+        for (int i = 0; i < GUARD_AFTER; i++) {
+            table[GUARD_BEFORE + tableSize + i] = (float) sum[i];
+        }
+        return table;
+    }
+
+    // Scale every level by the same amount so that the peak is 1.0.
+    private void normalize() {
+        float peak = 0.0f;
+        for (float[] table : mLevels) {
+            for (float value : table) {
+                peak = Math.max(peak, Math.abs(value));
+            }
+        }
+        if (peak == 0.0f) {
+            return;
+        }
+        float scaler = 1.0f / peak;
+        float[] last = null;
+        for (float[] table : mLevels) {
+            if (table != last) {
+                for (int i = 0; i < table.length; i++) {
+                    table[i] *= scaler;
+                }
+                last = table;
+            }
+        }
+    }
+
+    /**
+     * @return number of values in one cycle, not including the guard values
+     */
+    public int getTableSize() {
+        return mTableSize;
+    }
+
+    public int getNumLevels() {
+        return mLevels.length;
+    }
+
+    /**
+     * Choose the level with the most harmonics that will not alias.
+     *
+     * @param cyclesPerFrame frequency divided by the sample rate
+     * @return level index
+     */
+    public int selectLevel(float cyclesPerFrame) {
+        // The highest harmonic must stay below the Nyquist frequency.
+        float limit = 0.5f / Math.abs(cyclesPerFrame);
+        int maxHarmonics = mTableSize / 2;
+        int level = 0;
+        while (level < mLevels.length - 1 && (maxHarmonics >> level) > limit) {
+            level++;
+        }
+        return level;
+    }
+
+    /**
+     * The cycle starts at index GUARD_BEFORE. Do not modify the array.
+     *
+     * @param level
+     * @return table for the level
+     */
+    float[] getLevel(int level) {
+        return mLevels[level];
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mobileer.miditools.synth;
+
+/**
+ * Oscillator that plays a band limited Wavetable.
+ *
+ * The table level is chosen from the frequency once per block so that
+ * high notes do not alias.
+ */
+public class WavetableOscillator extends SawOscillator {
+    public static final int INTERPOLATION_LINEAR = 0;
+    public static final int INTERPOLATION_CUBIC = 1;
+
+    private final Wavetable mWavetable;
+    private final float mHalfTableSize;
+    private int mInterpolation = INTERPOLATION_LINEAR;
+
+    public WavetableOscillator(int sampleRate, Wavetable wavetable) {
+        super(sampleRate);
+        mWavetable = wavetable;
+        mHalfTableSize = wavetable.getTableSize() * 0.5f;
+    }
+
+    public Wavetable getWavetable() {
+        return mWavetable;
+    }
+
+    /**
+     * @param interpolation INTERPOLATION_LINEAR or INTERPOLATION_CUBIC
+     */
+    public void setInterpolation(int interpolation) {
+        mInterpolation = interpolation;
+    }
+
+    public int getInterpolation() {
+        return mInterpolation;
+    }
+
+    private float[] selectTable() {
+        // The phase goes from -1.0 to +1.0 so one cycle is a change of 2.0.
+        return mWavetable.getLevel(mWavetable.selectLevel(getPhaseIncrement() * 0.5f));
+    }
+
+    @Override
+    public float render() {
+        float[] table = selectTable();
+        float position = (incrementWrapPhase() + 1.0f) * mHalfTableSize;
+        float value = (mInterpolation == INTERPOLATION_CUBIC)
+                ? interpolateCubic(table, position)
+                : interpolateLinear(table, position);
+        return value * getAmplitude();
+    }
+
+    @Override
+    public void render(float[] output, int offset, int numFrames) {
+        renderPhases(output, offset, numFrames);
+        float[] table = selectTable();
+        float halfTableSize = mHalfTableSize;
+        float amplitude = getAmplitude();
+        if (mInterpolation == INTERPOLATION_CUBIC) {
+            for (int i = offset; i < offset + numFrames; i++) {
+                float position = (output[i] + 1.0f) * halfTableSize;
+                output[i] = interpolateCubic(table, position) * amplitude;
+            }
+        } else {
+            for (int i = offset; i < offset + numFrames; i++) {
+                float position = (output[i] + 1.0f) * halfTableSize;
+                output[i] = interpolateLinear(table, position) * amplitude;
+            }
+        }
+    }
+
+    private static float interpolateLinear(float[] table, float position) {
+        int index = (int) position;
+        float fraction = position - index;
+        index += Wavetable.GUARD_BEFORE;
+        float a = table[index];
+        return a + ((table[index + 1] - a) * fraction);
+    }
+
+    // Four point, third order Hermite interpolation.
+    private static float interpolateCubic(float[] table, float position) {
+        int index = (int) position;
+        float fraction = position - index;
+        index += Wavetable.GUARD_BEFORE;
+        float xm1 = table[index - 1];
+        float x0 = table[index];
+        float x1 = table[index + 1];
+        float x2 = table[index + 2];
+        float c1 = 0.5f * (x1 - xm1);
+        float c2 = xm1 - (2.5f * x0) + (2.0f * x1) - (0.5f * x2);
+        float c3 = (0.5f * (x2 - xm1)) + (1.5f * (x0 - x1));
+        return (((((c3 * fraction) + c2) * fraction) + c1) * fraction) + x0;
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mobileer.miditools;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Record events into a small trace and read them back.
+ */
+public class TestEventTrace {
+
+    @Test
+    public void testReadMostRecent() {
+        EventTrace trace = new EventTrace(8);
+        for (int i = 0; i < 10; i++) {
+            trace.record(1000 * i, 10 * i, (byte) (0x90 + i), 3);
+        }
+        assertEquals(10, trace.getRecordCount());
+        long[] timestamps = new long[8];
+        long[] lateness = new long[8];
+        byte[] statuses = new byte[8];
+        int[] counts = new int[8];
+        // Only half of the ring is read.
+        assertEquals(4, trace.read(timestamps, lateness, statuses, counts));
+        for (int i = 0; i < 4; i++) {
+            assertEquals(1000 * (i + 6), timestamps[i]);
+            assertEquals(10 * (i + 6), lateness[i]);
+            assertEquals((byte) (0x96 + i), statuses[i]);
+            assertEquals(3, counts[i]);
+        }
+        // Limited by the size of the arrays.
+        assertEquals(2, trace.read(new long[2], new long[2], new byte[2], new int[2]));
+    }
+
+    @Test
+    public void testDumpAndReset() {
+        EventTrace trace = new EventTrace();
+        trace.record(5000, 250000, (byte) 0x80, 3);
+        String text = trace.toString();
+        assertTrue(text, text.contains("status = 0x80"));
+        assertTrue(text, text.contains("late = 250 usec"));
+        trace.reset();
+        assertEquals(0, trace.getRecordCount());
+        assertEquals(0, trace.read(new long[4], new long[4], new byte[4], new int[4]));
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mobileer.miditools;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Check which records a reader must discard after the writer moves on.
+ */
+public class TestRingIndex {
+
+    @Test
+    public void testWriteIndexWraps() {
+        RingIndex ring = new RingIndex(4);
+        for (int i = 0; i < 6; i++) {
+            assertEquals(i % 4, ring.getWriteIndex());
+            ring.publish();
+        }
+        assertEquals(6, ring.getCount());
+        assertEquals(1, ring.getIndex(5));
+        ring.reset();
+        assertEquals(0, ring.getCount());
+        assertEquals(0, ring.getWriteIndex());
+    }
+
+    @Test
+    public void testCountOverwritten() {
+        RingIndex ring = new RingIndex(8);
+        for (int i = 0; i < 10; i++) {
+            ring.publish();
+        }
+        // Records 6 to 9 were copied and the writer has not moved.
+        assertEquals(0, ring.countOverwritten(6, 4));
+        // The writer may be storing record 10 in the slot of record 2.
+        assertEquals(1, ring.countOverwritten(2, 8));
+        // The writer published 3 more records while the reader was copying.
+        for (int i = 0; i < 3; i++) {
+            ring.publish();
+        }
+        assertEquals(0, ring.countOverwritten(6, 4));
+        assertEquals(2, ring.countOverwritten(4, 4));
+        // Everything that was copied is gone.
+        for (int i = 0; i < 20; i++) {
+            ring.publish();
+        }
+        assertEquals(4, ring.countOverwritten(6, 4));
+    }
+}
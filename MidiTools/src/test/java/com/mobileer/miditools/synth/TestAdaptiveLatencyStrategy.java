@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mobileer.miditools.synth;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Simulate a device that glitches when the buffer is smaller than a threshold.
+ */
+public class TestAdaptiveLatencyStrategy {
+    private static final int FRAMES_PER_BLOCK = 96;
+    private static final int INITIAL_SIZE = 16 * FRAMES_PER_BLOCK;
+
+    private final AdaptiveLatencyStrategy mStrategy =
+            new AdaptiveLatencyStrategy(FRAMES_PER_BLOCK);
+    private int mSize = INITIAL_SIZE;
+    private int mUnderrunCount;
+    private int mGlitchyPeriods;
+
+    private void run(int threshold, int numPeriods) {
+        for (int i = 0; i < numPeriods; i++) {
+            if (mSize < threshold) {
+                mUnderrunCount++;
+                mGlitchyPeriods++;
+            }
+            mSize = mStrategy.onPeriod(mUnderrunCount, mSize);
+        }
+    }
+
+    @Test
+    public void testConverges() {
+        int threshold = 5 * FRAMES_PER_BLOCK;
+        // Lower quickly at first.
+        run(threshold, 16);
+        assertTrue(mStrategy.isConverged());
+        assertEquals(threshold, mSize);
+        // Then stay there and probe less and less often.
+        mGlitchyPeriods = 0;
+        int periods = 4 * 60 * 10; // ten minutes at four periods per second
+        run(threshold, periods);
+        assertEquals(threshold, mSize);
+        // The wait doubles after each failed probe, from 8 up to 256 periods.
+        // Then there is about one failed probe per 256 periods.
+        int expected = 5 + (periods / AdaptiveLatencyStrategy.MAX_PROBE_WAIT_PERIODS) + 1;
+        assertTrue("glitched " + mGlitchyPeriods + " times", mGlitchyPeriods <= expected);
+        assertEquals(AdaptiveLatencyStrategy.MAX_PROBE_WAIT_PERIODS,
+                mStrategy.getProbeWaitPeriods());
+    }
+
+    @Test
+    public void testRaisesAndLowersAgain() {
+        int low = 3 * FRAMES_PER_BLOCK;
+        int high = 8 * FRAMES_PER_BLOCK;
+        run(low, 100);
+        assertEquals(low, mSize);
+        // Heavy load for a while.
+        run(high, 100);
+        assertEquals(high, mSize);
+        // The load goes away and the size should come back down
+        // instead of ratcheting up forever.
+        run(low, 4 * 60 * 5);
+        assertEquals(low, mSize);
+    }
+
+    @Test
+    public void testLateUnderrunAfterProbeHolds() {
+        int threshold = 5 * FRAMES_PER_BLOCK;
+        run(threshold, 4 * 60 * 10);
+        assertEquals(AdaptiveLatencyStrategy.MAX_PROBE_WAIT_PERIODS,
+                mStrategy.getProbeWaitPeriods());
+        // The load drops so the next probe holds.
+        int lower = threshold - FRAMES_PER_BLOCK;
+        for (int i = 0; i <= AdaptiveLatencyStrategy.MAX_PROBE_WAIT_PERIODS && mSize > lower; i++) {
+            run(lower, 1);
+        }
+        assertEquals(lower, mSize);
+        run(lower, AdaptiveLatencyStrategy.WINDOW_PERIODS);
+        int wait = mStrategy.getProbeWaitPeriods();
+        assertEquals(AdaptiveLatencyStrategy.MAX_PROBE_WAIT_PERIODS / 2, wait);
+        // The load comes back after the window. That is not a failed probe.
+        run(threshold, 1);
+        assertEquals(threshold, mSize);
+        assertEquals(wait, mStrategy.getProbeWaitPeriods());
+    }
+
+    @Test
+    public void testNoUnderrunsStopsAtOneBlock() {
+        run(0, 100);
+        assertEquals(FRAMES_PER_BLOCK, mSize);
+        assertEquals(0, mStrategy.getWindowUnderruns());
+    }
+
+    @Test
+    public void testHistory() {
+        LatencyHistory history = new LatencyHistory(8);
+        long[] times = new long[8];
+        int[] sizes = new int[8];
+        assertEquals(0, history.copyTo(times, sizes, null));
+        for (int i = 0; i < 11; i++) {
+            history.add(1000L + i, 96 * i, i / 2);
+        }
+        assertEquals(11, history.getCount());
+        // Half of the capacity is copied, oldest first.
+        assertEquals(4, history.copyTo(times, sizes, null));
+        for (int i = 0; i < 4; i++) {
+            assertEquals(1007L + i, times[i]);
+            assertEquals(96 * (7 + i), sizes[i]);
+        }
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mobileer.miditools.synth;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestEnvelopeADSR {
+    private static final int SAMPLE_RATE = 48000;
+    private static final int FRAMES_PER_BLOCK = 64;
+
+    private static EnvelopeADSR createEnvelope(int mode) {
+        EnvelopeADSR envelope = new EnvelopeADSR(SAMPLE_RATE);
+        envelope.setMode(mode);
+        envelope.setAttackTime(0.01f);
+        envelope.setDecayTime(0.05f);
+        envelope.setSustainLevel(0.5f);
+        envelope.setReleaseTime(0.1f);
+        return envelope;
+    }
+
+    // Compare block rendering with single frames and check where it finishes.
+    private void checkBlockMatchesSingle(int mode) {
+        EnvelopeADSR single = createEnvelope(mode);
+        EnvelopeADSR block = createEnvelope(mode);
+        single.on();
+        block.on();
+        float[] buffer = new float[FRAMES_PER_BLOCK];
+        int frame = 0;
+        int finishFrame = -1;
+        while (!block.isDone()) {
+            if (frame == SAMPLE_RATE / 10) {
+                single.off();
+                block.off();
+            }
+            block.render(buffer, 0, buffer.length);
+            for (int i = 0; i < buffer.length; i++) {
+                assertEquals("frame " + (frame + i), single.render(), buffer[i], 0.0f);
+            }
+            if (block.getFinishIndex() >= 0) {
+                finishFrame = frame + block.getFinishIndex();
+                assertEquals(0.0f, buffer[block.getFinishIndex()], 0.0f);
+                assertTrue(block.getFinishIndex() == 0
+                        || buffer[block.getFinishIndex() - 1] > 0.0f);
+            }
+            frame += buffer.length;
+            assertTrue("envelope did not finish", frame < SAMPLE_RATE);
+        }
+        // The release started at 0.1 second and should take at most 0.1 second.
+        assertTrue("finished at " + finishFrame, finishFrame > SAMPLE_RATE / 10);
+        assertTrue("finished at " + finishFrame, finishFrame <= SAMPLE_RATE / 5 + 1);
+        block.render(buffer, 0, buffer.length);
+        assertEquals(0, block.getFinishIndex());
+    }
+
+    @Test
+    public void testLinear() {
+        checkBlockMatchesSingle(EnvelopeADSR.MODE_LINEAR);
+    }
+
+    @Test
+    public void testExponential() {
+        checkBlockMatchesSingle(EnvelopeADSR.MODE_EXPONENTIAL);
+    }
+
+    @Test
+    public void testExponentialShape() {
+        EnvelopeADSR envelope = createEnvelope(EnvelopeADSR.MODE_EXPONENTIAL);
+        envelope.on();
+        float[] buffer = new float[SAMPLE_RATE / 10];
+        envelope.render(buffer, 0, buffer.length);
+        assertEquals(0.5f, envelope.getLevel(), 0.0f);
+        envelope.off();
+        envelope.render(buffer, 0, buffer.length);
+        // An exponential release falls quickly at first.
+        int quarter = SAMPLE_RATE / 40;
+        assertTrue("level = " + buffer[quarter], buffer[quarter] < 0.5f * 0.5f);
+    }
+}
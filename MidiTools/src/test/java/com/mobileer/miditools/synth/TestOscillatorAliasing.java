@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mobileer.miditools.synth;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Measure the aliasing of the oscillators. This runs on the JVM.
+ *
+ * The frequency is chosen so that exactly CYCLES cycles fit in NUM_FRAMES.
+ * Because CYCLES is odd and NUM_FRAMES is a power of two, every harmonic
+ * below the Nyquist frequency lands on a multiple of CYCLES in the DFT and
+ * every aliased harmonic lands somewhere else.
+ */
+public class TestOscillatorAliasing {
+    private static final int SAMPLE_RATE = 48000;
+    private static final int NUM_FRAMES = 4096;
+    private static final int CYCLES = 341; // about 4 kHz
+    private static final float FREQUENCY = (float) CYCLES * SAMPLE_RATE / NUM_FRAMES;
+    private static final int SETTLE_FRAMES = 1000;
+
+    /**
+     * @return energy in bins that are not harmonics divided by the total energy, in dB
+     */
+    private static double measureAliasingDecibels(float[] signal) {
+        int n = signal.length;
+        double[] cosine = new double[n];
+        double[] sine = new double[n];
+        for (int i = 0; i < n; i++) {
+            cosine[i] = Math.cos(2.0 * Math.PI * i / n);
+            sine[i] = Math.sin(2.0 * Math.PI * i / n);
+        }
+        double harmonicEnergy = 0.0;
+        double aliasEnergy = 0.0;
+        // Skip DC.
+        for (int bin = 1; bin < n / 2; bin++) {
+            double real = 0.0;
+            double imaginary = 0.0;
+            int index = 0;
+            for (int i = 0; i < n; i++) {
+                real += signal[i] * cosine[index];
+                imaginary -= signal[i] * sine[index];
+                index = (index + bin) & (n - 1);
+            }
+            double energy = (real * real) + (imaginary * imaginary);
+            if ((bin % CYCLES) == 0) {
+                harmonicEnergy += energy;
+            } else {
+                aliasEnergy += energy;
+            }
+        }
+        return 10.0 * Math.log10(aliasEnergy / (harmonicEnergy + aliasEnergy));
+    }
+
+    private static float[] render(SawOscillator oscillator) {
+        oscillator.setFrequency(FREQUENCY);
+        float[] settle = new float[SETTLE_FRAMES];
+        oscillator.render(settle, 0, settle.length);
+        float[] output = new float[NUM_FRAMES];
+        oscillator.render(output, 0, output.length);
+        return output;
+    }
+
+    private static float[] renderNaive(int waveform) {
+        float[] output = render(new SawOscillator(SAMPLE_RATE));
+        for (int i = 0; i < output.length; i++) {
+            float phase = output[i];
+            if (waveform == PolyBlepOscillator.WAVEFORM_PULSE) {
+                output[i] = (phase < 0.0f) ? 1.0f : -1.0f;
+            } else if (waveform == PolyBlepOscillator.WAVEFORM_TRIANGLE) {
+                output[i] = 1.0f - (2.0f * Math.abs(phase));
+            }
+        }
+        return output;
+    }
+
+    private static double checkWaveform(String name, int waveform) {
+        double naive = measureAliasingDecibels(renderNaive(waveform));
+        double polyBlep = measureAliasingDecibels(
+                render(new PolyBlepOscillator(SAMPLE_RATE, waveform)));
+        assertTrue(name + " PolyBLEP should alias less than naive",
+                polyBlep < naive - 10.0);
+        return polyBlep;
+    }
+
+    @Test
+    public void testSawtooth() {
+        double polyBlep = checkWaveform("saw", PolyBlepOscillator.WAVEFORM_SAWTOOTH);
+        double dpw = measureAliasingDecibels(render(new SawOscillatorDPW(SAMPLE_RATE)));
+        assertTrue("PolyBLEP saw should not alias much more than DPW",
+                polyBlep < dpw + 3.0);
+    }
+
+    @Test
+    public void testPulse() {
+        checkWaveform("pulse", PolyBlepOscillator.WAVEFORM_PULSE);
+    }
+
+    @Test
+    public void testTriangle() {
+        checkWaveform("triangle", PolyBlepOscillator.WAVEFORM_TRIANGLE);
+    }
+}
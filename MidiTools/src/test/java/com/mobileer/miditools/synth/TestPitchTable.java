@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mobileer.miditools.synth;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Check that oscillators play the right pitch at common sample rates.
+ */
+public class TestPitchTable {
+
+    // Count how many frames it takes for the sawtooth to wrap many times.
+    private void checkOscillatorFrequency(int sampleRate, int noteIndex) {
+        SawOscillator oscillator = new SawOscillator(sampleRate);
+        oscillator.setNote(noteIndex);
+        int numFrames = sampleRate; // one second
+        float previous = oscillator.render();
+        int wraps = 0;
+        for (int i = 1; i < numFrames; i++) {
+            float value = oscillator.render();
+            if (value < previous) {
+                wraps++;
+            }
+            previous = value;
+        }
+        double expected = SynthUnit.pitchToFrequency(noteIndex);
+        // Allow one cycle of error from counting.
+        assertEquals("rate = " + sampleRate + ", note = " + noteIndex,
+                expected, wraps, 1.0);
+    }
+
+    @Test
+    public void testOscillatorFrequency() {
+        int[] sampleRates = { 44100, 48000, 96000 };
+        for (int sampleRate : sampleRates) {
+            checkOscillatorFrequency(sampleRate, 69); // 440 Hz
+            checkOscillatorFrequency(sampleRate, 93); // 1760 Hz
+        }
+    }
+
+    @Test
+    public void testPhaseIncrements() {
+        PitchTable table = new PitchTable(44100);
+        for (int i = 0; i < PitchTable.NUM_NOTES; i++) {
+            double frequency = SynthUnit.pitchToFrequency(i);
+            assertEquals(frequency, table.getFrequency(i), frequency * 1.0e-6);
+            assertEquals(2.0 * frequency / 44100, table.getPhaseIncrement(i),
+                    frequency * 1.0e-10);
+        }
+    }
+
+    @Test
+    public void testSemitonesToRatio() {
+        for (float semitones = -48.0f; semitones <= 48.0f; semitones += 0.037f) {
+            double expected = Math.pow(2.0, semitones / 12.0);
+            float ratio = PitchTable.semitonesToRatio(semitones);
+            // 0.01 cents is a ratio of about 6e-6.
+            assertEquals("semitones = " + semitones, expected, ratio, expected * 6.0e-6);
+        }
+    }
+
+    @Test
+    public void testSemitonesToRatioNearZero() {
+        float[] offsets = { -1.0e-7f, -5.0e-8f, -1.0e-9f, -Float.MIN_VALUE, 0.0f, 1.0e-9f,
+                -12.0f - 1.0e-6f };
+        for (float semitones : offsets) {
+            double expected = Math.pow(2.0, semitones / 12.0);
+            float ratio = PitchTable.semitonesToRatio(semitones);
+            assertEquals("semitones = " + semitones, expected, ratio, expected * 6.0e-6);
+        }
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mobileer.miditools.synth;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Feed RenderTelemetry with fake times.
+ */
+public class TestRenderTelemetry {
+    private static final long PERIOD = 2000000; // 2 msec
+    private static final int CAPACITY = 256;
+
+    private final RenderTelemetry mTelemetry = new RenderTelemetry(CAPACITY, 8);
+    private final RenderTelemetry.Snapshot mSnapshot = new RenderTelemetry.Snapshot(4);
+    private long mTime = 1000;
+
+    private void render(long wall, long cpu, int voices, int events) {
+        mTelemetry.beginBlock(mTime, (cpu < 0) ? -1 : 0);
+        mTelemetry.endBlock(mTime + wall, cpu, voices, events);
+        mTime += PERIOD;
+    }
+
+    @Test
+    public void testEmpty() {
+        mTelemetry.reset(PERIOD);
+        mTelemetry.snapshot(mSnapshot);
+        assertEquals(0, mSnapshot.numBlocks);
+        assertEquals(0, mSnapshot.numMisses);
+        assertEquals(0, mSnapshot.p99WallNanos);
+        assertEquals(RenderTelemetry.TIME_UNKNOWN, mSnapshot.p99CpuNanos);
+    }
+
+    @Test
+    public void testStatistics() {
+        mTelemetry.reset(PERIOD);
+        // Only the most recent half of the ring is used.
+        for (int i = 0; i < CAPACITY; i++) {
+            render(PERIOD / 2, PERIOD / 4, 1, 0);
+        }
+        for (int i = 1; i <= 100; i++) {
+            render(i * 1000, i * 500, 1, 0);
+        }
+        for (int i = 0; i < 28; i++) {
+            render(1000, 500, 1, 0);
+        }
+        mTelemetry.snapshot(mSnapshot);
+        assertEquals(CAPACITY + 128, mSnapshot.totalBlocks);
+        assertEquals(128, mSnapshot.numBlocks);
+        assertEquals(1000, mSnapshot.minWallNanos);
+        assertEquals(100000, mSnapshot.maxWallNanos);
+        // 128 * 0.99 rounds up to 127 so p99 is the second largest.
+        assertEquals(99000, mSnapshot.p99WallNanos);
+        assertEquals(500, mSnapshot.minCpuNanos);
+        assertEquals(49500, mSnapshot.p99CpuNanos);
+        assertEquals((5050000 + 28000) / 128, mSnapshot.meanWallNanos);
+        assertEquals(PERIOD, mSnapshot.maxIntervalNanos);
+        assertEquals(0, mSnapshot.totalMisses);
+    }
+
+    @Test
+    public void testMisses() {
+        mTelemetry.reset(PERIOD);
+        for (int i = 0; i < 20; i++) {
+            render(PERIOD / 2, -1, 4, 1);
+            // Every fourth block misses its deadline with more voices.
+            if ((i % 4) == 3) {
+                render(PERIOD + i, -1, 10 + i, 2 + i);
+            }
+        }
+        mTelemetry.snapshot(mSnapshot);
+        assertEquals(5, mSnapshot.totalMisses);
+        assertEquals(RenderTelemetry.TIME_UNKNOWN, mSnapshot.maxCpuNanos);
+        // The ring holds 8 misses so only 4 are copied, oldest first.
+        assertEquals(4, mSnapshot.numMisses);
+        for (int i = 0; i < 4; i++) {
+            int block = 7 + (4 * i);
+            assertEquals(PERIOD + block, mSnapshot.missWallNanos[i]);
+            assertEquals(10 + block, mSnapshot.missVoiceCounts[i]);
+            assertEquals(2 + block, mSnapshot.missEventCounts[i]);
+            assertEquals(RenderTelemetry.TIME_UNKNOWN, mSnapshot.missCpuNanos[i]);
+        }
+        // Each miss is five blocks after the previous one.
+        assertEquals(mSnapshot.missTimes[0] + (5 * PERIOD), mSnapshot.missTimes[1]);
+    }
+}
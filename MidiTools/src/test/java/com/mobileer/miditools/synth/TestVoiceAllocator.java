@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mobileer.miditools.synth;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Allocate, steal and retire voices.
+ */
+public class TestVoiceAllocator {
+    private static final int CHANNEL = 2;
+    private int mCreatedCount;
+
+    private static class SilentVoice extends SynthVoice {
+        @Override
+        public float render() {
+            return 0.0f;
+        }
+    }
+
+    private VoiceAllocator createAllocator(int maxVoices, int policy) {
+        return createAllocator(maxVoices, policy, 1);
+    }
+
+    private VoiceAllocator createAllocator(int maxVoices, int policy, int numPrograms) {
+        VoiceAllocator allocator = new VoiceAllocator(new VoiceAllocator.VoiceFactory() {
+            @Override
+            public SynthVoice createVoice(int program) {
+                mCreatedCount++;
+                return new SilentVoice();
+            }
+        }, maxVoices, numPrograms);
+        allocator.setStealPolicy(policy);
+        return allocator;
+    }
+
+    private static SynthVoice play(VoiceAllocator allocator, int noteIndex, int velocity) {
+        SynthVoice voice = allocator.allocate(CHANNEL, noteIndex, 0);
+        voice.noteOn(noteIndex, velocity);
+        return voice;
+    }
+
+    @Test
+    public void testAllocateAndRetire() {
+        VoiceAllocator allocator = createAllocator(4, VoiceAllocator.STEAL_OLDEST);
+        SynthVoice[] voices = new SynthVoice[4];
+        for (int i = 0; i < voices.length; i++) {
+            voices[i] = play(allocator, 60 + i, 100);
+            assertEquals(CHANNEL, voices[i].getChannel());
+            assertEquals(voices[i], allocator.findVoice(CHANNEL, 60 + i));
+        }
+        assertEquals(4, allocator.getActiveCount());
+        assertEquals(4, mCreatedCount);
+
+        assertEquals(voices[1], allocator.release(CHANNEL, 61));
+        assertTrue(voices[1].isDone());
+        assertEquals(null, allocator.findVoice(CHANNEL, 61));
+        assertEquals(null, allocator.release(CHANNEL, 61));
+        allocator.retireFinishedVoices();
+        assertEquals(3, allocator.getActiveCount());
+
+        // The retired voice is reused.
+        assertEquals(voices[1], play(allocator, 70, 100));
+        assertEquals(4, mCreatedCount);
+        assertEquals(0, allocator.getStolenCount());
+    }
+
+    @Test
+    public void testRetriggerReleasesPrevious() {
+        VoiceAllocator allocator = createAllocator(4, VoiceAllocator.STEAL_OLDEST);
+        SynthVoice first = play(allocator, 60, 100);
+        SynthVoice second = play(allocator, 60, 100);
+        assertTrue(first != second);
+        assertTrue(first.isDone());
+        assertEquals(second, allocator.findVoice(CHANNEL, 60));
+        assertEquals(2, allocator.getActiveCount());
+    }
+
+    @Test
+    public void testStealOldest() {
+        VoiceAllocator allocator = createAllocator(3, VoiceAllocator.STEAL_OLDEST);
+        SynthVoice oldest = play(allocator, 60, 100);
+        play(allocator, 61, 10);
+        play(allocator, 62, 100);
+        assertEquals(oldest, play(allocator, 63, 100));
+        assertEquals(1, allocator.getStolenCount());
+        assertEquals(3, allocator.getActiveCount());
+        assertEquals(null, allocator.findVoice(CHANNEL, 60));
+        assertEquals(oldest, allocator.findVoice(CHANNEL, 63));
+        assertEquals(3, mCreatedCount);
+    }
+
+    @Test
+    public void testStealQuietest() {
+        VoiceAllocator allocator = createAllocator(3, VoiceAllocator.STEAL_QUIETEST);
+        play(allocator, 60, 100);
+        SynthVoice quiet = play(allocator, 61, 10);
+        play(allocator, 62, 80);
+        assertEquals(quiet, play(allocator, 63, 100));
+        assertEquals(null, allocator.findVoice(CHANNEL, 61));
+        assertEquals(1, allocator.getStolenCount());
+    }
+
+    @Test
+    public void testStealSameNote() {
+        VoiceAllocator allocator = createAllocator(3, VoiceAllocator.STEAL_SAME_NOTE);
+        SynthVoice oldest = play(allocator, 60, 100);
+        SynthVoice repeated = play(allocator, 61, 100);
+        play(allocator, 62, 100);
+        // The voice that was playing note 61 is reused, not the oldest.
+        assertEquals(repeated, play(allocator, 61, 100));
+        assertEquals(oldest, allocator.findVoice(CHANNEL, 60));
+        // No voice has the same note so the oldest is stolen.
+        assertEquals(oldest, play(allocator, 64, 100));
+        assertEquals(2, allocator.getStolenCount());
+    }
+
+    @Test
+    public void testVoicesCreatedForEachProgram() {
+        VoiceAllocator allocator = createAllocator(3, VoiceAllocator.STEAL_OLDEST, 4);
+        assertEquals(12, mCreatedCount);
+        for (int program = 0; program < 4; program++) {
+            SynthVoice voice = allocator.allocate(CHANNEL, 60 + program, program);
+            assertEquals(program, voice.getProgram());
+        }
+        assertEquals(12, mCreatedCount);
+    }
+
+    @Test
+    public void testStealForOtherProgram() {
+        VoiceAllocator allocator = createAllocator(2, VoiceAllocator.STEAL_OLDEST, 6);
+        SynthVoice oldest = play(allocator, 60, 100);
+        play(allocator, 61, 100);
+        SynthVoice voice = allocator.allocate(CHANNEL, 62, 5);
+        assertTrue(voice != oldest);
+        assertEquals(5, voice.getProgram());
+        // The stolen voice is silenced and no voice is created.
+        assertTrue(oldest.isDone());
+        assertEquals(null, allocator.findVoice(CHANNEL, 60));
+        assertEquals(12, mCreatedCount);
+        assertEquals(2, allocator.getActiveCount());
+        assertEquals(1, allocator.getStolenCount());
+    }
+
+    @Test
+    public void testProgramOutOfRange() {
+        VoiceAllocator allocator = createAllocator(2, VoiceAllocator.STEAL_OLDEST, 2);
+        try {
+            allocator.allocate(CHANNEL, 60, 2);
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testBadMaxVoices() {
+        try {
+            createAllocator(0, VoiceAllocator.STEAL_OLDEST);
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}